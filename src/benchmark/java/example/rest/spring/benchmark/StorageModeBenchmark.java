@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.benchmark;
+
+import example.rest.spring.SpringBootRestServlet;
+import example.rest.spring.data.User;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+
+import static example.rest.spring.data.Addresses.address;
+import static java.lang.String.format;
+import static javax.ws.rs.client.Entity.entity;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
+import static javax.ws.rs.core.Response.Status.OK;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the in-memory database with the durable "file" profile. For each mode it reports the time from starting the
+ * application until the readiness probe passes, the throughput of creating users through the batch endpoint, and then
+ * the time it takes to be ready with all of those users again after a restart. The in-memory mode has to re-import the
+ * users after it's restart, so that is included in it's time.
+ * <p/>
+ * The applications are started within the benchmark, the second-level cache is disabled because it would be shared
+ * between them.
+ * <p/>
+ * Run with {@code mvn test -P benchmark -Dtest=StorageModeBenchmark}.
+ *
+ * @author Karl Bennett
+ */
+public class StorageModeBenchmark {
+
+    private static final int USERS = 100000;
+    private static final int BATCH_SIZE = 5000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void compare_the_in_memory_and_file_storage_modes() {
+
+        // Warm up the JIT with a full cycle of each mode so that the first mode measured isn't penalised.
+        run("memory", 10000, false);
+        run("file", 10000, false);
+
+        System.out.printf("%-8s %14s %14s %18s%n", "mode", "ready ms", "users/sec", "restart ready ms");
+        run("memory", USERS, true);
+        run("file", USERS, true);
+    }
+
+    private void run(String mode, int users, boolean report) {
+
+        final String[] arguments = arguments(mode);
+
+        long start = System.nanoTime();
+        ConfigurableApplicationContext context = startWhenReady(arguments);
+        final long readyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        createInBatches(users(context), users);
+        final long createNanos = System.nanoTime() - start;
+
+        context.close();
+
+        start = System.nanoTime();
+        context = startWhenReady(arguments);
+        if ("memory".equals(mode)) {
+            createInBatches(users(context), users);
+        }
+        final long restartNanos = System.nanoTime() - start;
+
+        context.close();
+
+        if (report) {
+            System.out.printf("%-8s %14.1f %14.1f %18.1f%n", mode, readyNanos / 1e6, users / (createNanos / 1e9),
+                    restartNanos / 1e6);
+        }
+    }
+
+    private String[] arguments(String mode) {
+
+        // Check the readiness often so that the startup time isn't rounded up to the next refresh.
+        final List<String> arguments = new ArrayList<>();
+        arguments.add("--server.port=0");
+        arguments.add("--management.port=0");
+        arguments.add("--health.refresh-interval-millis=10");
+        arguments.add("--spring.jpa.properties.hibernate.cache.use_second_level_cache=false");
+
+        if ("file".equals(mode)) {
+            arguments.add("--spring.profiles.active=file");
+            arguments.add("--storage.directory=" + folder.getRoot().getAbsolutePath() + "/" + System.nanoTime());
+        } else {
+            arguments.add("--spring.datasource.url=jdbc:h2:mem:storage-benchmark");
+        }
+
+        return arguments.toArray(new String[arguments.size()]);
+    }
+
+    private static ConfigurableApplicationContext startWhenReady(String[] arguments) {
+
+        final ConfigurableApplicationContext context = new SpringApplicationBuilder(SpringBootRestServlet.class)
+                .run(arguments);
+
+        final WebTarget ready = target(context).path("health/ready");
+
+        while (true) {
+            final Response response = ready.request(APPLICATION_JSON_TYPE).get();
+            response.close();
+
+            if (OK.getStatusCode() == response.getStatus()) {
+                return context;
+            }
+        }
+    }
+
+    private static WebTarget target(ConfigurableApplicationContext context) {
+
+        final int port = ((EmbeddedWebApplicationContext) context).getEmbeddedServletContainer().getPort();
+
+        return ClientBuilder.newClient().target(format("http://localhost:%d/rest/", port));
+    }
+
+    private static WebTarget users(ConfigurableApplicationContext context) {
+
+        return target(context).path("users");
+    }
+
+    private static void createInBatches(WebTarget target, int count) {
+
+        for (int start = 0; start < count; start += BATCH_SIZE) {
+
+            final List<User> users = new ArrayList<>(BATCH_SIZE);
+            for (int i = start; i < Math.min(start + BATCH_SIZE, count); i++) {
+                users.add(new User(format("benchmark.user%d@email.com", i), "Benchmark", "User" + i, "5551234",
+                        address()));
+            }
+
+            final Response response = target.path("batch").request(APPLICATION_JSON_TYPE)
+                    .post(entity(users, APPLICATION_JSON_TYPE));
+
+            assertEquals(OK.getStatusCode(), response.getStatus());
+            response.close();
+        }
+    }
+}
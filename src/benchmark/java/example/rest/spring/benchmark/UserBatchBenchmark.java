@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.benchmark;
+
+import example.rest.spring.SpringBootRestServlet;
+import example.rest.spring.data.User;
+import example.rest.spring.data.UserSteps;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.IntegrationTest;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+
+import static example.rest.spring.data.Addresses.address;
+import static java.lang.String.format;
+import static javax.ws.rs.client.Entity.entity;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
+import static javax.ws.rs.core.Response.Status.CREATED;
+import static javax.ws.rs.core.Response.Status.OK;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the throughput of creating users one request at a time with creating them through the batch endpoint.
+ * <p/>
+ * Run with {@code mvn test -P benchmark}.
+ *
+ * @author Karl Bennett
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = SpringBootRestServlet.class)
+@WebAppConfiguration("classpath:")
+@IntegrationTest({"server.port=0", "management.port=0"})
+public class UserBatchBenchmark {
+
+    private static final int SINGLE_USERS = 2000;
+    private static final int BATCH_USERS = 50000;
+    private static final int BATCH_SIZE = 5000;
+
+    @Value("${local.server.port}")
+    private int port;
+
+    @Autowired
+    private UserSteps steps;
+
+    private WebTarget target;
+
+    @Before
+    public void setUp() {
+
+        target = ClientBuilder.newClient().target(format("http://localhost:%d/rest/", port)).path("users");
+
+        steps.all_users_are_cleaned_up();
+
+        // Warm up both endpoints so that the JIT and the connection pool are not part of the measurement.
+        createOneAtATime(0, 200);
+        createInBatches(200, 1000, 200);
+
+        steps.all_users_are_cleaned_up();
+    }
+
+    @Test
+    public void create_users_one_at_a_time() {
+
+        final long start = System.nanoTime();
+
+        createOneAtATime(0, SINGLE_USERS);
+
+        report("POST /users", SINGLE_USERS, System.nanoTime() - start);
+    }
+
+    @Test
+    public void create_users_in_batches() {
+
+        final long start = System.nanoTime();
+
+        createInBatches(0, BATCH_USERS, BATCH_SIZE);
+
+        report(format("POST /users/batch (%d per request)", BATCH_SIZE), BATCH_USERS, System.nanoTime() - start);
+    }
+
+    private void createOneAtATime(int from, int to) {
+
+        for (int i = from; i < to; i++) {
+
+            final Response response = target.request(APPLICATION_JSON_TYPE)
+                    .post(entity(user(i), APPLICATION_JSON_TYPE));
+
+            assertEquals(CREATED.getStatusCode(), response.getStatus());
+            response.close();
+        }
+    }
+
+    private void createInBatches(int from, int to, int batchSize) {
+
+        for (int start = from; start < to; start += batchSize) {
+
+            final List<User> users = new ArrayList<>(batchSize);
+            for (int i = start; i < Math.min(start + batchSize, to); i++) {
+                users.add(user(i));
+            }
+
+            final Response response = target.path("batch").request(APPLICATION_JSON_TYPE)
+                    .post(entity(users, APPLICATION_JSON_TYPE));
+
+            assertEquals(OK.getStatusCode(), response.getStatus());
+            response.close();
+        }
+    }
+
+    private static User user(int index) {
+
+        return new User(format("benchmark.user%d@email.com", index), "Benchmark", "User" + index, "5551234",
+                address());
+    }
+
+    private static void report(String name, int users, long nanos) {
+
+        System.out.printf("%-40s %8d users in %8.3f s = %10.1f users/sec%n", name, users, nanos / 1e9,
+                users / (nanos / 1e9));
+    }
+}
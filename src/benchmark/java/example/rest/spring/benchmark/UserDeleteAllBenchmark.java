@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.benchmark;
+
+import example.rest.spring.SpringBootRestServlet;
+import example.rest.spring.data.User;
+import example.rest.spring.data.UserSteps;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.IntegrationTest;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+
+import static example.rest.spring.data.Addresses.address;
+import static java.lang.String.format;
+import static javax.ws.rs.client.Entity.entity;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
+import static javax.ws.rs.core.Response.Status.NO_CONTENT;
+import static javax.ws.rs.core.Response.Status.OK;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures how long it takes to delete all the users as the number of users grows.
+ * <p/>
+ * Run with {@code mvn test -P benchmark}.
+ *
+ * @author Karl Bennett
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = SpringBootRestServlet.class)
+@WebAppConfiguration("classpath:")
+@IntegrationTest({"server.port=0", "management.port=0"})
+public class UserDeleteAllBenchmark {
+
+    private static final int BATCH_SIZE = 5000;
+
+    @Value("${local.server.port}")
+    private int port;
+
+    @Autowired
+    private UserSteps steps;
+
+    private WebTarget target;
+
+    @Before
+    public void setUp() {
+
+        target = ClientBuilder.newClient().target(format("http://localhost:%d/rest/", port)).path("users");
+
+        steps.all_users_are_cleaned_up();
+
+        // Warm up the endpoint so that the JIT and the connection pool are not part of the measurement.
+        for (int i = 0; i < 20; i++) {
+            create(100);
+            deleteAll();
+        }
+    }
+
+    @Test
+    public void delete_all_users() {
+
+        for (int users : new int[]{1000, 10000, 100000}) {
+
+            create(users);
+
+            final long start = System.nanoTime();
+
+            deleteAll();
+
+            final long nanos = System.nanoTime() - start;
+
+            System.out.printf("%-40s %8d users in %8.3f ms%n", "DELETE /users", users, nanos / 1e6);
+        }
+    }
+
+    private void create(int count) {
+
+        for (int start = 0; start < count; start += BATCH_SIZE) {
+
+            final List<User> users = new ArrayList<>(BATCH_SIZE);
+            for (int i = start; i < Math.min(start + BATCH_SIZE, count); i++) {
+                users.add(new User(format("benchmark.user%d@email.com", i), "Benchmark", "User" + i, "5551234",
+                        address()));
+            }
+
+            final Response response = target.path("batch").request(APPLICATION_JSON_TYPE)
+                    .post(entity(users, APPLICATION_JSON_TYPE));
+
+            assertEquals(OK.getStatusCode(), response.getStatus());
+            response.close();
+        }
+    }
+
+    private void deleteAll() {
+
+        final Response response = target.request().delete();
+
+        assertEquals(NO_CONTENT.getStatusCode(), response.getStatus());
+        response.close();
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.benchmark;
+
+import example.rest.spring.SpringBootRestServlet;
+import example.rest.spring.data.User;
+import example.rest.spring.data.UserSteps;
+import org.HdrHistogram.Histogram;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.IntegrationTest;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import javax.persistence.CacheRetrieveMode;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static example.rest.spring.data.Addresses.address;
+import static java.lang.String.format;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Compares the latency of reading a user and it's address with and without the Hibernate second-level cache.
+ * <p/>
+ * Every read uses a new entity manager, just like a request would, so the only thing that can stop a read going to the
+ * database is the second-level cache. The uncached reads bypass the cache with the standard JPA retrieve mode hint.
+ * The user cache is disabled so that it doesn't hide the entity cache from the HTTP requests that populate it.
+ * <p/>
+ * Run with {@code mvn test -P benchmark -Dtest=UserEntityCacheBenchmark}.
+ *
+ * @author Karl Bennett
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = SpringBootRestServlet.class)
+@WebAppConfiguration("classpath:")
+@IntegrationTest({"server.port=0", "management.port=0", "users.cache.maximum-size=0"})
+public class UserEntityCacheBenchmark {
+
+    private static final int USERS = 1000;
+
+    private static final int WARM_UP_READS = 50000;
+
+    private static final int READS = 200000;
+
+    private static final long HIGHEST_LATENCY = TimeUnit.SECONDS.toNanos(10);
+
+    private static final String RETRIEVE_MODE = "javax.persistence.cache.retrieveMode";
+
+    @Autowired
+    private UserSteps steps;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private final List<Long> ids = new ArrayList<>(USERS);
+
+    @Before
+    public void setUp() {
+
+        steps.all_users_are_cleaned_up();
+
+        for (int i = 0; i < USERS; i++) {
+            final User user = new User(format("benchmark.user%d@email.com", i), "Benchmark", "User" + i, "5551234",
+                    address());
+            ids.add(steps.given_a_user_has_been_persisted(user).getId());
+        }
+    }
+
+    @Test
+    public void read_users_with_and_without_the_entity_cache() {
+
+        final Map<String, Object> cached = retrieveMode(CacheRetrieveMode.USE);
+        final Map<String, Object> uncached = retrieveMode(CacheRetrieveMode.BYPASS);
+
+        // Warm up both paths, this also loads every user into the cache.
+        read(uncached, WARM_UP_READS);
+        read(cached, WARM_UP_READS);
+
+        System.out.printf("%-12s %10s %10s %10s %10s %10s%n", "mode", "reads/s", "p50 us", "p99 us", "p99.9 us",
+                "max us");
+        print("uncached", read(uncached, READS));
+        print("cached", read(cached, READS));
+    }
+
+    private Results read(Map<String, Object> hints, int reads) {
+
+        final Histogram latencies = new Histogram(HIGHEST_LATENCY, 3);
+
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        final long start = System.nanoTime();
+
+        for (int i = 0; i < reads; i++) {
+
+            final Long id = ids.get(random.nextInt(ids.size()));
+
+            final long readStart = System.nanoTime();
+
+            final EntityManager entityManager = entityManagerFactory.createEntityManager();
+            try {
+                final User user = entityManager.find(User.class, id, hints);
+                assertNotNull(user.getAddress().getCity());
+            } finally {
+                entityManager.close();
+            }
+
+            latencies.recordValue(System.nanoTime() - readStart);
+        }
+
+        return new Results(latencies, System.nanoTime() - start);
+    }
+
+    private static Map<String, Object> retrieveMode(CacheRetrieveMode mode) {
+        return Collections.<String, Object>singletonMap(RETRIEVE_MODE, mode);
+    }
+
+    private static void print(String name, Results results) {
+
+        final Histogram latencies = results.latencies;
+
+        System.out.printf("%-12s %10.1f %10.3f %10.3f %10.3f %10.3f%n", name,
+                latencies.getTotalCount() / (results.nanos / 1e9), micros(latencies.getValueAtPercentile(50)),
+                micros(latencies.getValueAtPercentile(99)), micros(latencies.getValueAtPercentile(99.9)),
+                micros(latencies.getMaxValue()));
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    private static class Results {
+
+        private final Histogram latencies;
+
+        private final long nanos;
+
+        private Results(Histogram latencies, long nanos) {
+            this.latencies = latencies;
+            this.nanos = nanos;
+        }
+    }
+}
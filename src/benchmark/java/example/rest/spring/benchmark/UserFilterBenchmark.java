@@ -0,0 +1,247 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.benchmark;
+
+import example.rest.spring.SpringBootRestServlet;
+import example.rest.spring.data.UserSteps;
+import org.HdrHistogram.Histogram;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.IntegrationTest;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import javax.sql.DataSource;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
+import static javax.ws.rs.core.Response.Status.OK;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the latency of filtering and sorting a page of users with and without the indexes on the filtered and
+ * sorted columns.
+ * <p/>
+ * The users are inserted straight into the database with {@code INSERT ... SELECT} so that a million of them can be
+ * set up in seconds, the application is never told about them which is fine because nothing here reads them by ID or
+ * searches for them. Every filter is first timed with the indexes that Hibernate created and then again after the
+ * indexes have been dropped. The number of users and requests can be set with the {@code filter.users} and
+ * {@code filter.requests} system properties.
+ * <p/>
+ * Run with {@code mvn test -P benchmark -Dtest=UserFilterBenchmark}.
+ *
+ * @author Karl Bennett
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = SpringBootRestServlet.class)
+@WebAppConfiguration("classpath:")
+@IntegrationTest({"server.port=0", "management.port=0",
+        "spring.jpa.properties.hibernate.cache.use_second_level_cache=false"})
+public class UserFilterBenchmark {
+
+    private static final int USERS = Integer.getInteger("filter.users", 1000000);
+
+    private static final int REQUESTS = Integer.getInteger("filter.requests", 200);
+
+    private static final int CHUNK_SIZE = 10000;
+
+    private static final int LAST_NAMES = 10000;
+
+    private static final int CITIES = 100;
+
+    private static final int SUBURBS = 1000;
+
+    private static final int POSTCODES = 10000;
+
+    private static final int LIMIT = 50;
+
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toNanos(1);
+
+    private static final String[] INDEXES = {"user_last_name_id", "user_first_name_id", "user_email_id",
+            "address_city", "address_postcode", "address_suburb"};
+
+    @Value("${local.server.port}")
+    private int port;
+
+    @Autowired
+    private UserSteps steps;
+
+    @Autowired
+    private DataSource dataSource;
+
+    private JdbcTemplate jdbc;
+
+    private WebTarget target;
+
+    @Before
+    public void setUp() {
+
+        target = ClientBuilder.newClient().target(format("http://localhost:%d/rest/", port)).path("users");
+        jdbc = new JdbcTemplate(dataSource);
+
+        steps.all_users_are_cleaned_up();
+
+        // Insert the users a chunk at a time, a single statement for all of them spends most of it's time growing the
+        // transaction's undo log. They are deleted a chunk at a time for the same reason.
+        for (int start = 1; start <= USERS; start += CHUNK_SIZE) {
+
+            final int end = Math.min(start + CHUNK_SIZE - 1, USERS);
+
+            jdbc.update("INSERT INTO address (id, version, number, street, suburb, city, postcode) " +
+                    "SELECT X, 0, X, 'Benchmark Road', CONCAT('Suburb', MOD(X, ?)), CONCAT('City', MOD(X, ?)), " +
+                    "CONCAT('P', MOD(X, ?)) FROM SYSTEM_RANGE(?, ?)", SUBURBS, CITIES, POSTCODES, start, end);
+            jdbc.update("INSERT INTO user (id, version, email, first_name, last_name, phone_number, address_id) " +
+                    "SELECT X, 0, CONCAT('benchmark.user', X, '@email.com'), 'Benchmark', " +
+                    "CONCAT('User', MOD(X, ?)), '5551234', X FROM SYSTEM_RANGE(?, ?)", LAST_NAMES, start, end);
+        }
+
+        jdbc.execute("ANALYZE");
+    }
+
+    @After
+    public void tearDown() {
+
+        for (int start = 1; start <= USERS; start += CHUNK_SIZE) {
+            jdbc.update("DELETE FROM user WHERE id BETWEEN ? AND ?", start, start + CHUNK_SIZE - 1);
+            jdbc.update("DELETE FROM address WHERE id BETWEEN ? AND ?", start, start + CHUNK_SIZE - 1);
+        }
+    }
+
+    @Test
+    public void filter_users_with_and_without_the_indexes() {
+
+        System.out.printf("%-10s %-22s %10s %10s %10s %10s%n", "indexes", "filter", "req/s", "p50 ms", "p99 ms",
+                "max ms");
+
+        filterEverything("with");
+
+        for (String index : INDEXES) {
+            jdbc.execute("DROP INDEX " + index);
+        }
+        jdbc.execute("ANALYZE");
+
+        filterEverything("without");
+    }
+
+    private void filterEverything(String indexes) {
+
+        print(indexes, "none", sort("id"));
+        print(indexes, "lastName", filter("lastName", "User", LAST_NAMES));
+        print(indexes, "city", filter("city", "City", CITIES));
+        print(indexes, "suburb", filter("suburb", "Suburb", SUBURBS));
+        print(indexes, "postcode", filter("postcode", "P", POSTCODES));
+        print(indexes, "sort=lastName", sort("lastName"));
+        print(indexes, "sort=firstName", sort("firstName"));
+        print(indexes, "sort=-email", sort("-email"));
+    }
+
+    private Results filter(String field, String prefix, int values) {
+
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        // Warm up with a few requests so that the JIT and the connection pool are not part of the measurement.
+        for (int i = 0; i < 5; i++) {
+            get(target.queryParam(field, prefix + random.nextInt(values)));
+        }
+
+        final Histogram latencies = new Histogram(HIGHEST_LATENCY, 3);
+
+        final long start = System.nanoTime();
+
+        for (int i = 0; i < REQUESTS; i++) {
+
+            final WebTarget filtered = target.queryParam(field, prefix + random.nextInt(values));
+
+            final long requestStart = System.nanoTime();
+            get(filtered);
+            latencies.recordValue(System.nanoTime() - requestStart);
+        }
+
+        return new Results(latencies, System.nanoTime() - start);
+    }
+
+    private Results sort(String sort) {
+
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        final WebTarget sorted = target.queryParam("sort", sort);
+
+        // Every page starts after a random user, H2 would otherwise just return it's cached result for the same query.
+        for (int i = 0; i < 5; i++) {
+            get(sorted.queryParam("after", random.nextInt(USERS) + 1));
+        }
+
+        final Histogram latencies = new Histogram(HIGHEST_LATENCY, 3);
+
+        final long start = System.nanoTime();
+
+        for (int i = 0; i < REQUESTS; i++) {
+
+            final WebTarget page = sorted.queryParam("after", random.nextInt(USERS) + 1);
+
+            final long requestStart = System.nanoTime();
+            get(page);
+            latencies.recordValue(System.nanoTime() - requestStart);
+        }
+
+        return new Results(latencies, System.nanoTime() - start);
+    }
+
+    private static void get(WebTarget target) {
+
+        final Response response = target.queryParam("limit", LIMIT).request(APPLICATION_JSON_TYPE).get();
+
+        assertEquals(OK.getStatusCode(), response.getStatus());
+        response.readEntity(String.class);
+    }
+
+    private static void print(String indexes, String filter, Results results) {
+
+        final Histogram latencies = results.latencies;
+
+        System.out.printf("%-10s %-22s %10.1f %10.3f %10.3f %10.3f%n", indexes, filter,
+                latencies.getTotalCount() / (results.nanos / 1e9), millis(latencies.getValueAtPercentile(50)),
+                millis(latencies.getValueAtPercentile(99)), millis(latencies.getMaxValue()));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static class Results {
+
+        private final Histogram latencies;
+
+        private final long nanos;
+
+        private Results(Histogram latencies, long nanos) {
+            this.latencies = latencies;
+            this.nanos = nanos;
+        }
+    }
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import example.rest.spring.SpringBootRestServlet;
+import example.rest.spring.data.User;
+import example.rest.spring.data.UserSteps;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.IntegrationTest;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.Response;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static example.rest.spring.data.Addresses.address;
+import static java.lang.String.format;
+import static javax.ws.rs.client.Entity.entity;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
+
+/**
+ * An open loop load test that sends a mix of requests to every user endpoint at a fixed arrival rate.
+ * <p/>
+ * Each request is scheduled for an intended start time and it's latency is measured from that time rather than from
+ * when it was actually sent. So if the server, or the client threads, fall behind the requests that are delayed are
+ * still recorded with the full delay instead of the delay being hidden, this corrects for coordinated omission.
+ * <p/>
+ * The load can be configured with system properties, for example:
+ * <pre>
+ * mvn test -P benchmark -Dtest=UserLoadBenchmark -Dload.rate=1000 -Dload.duration-seconds=60 \
+ *     -Dload.mix=create:10,read:60,list:10,update:15,delete:5
+ * </pre>
+ * The latency percentiles and throughput of each request type are printed and written to
+ * {@code target/load/UserLoadBenchmark.json}.
+ *
+ * @author Karl Bennett
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = SpringBootRestServlet.class)
+@WebAppConfiguration("classpath:")
+@IntegrationTest({"server.port=0", "management.port=0"})
+public class UserLoadBenchmark {
+
+    // Latencies are recorded in microseconds up to one minute with three significant digits.
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toMicros(1);
+
+    @Value("${local.server.port}")
+    private int port;
+
+    @Value("${load.rate:200}")
+    private int rate;
+
+    @Value("${load.duration-seconds:30}")
+    private int durationSeconds;
+
+    @Value("${load.warm-up-seconds:10}")
+    private int warmUpSeconds;
+
+    @Value("${load.threads:64}")
+    private int threads;
+
+    @Value("${load.users:1000}")
+    private int initialUsers;
+
+    @Value("${load.mix:create:10,read:60,list:10,update:15,delete:5}")
+    private String mix;
+
+    @Autowired
+    private UserSteps steps;
+
+    private WebTarget target;
+
+    private final Ids ids = new Ids();
+
+    private final AtomicLong emails = new AtomicLong();
+
+    @Before
+    public void setUp() {
+
+        target = ClientBuilder.newClient().target(format("http://localhost:%d/rest/", port)).path("users");
+
+        steps.all_users_are_cleaned_up();
+
+        final List<User> users = new ArrayList<>(initialUsers);
+        for (int i = 0; i < initialUsers; i++) {
+            users.add(user());
+        }
+
+        final List<Map<String, Number>> results = target.path("batch").request(APPLICATION_JSON_TYPE)
+                .post(entity(users, APPLICATION_JSON_TYPE), new GenericType<List<Map<String, Number>>>() {
+                });
+
+        for (Map<String, Number> result : results) {
+            ids.add(result.get("id").longValue());
+        }
+    }
+
+    @Test
+    public void user_request_mix() throws Exception {
+
+        final Mix requests = new Mix(mix);
+        final Map<Operation, Results> results = new LinkedHashMap<>();
+        for (Operation operation : requests.operations()) {
+            results.put(operation, new Results());
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        final long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        final long start = System.nanoTime();
+        final long measureFrom = start + TimeUnit.SECONDS.toNanos(warmUpSeconds);
+        final long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        for (long intended = start; intended < end; intended += intervalNanos) {
+
+            waitUntil(intended);
+
+            final Operation operation = requests.next();
+            final Results result = results.get(operation);
+            final long intendedStart = intended;
+            final boolean measured = measureFrom <= intended;
+
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+
+                    final int status = request(operation);
+
+                    if (measured) {
+                        result.record(status, System.nanoTime() - intendedStart);
+                    }
+                }
+            });
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        // The throughput is measured until the last request completed, so a server that can't keep up with the rate
+        // will show a lower throughput than the rate.
+        report(results, (System.nanoTime() - measureFrom) / 1e9);
+    }
+
+    private int request(Operation operation) {
+
+        try {
+            switch (operation) {
+                case create:
+                    return create();
+                case read:
+                    return close(target.path(ids.random().toString()).request(APPLICATION_JSON_TYPE).get());
+                case list:
+                    return close(target.queryParam("limit", 100).request(APPLICATION_JSON_TYPE).get());
+                case update:
+                    return close(target.path(ids.random().toString()).request()
+                            .put(entity(user(), APPLICATION_JSON_TYPE)));
+                case delete:
+                    return delete();
+                default:
+                    throw new IllegalStateException("Unknown operation: " + operation);
+            }
+        } catch (RuntimeException e) {
+            // A failed request, for instance a refused connection, is recorded with a status of zero.
+            return 0;
+        }
+    }
+
+    private int create() {
+
+        final Response response = target.request(APPLICATION_JSON_TYPE).post(entity(user(), APPLICATION_JSON_TYPE));
+
+        if (201 != response.getStatus()) {
+            return close(response);
+        }
+
+        ids.add(response.readEntity(new GenericType<Map<String, Number>>() {
+        }).get("id").longValue());
+
+        return 201;
+    }
+
+    private int delete() {
+
+        final Long id = ids.remove();
+
+        if (null == id) {
+            return 0;
+        }
+
+        return close(target.path(id.toString()).request().delete());
+    }
+
+    private User user() {
+
+        final long index = emails.incrementAndGet();
+
+        return new User(format("load.user%d@email.com", index), "Load", "User" + index, "5551234", address());
+    }
+
+    private void report(Map<Operation, Results> results, double seconds) throws IOException {
+
+        final Map<String, Object> report = new LinkedHashMap<>();
+
+        final Map<String, Object> configuration = new LinkedHashMap<>();
+        configuration.put("rate", rate);
+        configuration.put("durationSeconds", durationSeconds);
+        configuration.put("warmUpSeconds", warmUpSeconds);
+        configuration.put("threads", threads);
+        configuration.put("initialUsers", initialUsers);
+        configuration.put("mix", mix);
+        report.put("configuration", configuration);
+
+        final Results all = new Results();
+        final Map<String, Object> operations = new LinkedHashMap<>();
+
+        System.out.printf("%-8s %8s %10s %10s %10s %10s %10s  %s%n",
+                "request", "count", "req/sec", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "statuses");
+
+        for (Map.Entry<Operation, Results> entry : results.entrySet()) {
+            operations.put(entry.getKey().name(), entry.getValue().summary(seconds));
+            print(entry.getKey().name(), entry.getValue(), seconds);
+            all.add(entry.getValue());
+        }
+
+        print("all", all, seconds);
+
+        report.put("operations", operations);
+        report.put("all", all.summary(seconds));
+
+        final File file = new File("target/load/UserLoadBenchmark.json");
+        file.getParentFile().mkdirs();
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, report);
+    }
+
+    private static void print(String name, Results results, double seconds) {
+
+        final Histogram latencies = results.latencies;
+
+        System.out.printf("%-8s %8d %10.1f %10.3f %10.3f %10.3f %10.3f  %s%n", name, latencies.getTotalCount(),
+                latencies.getTotalCount() / seconds, millis(latencies.getValueAtPercentile(50)),
+                millis(latencies.getValueAtPercentile(99)), millis(latencies.getValueAtPercentile(99.9)),
+                millis(latencies.getMaxValue()), results.statuses);
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    /**
+     * Read the whole of the response so that the connection can be reused, closing a response that hasn't been read
+     * would drop the connection.
+     */
+    private static int close(Response response) {
+
+        final int status = response.getStatus();
+        response.readEntity(String.class);
+
+        return status;
+    }
+
+    private static void waitUntil(long nanoTime) {
+
+        for (long remaining = nanoTime - System.nanoTime(); 0 < remaining; remaining = nanoTime - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private enum Operation {
+        create, read, list, update, delete
+    }
+
+    /**
+     * Picks the next operation at random according to the configured weights, for example
+     * {@code create:10,read:60,list:10,update:15,delete:5}.
+     */
+    private static class Mix {
+
+        private final List<Operation> operations = new ArrayList<>();
+
+        private final List<Integer> cumulativeWeights = new ArrayList<>();
+
+        private final Random random = new Random();
+
+        private int total;
+
+        private Mix(String mix) {
+
+            for (String entry : mix.split(",")) {
+
+                final String[] nameAndWeight = entry.trim().split(":");
+                final int weight = Integer.parseInt(nameAndWeight[1].trim());
+
+                if (0 < weight) {
+                    total += weight;
+                    operations.add(Operation.valueOf(nameAndWeight[0].trim()));
+                    cumulativeWeights.add(total);
+                }
+            }
+        }
+
+        private List<Operation> operations() {
+            return operations;
+        }
+
+        private Operation next() {
+
+            final int value = random.nextInt(total);
+
+            for (int i = 0; i < operations.size(); i++) {
+                if (value < cumulativeWeights.get(i)) {
+                    return operations.get(i);
+                }
+            }
+
+            throw new IllegalStateException("The weights must add up to the total.");
+        }
+    }
+
+    /**
+     * The ID's of the users that currently exist, so that the reads, updates and deletes have something to act on.
+     */
+    private static class Ids {
+
+        private final List<Long> ids = new ArrayList<>();
+
+        private synchronized void add(Long id) {
+            ids.add(id);
+        }
+
+        private synchronized Long random() {
+            return ids.isEmpty() ? -1L : ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+        }
+
+        private synchronized Long remove() {
+
+            if (ids.isEmpty()) {
+                return null;
+            }
+
+            final int index = ThreadLocalRandom.current().nextInt(ids.size());
+            final Long last = ids.remove(ids.size() - 1);
+
+            return index == ids.size() ? last : ids.set(index, last);
+        }
+    }
+
+    private static class Results {
+
+        private final Histogram latencies = new ConcurrentHistogram(HIGHEST_LATENCY, 3);
+
+        private final ConcurrentMap<Integer, AtomicLong> statuses = new ConcurrentHashMap<>();
+
+        private void record(int status, long nanos) {
+
+            latencies.recordValue(Math.min(HIGHEST_LATENCY, TimeUnit.NANOSECONDS.toMicros(nanos)));
+
+            AtomicLong count = statuses.get(status);
+            if (null == count) {
+                statuses.putIfAbsent(status, new AtomicLong());
+                count = statuses.get(status);
+            }
+            count.incrementAndGet();
+        }
+
+        private void add(Results results) {
+
+            latencies.add(results.latencies);
+
+            for (Map.Entry<Integer, AtomicLong> entry : results.statuses.entrySet()) {
+                statuses.putIfAbsent(entry.getKey(), new AtomicLong());
+                statuses.get(entry.getKey()).addAndGet(entry.getValue().get());
+            }
+        }
+
+        private Map<String, Object> summary(double seconds) {
+
+            final Map<String, Object> latency = new LinkedHashMap<>();
+            latency.put("p50", millis(latencies.getValueAtPercentile(50)));
+            latency.put("p99", millis(latencies.getValueAtPercentile(99)));
+            latency.put("p99.9", millis(latencies.getValueAtPercentile(99.9)));
+            latency.put("max", millis(latencies.getMaxValue()));
+
+            final Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("count", latencies.getTotalCount());
+            summary.put("requestsPerSecond", latencies.getTotalCount() / seconds);
+            summary.put("latencyMillis", latency);
+            summary.put("statuses", statuses);
+
+            return summary;
+        }
+    }
+}
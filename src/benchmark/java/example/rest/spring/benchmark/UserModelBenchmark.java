@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import example.rest.spring.data.Address;
+import example.rest.spring.data.User;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static example.rest.spring.data.Addresses.address;
+import static example.rest.spring.data.Users.EMAIL;
+import static example.rest.spring.data.Users.FIRST_NAME;
+import static example.rest.spring.data.Users.LAST_NAME;
+import static example.rest.spring.data.Users.PHONE_NUMBER;
+import static example.rest.spring.data.Users.user;
+
+/**
+ * JMH micro benchmarks for the work that is done on every user that passes through the API: the {@code JSON}
+ * serialisation and deserialisation, construction, equality, and the defensive copies of the address.
+ * <p/>
+ * The GC profiler is enabled so that the bytes allocated per operation ({@code gc.alloc.rate.norm}) are reported along
+ * with the operations per second. The results are also written to {@code target/jmh/UserModelBenchmark.json} so that
+ * they can be compared between builds.
+ * <p/>
+ * Run with {@code mvn test -P benchmark -Dtest=UserModelBenchmark}.
+ *
+ * @author Karl Bennett
+ */
+@State(Scope.Benchmark)
+public class UserModelBenchmark {
+
+    // The same configuration Spring Boot uses for the ObjectMapper that serialises the responses.
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private User user;
+
+    private User equalUser;
+
+    private Address address;
+
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws IOException {
+
+        user = user();
+        user.setId(1L);
+        user.setVersion(0L);
+
+        equalUser = new User(user);
+        address = address();
+        json = objectMapper.writeValueAsBytes(user);
+    }
+
+    @Benchmark
+    public byte[] serialise() throws IOException {
+        return objectMapper.writeValueAsBytes(user);
+    }
+
+    @Benchmark
+    public User deserialise() throws IOException {
+        return objectMapper.readValue(json, User.class);
+    }
+
+    @Benchmark
+    public User construct() {
+        return new User(EMAIL, FIRST_NAME, LAST_NAME, PHONE_NUMBER, address);
+    }
+
+    @Benchmark
+    public User copy() {
+        return new User(user);
+    }
+
+    @Benchmark
+    public Address getAddress() {
+        return user.getAddress();
+    }
+
+    @Benchmark
+    public User setAddress() {
+
+        user.setAddress(address);
+
+        return user;
+    }
+
+    @Benchmark
+    public boolean equalsUser() {
+        return user.equals(equalUser);
+    }
+
+    @Benchmark
+    public int hashCodeUser() {
+        return user.hashCode();
+    }
+
+    @Test
+    public void run() throws Exception {
+
+        final File results = new File("target/jmh/UserModelBenchmark.json");
+        results.getParentFile().mkdirs();
+
+        new Runner(new OptionsBuilder()
+                .include(getClass().getName())
+                .forks(1)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(1))
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(results.getPath())
+                .build()).run();
+    }
+}
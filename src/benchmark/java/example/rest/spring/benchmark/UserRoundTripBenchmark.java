@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.benchmark;
+
+import example.rest.spring.SpringBootRestServlet;
+import example.rest.spring.data.User;
+import example.rest.spring.data.UserSteps;
+import org.hibernate.jpa.HibernateEntityManagerFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.IntegrationTest;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import javax.persistence.EntityManagerFactory;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static example.rest.spring.data.Addresses.address;
+import static java.lang.String.format;
+import static javax.ws.rs.client.Entity.entity;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the number of SQL statements and the latency of each of the single user requests. The user cache is
+ * disabled so that every request reaches the database.
+ * <p/>
+ * Run with {@code mvn test -P benchmark}.
+ *
+ * @author Karl Bennett
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = SpringBootRestServlet.class)
+@WebAppConfiguration("classpath:")
+@IntegrationTest({"server.port=0", "management.port=0", "users.cache.maximum-size=0",
+        "spring.jpa.properties.hibernate.generate_statistics=true"})
+public class UserRoundTripBenchmark {
+
+    private static final int USERS = 2000;
+
+    @Value("${local.server.port}")
+    private int port;
+
+    @Autowired
+    private UserSteps steps;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    private WebTarget target;
+
+    @Before
+    public void setUp() {
+
+        target = ClientBuilder.newClient().target(format("http://localhost:%d/rest/", port)).path("users");
+
+        statistics = ((HibernateEntityManagerFactory) entityManagerFactory).getSessionFactory().getStatistics();
+
+        steps.all_users_are_cleaned_up();
+    }
+
+    @Test
+    public void single_user_requests() {
+
+        run(create(200), false);
+        steps.all_users_are_cleaned_up();
+
+        run(create(USERS), true);
+    }
+
+    private void run(List<Long> ids, boolean report) {
+
+        long statements = statistics.getPrepareStatementCount();
+        long start = System.nanoTime();
+
+        for (Long id : ids) {
+            request(200, target.path(id.toString()).request(APPLICATION_JSON_TYPE).buildGet().invoke());
+        }
+
+        statements = report(report, "GET /users/{id}", ids.size(), start, statements);
+        start = System.nanoTime();
+
+        for (Long id : ids) {
+            request(204, target.path(id.toString()).request()
+                    .buildPut(entity(user(id.intValue() + USERS), APPLICATION_JSON_TYPE)).invoke());
+        }
+
+        statements = report(report, "PUT /users/{id}", ids.size(), start, statements);
+        start = System.nanoTime();
+
+        for (Long id : ids) {
+            request(204, target.path(id.toString()).request().buildDelete().invoke());
+        }
+
+        report(report, "DELETE /users/{id}", ids.size(), start, statements);
+    }
+
+    private List<Long> create(int count) {
+
+        final List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            users.add(user(i));
+        }
+
+        final List<Map<String, Number>> results = target.path("batch").request(APPLICATION_JSON_TYPE)
+                .post(entity(users, APPLICATION_JSON_TYPE), new GenericType<List<Map<String, Number>>>() {
+                });
+
+        final List<Long> ids = new ArrayList<>(count);
+        for (Map<String, Number> result : results) {
+            ids.add(result.get("id").longValue());
+        }
+
+        return ids;
+    }
+
+    private static void request(int status, Response response) {
+
+        assertEquals(status, response.getStatus());
+        response.close();
+    }
+
+    private long report(boolean report, String name, int requests, long start, long statements) {
+
+        final long nanos = System.nanoTime() - start;
+        final long currentStatements = statistics.getPrepareStatementCount();
+
+        if (!report) {
+            return currentStatements;
+        }
+
+        System.out.printf("%-20s %6d requests, %5.2f statements/request, %7.3f ms/request%n", name, requests,
+                (currentStatements - statements) / (double) requests, nanos / 1e6 / requests);
+
+        return currentStatements;
+    }
+
+    private static User user(int index) {
+
+        return new User(format("round.trip%d@email.com", index), "Round", "Trip" + index, "5551234", address());
+    }
+}
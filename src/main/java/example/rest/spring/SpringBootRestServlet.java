@@ -24,6 +24,7 @@ import org.springframework.boot.context.web.SpringBootServletInitializer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
 import org.springframework.web.servlet.DispatcherServlet;
 
 /**
@@ -57,6 +58,15 @@ public class SpringBootRestServlet extends SpringBootServletInitializer {
         return registration;
     }
 
+    /**
+     * The validator that is used to validate users that are not deserialised directly into a {@code @Valid} request
+     * body, e.g. the users within a batch.
+     */
+    @Bean
+    public LocalValidatorFactoryBean validator() {
+        return new LocalValidatorFactoryBean();
+    }
+
     /**
      * The standard Spring Boot main method. It is used when the packaged war is executed with {@code java -jar}
      */
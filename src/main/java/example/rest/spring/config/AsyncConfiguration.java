@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+/**
+ * Configures the executor that runs the {@link java.util.concurrent.Callable}'s returned from the controllers.
+ * <p/>
+ * Without this Spring MVC would fall back to a {@link org.springframework.core.task.SimpleAsyncTaskExecutor} which
+ * creates a new thread for every request. This executor has a bounded number of threads and a bounded queue, any
+ * requests that arrive once both are full will be rejected by the {@link AsyncRejectionPolicy}.
+ *
+ * @author Karl Bennett
+ */
+@Configuration
+public class AsyncConfiguration extends WebMvcConfigurerAdapter {
+
+    @Value("${async.core-pool-size:16}")
+    private int corePoolSize;
+
+    @Value("${async.max-pool-size:64}")
+    private int maxPoolSize;
+
+    @Value("${async.queue-capacity:512}")
+    private int queueCapacity;
+
+    @Value("${async.keep-alive-seconds:60}")
+    private int keepAliveSeconds;
+
+    @Bean
+    public AsyncRejectionPolicy asyncRejectionPolicy() {
+        return new AsyncRejectionPolicy();
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor asyncTaskExecutor() {
+
+        final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("async-");
+        executor.setCorePoolSize(corePoolSize);
+        executor.setMaxPoolSize(maxPoolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setKeepAliveSeconds(keepAliveSeconds);
+        executor.setRejectedExecutionHandler(asyncRejectionPolicy());
+
+        return executor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+
+        configurer.setTaskExecutor(asyncRejectionPolicy().mvc(asyncTaskExecutor()));
+        configurer.registerCallableInterceptors(asyncRejectionPolicy());
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.config;
+
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptorAdapter;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.String.format;
+
+/**
+ * This policy fails any async request that is submitted while the async executor is saturated.
+ * <p/>
+ * Spring MVC starts the async processing of a request before it submits the request's {@link Callable} to the
+ * executor, so if the executor were to just throw a {@link RejectedExecutionException} the request
+ * would be left hanging until it timed out. Instead the rejected task is run on the submitting thread with a flag set
+ * that causes {@link #preProcess} to throw a {@link TaskRejectedException}. This exception then becomes the result of
+ * the request without the {@link Callable} ever being called.
+ * <p/>
+ * Only the tasks that Spring MVC submits through the executor returned by {@link #mvc} are run like this, any other
+ * task that is rejected would otherwise do all of it's work on the submitting thread so it is aborted with a
+ * {@link RejectedExecutionException} instead.
+ *
+ * @author Karl Bennett
+ */
+public class AsyncRejectionPolicy extends CallableProcessingInterceptorAdapter implements RejectedExecutionHandler {
+
+    private static final ThreadLocal<Boolean> REJECTED = new ThreadLocal<>();
+
+    private static final ThreadLocal<Boolean> SUBMITTING = new ThreadLocal<>();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    @Override
+    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+
+        if (null == SUBMITTING.get()) {
+            throw new RejectedExecutionException(format("Task %s rejected from %s", task, executor));
+        }
+
+        rejectedCount.incrementAndGet();
+
+        REJECTED.set(true);
+        try {
+            task.run();
+        } finally {
+            REJECTED.remove();
+        }
+    }
+
+    @Override
+    public <T> void preProcess(NativeWebRequest request, Callable<T> task) throws Exception {
+
+        if (null != REJECTED.get()) {
+            throw new TaskRejectedException("The server is too busy to handle this request, please try again later.");
+        }
+    }
+
+    /**
+     * @param executor the executor that should run the async requests.
+     * @return an executor that submits to the supplied one, any of it's tasks that are rejected are failed through
+     *         {@link #preProcess}.
+     */
+    public AsyncTaskExecutor mvc(final AsyncTaskExecutor executor) {
+
+        return new AsyncTaskExecutor() {
+
+            @Override
+            public void execute(Runnable task) {
+
+                SUBMITTING.set(true);
+                try {
+                    executor.execute(task);
+                } finally {
+                    SUBMITTING.remove();
+                }
+            }
+
+            @Override
+            public void execute(Runnable task, long startTimeout) {
+
+                SUBMITTING.set(true);
+                try {
+                    executor.execute(task, startTimeout);
+                } finally {
+                    SUBMITTING.remove();
+                }
+            }
+
+            @Override
+            public Future<?> submit(Runnable task) {
+
+                SUBMITTING.set(true);
+                try {
+                    return executor.submit(task);
+                } finally {
+                    SUBMITTING.remove();
+                }
+            }
+
+            @Override
+            public <T> Future<T> submit(Callable<T> task) {
+
+                SUBMITTING.set(true);
+                try {
+                    return executor.submit(task);
+                } finally {
+                    SUBMITTING.remove();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the number of requests that have been rejected since startup.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+}
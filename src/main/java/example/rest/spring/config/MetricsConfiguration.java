@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import example.rest.spring.metrics.EndpointMetrics;
+import example.rest.spring.metrics.Metrics;
+import example.rest.spring.metrics.TimedJacksonConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+/**
+ * Configures the timing of the requests, their async processing and the serialisation of their responses. The timings
+ * are exposed by the {@link example.rest.spring.controller.MetricsController}.
+ *
+ * @author Karl Bennett
+ */
+@Configuration
+public class MetricsConfiguration extends WebMvcConfigurerAdapter {
+
+    @Autowired
+    private Metrics metrics;
+
+    @Bean
+    public EndpointMetrics endpointMetrics() {
+        return new EndpointMetrics(metrics);
+    }
+
+    /**
+     * Spring Boot will use this converter instead of it's own {@code MappingJackson2HttpMessageConverter}.
+     */
+    @Bean
+    public TimedJacksonConverter timedJacksonConverter(ObjectMapper objectMapper) {
+        return new TimedJacksonConverter(objectMapper, metrics);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+
+        registry.addInterceptor(endpointMetrics());
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+
+        configurer.registerCallableInterceptors(endpointMetrics());
+    }
+}
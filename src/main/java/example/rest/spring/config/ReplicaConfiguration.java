@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.config;
+
+import example.rest.spring.data.UserChanges;
+import example.rest.spring.replica.Replica;
+import example.rest.spring.replica.ReplicaRoutingDataSource;
+import example.rest.spring.replica.ReplicaStandIn;
+import example.rest.spring.replica.ReplicaTransactionManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceBuilder;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.jdbc.metadata.DataSourcePoolMetadata;
+import org.springframework.boot.autoconfigure.jdbc.metadata.DataSourcePoolMetadataProvider;
+import org.springframework.boot.autoconfigure.jdbc.metadata.TomcatDataSourcePoolMetadata;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Configures the "replica" profile, this sends the reads to one or more read replicas and the writes to the primary
+ * database. The primary is configured with the usual {@code spring.datasource} properties.
+ * <p/>
+ * The {@link DataSource} that is used by JPA routes each connection with a {@link ReplicaRoutingDataSource}. It is
+ * wrapped in a {@link LazyConnectionDataSourceProxy} so that the connection isn't routed until the transaction has
+ * begun and it is known whether or not the transaction is read-only. The read-only transactions don't put anything into
+ * the second-level cache since they could have read from a replica that is behind.
+ *
+ * @author Karl Bennett
+ */
+@Configuration
+@Profile("replica")
+public class ReplicaConfiguration {
+
+    @Value("${datasource.replica.urls:}")
+    private String[] urls;
+
+    @Value("${datasource.replica.username:sa}")
+    private String username;
+
+    @Value("${datasource.replica.password:}")
+    private String password;
+
+    @Value("${datasource.replica.max-active:100}")
+    private int maxActive;
+
+    @Value("${datasource.replica.max-lag-millis:0}")
+    private long maxLagMillis;
+
+    /**
+     * The connection pool for the primary database, this is built the same way that Spring Boot builds it's own
+     * {@link DataSource}, which it no longer does once this configuration has supplied one.
+     */
+    @Bean
+    @ConfigurationProperties(prefix = DataSourceProperties.PREFIX)
+    public org.apache.tomcat.jdbc.pool.DataSource primaryDataSource(DataSourceProperties properties) {
+
+        return (org.apache.tomcat.jdbc.pool.DataSource) DataSourceBuilder.create(properties.getClassLoader())
+                .type(org.apache.tomcat.jdbc.pool.DataSource.class)
+                .driverClassName(properties.getDriverClassName())
+                .url(properties.getUrl())
+                .username(properties.getUsername())
+                .password(properties.getPassword())
+                .build();
+    }
+
+    @Bean
+    public List<Replica> replicas(DataSourceProperties properties) {
+
+        final List<Replica> replicas = new ArrayList<>(urls.length);
+
+        for (int i = 0; i < urls.length; i++) {
+
+            final org.apache.tomcat.jdbc.pool.DataSource dataSource =
+                    (org.apache.tomcat.jdbc.pool.DataSource) DataSourceBuilder.create(properties.getClassLoader())
+                            .type(org.apache.tomcat.jdbc.pool.DataSource.class)
+                            .url(urls[i].trim())
+                            .username(username)
+                            .password(password)
+                            .build();
+            dataSource.setMaxActive(maxActive);
+
+            replicas.add(new Replica("replica-" + (i + 1), dataSource));
+        }
+
+        return replicas;
+    }
+
+    @Bean
+    public ReplicaRoutingDataSource replicaRoutingDataSource(DataSourceProperties properties, UserChanges changes) {
+
+        return new ReplicaRoutingDataSource(primaryDataSource(properties), replicas(properties), changes,
+                maxLagMillis);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+
+        return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+    }
+
+    @Bean
+    public PlatformTransactionManager transactionManager(EntityManagerFactory entityManagerFactory) {
+
+        return new ReplicaTransactionManager(entityManagerFactory);
+    }
+
+    /**
+     * Report the usage of the primary's connection pool as the usage of the routing {@link DataSource}, this is what
+     * the readiness probe checks.
+     */
+    @Bean
+    public DataSourcePoolMetadataProvider replicaRoutingPoolMetadataProvider(final DataSourceProperties properties) {
+
+        return new DataSourcePoolMetadataProvider() {
+            @Override
+            public DataSourcePoolMetadata getDataSourcePoolMetadata(DataSource dataSource) {
+
+                if (dataSource instanceof LazyConnectionDataSourceProxy) {
+                    return new TomcatDataSourcePoolMetadata(primaryDataSource(properties));
+                }
+
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Keep in-memory replicas in sync with the primary, this must only be enabled when the replica URLs are local H2
+     * databases. The entity manager factory is required so that the primary's schema exists before it is copied.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "datasource.replica.stand-in", havingValue = "true")
+    public ReplicaStandIn replicaStandIn(EntityManagerFactory entityManagerFactory, DataSourceProperties properties,
+                                         UserChanges changes) throws SQLException {
+
+        return new ReplicaStandIn(primaryDataSource(properties), replicas(properties), changes);
+    }
+}
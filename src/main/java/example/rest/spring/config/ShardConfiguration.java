@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.config;
+
+import example.rest.spring.shard.ShardRoutingDataSource;
+import example.rest.spring.shard.ShardSchema;
+import example.rest.spring.shard.Shards;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceBuilder;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.jdbc.metadata.DataSourcePoolMetadata;
+import org.springframework.boot.autoconfigure.jdbc.metadata.DataSourcePoolMetadataProvider;
+import org.springframework.boot.autoconfigure.jdbc.metadata.TomcatDataSourcePoolMetadata;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Configures the "shard" profile, this spreads the users across a number of databases. Each new user is placed on the
+ * shard picked by a hash of it's email and is given an ID from that shard's range, so every later request for the user
+ * goes straight to the shard in it's ID.
+ * <p/>
+ * The {@link DataSource} that is used by JPA routes each connection to the shard that the current thread is working
+ * on, the {@link example.rest.spring.shard.ShardRouting} sets the shard for each call to the repository.
+ *
+ * @author Karl Bennett
+ */
+@Configuration
+@Profile("shard")
+public class ShardConfiguration {
+
+    @Value("${datasource.shard.urls}")
+    private String[] urls;
+
+    @Value("${datasource.shard.username:sa}")
+    private String username;
+
+    @Value("${datasource.shard.password:}")
+    private String password;
+
+    @Value("${datasource.shard.max-active:100}")
+    private int maxActive;
+
+    @Value("${datasource.shard.scatter-threads:16}")
+    private int scatterThreads;
+
+    @Bean
+    public Shards shards(DataSourceProperties properties) {
+
+        final List<org.apache.tomcat.jdbc.pool.DataSource> dataSources = new ArrayList<>(urls.length);
+
+        for (String url : urls) {
+
+            final org.apache.tomcat.jdbc.pool.DataSource dataSource =
+                    (org.apache.tomcat.jdbc.pool.DataSource) DataSourceBuilder.create(properties.getClassLoader())
+                            .type(org.apache.tomcat.jdbc.pool.DataSource.class)
+                            .url(url.trim())
+                            .username(username)
+                            .password(password)
+                            .build();
+            dataSource.setMaxActive(maxActive);
+
+            dataSources.add(dataSource);
+        }
+
+        return new Shards(dataSources, scatterThreads);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(Shards shards) {
+
+        return new ShardRoutingDataSource(shards);
+    }
+
+    /**
+     * Report the usage of the first shard's connection pool as the usage of the routing {@link DataSource}, this is
+     * where the readiness probe validates it's connections.
+     */
+    @Bean
+    public DataSourcePoolMetadataProvider shardRoutingPoolMetadataProvider(final Shards shards) {
+
+        return new DataSourcePoolMetadataProvider() {
+            @Override
+            public DataSourcePoolMetadata getDataSourcePoolMetadata(DataSource dataSource) {
+
+                if (dataSource instanceof ShardRoutingDataSource) {
+                    return new TomcatDataSourcePoolMetadata(shards.getDataSource(0));
+                }
+
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Copy the schema that Hibernate creates on the first shard to the rest of the shards, the entity manager factory
+     * is required so that the schema exists before it is copied.
+     */
+    @Bean
+    public ShardSchema shardSchema(EntityManagerFactory entityManagerFactory, Shards shards) {
+
+        return new ShardSchema(shards);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.controller;
+
+import example.rest.spring.health.HealthMonitor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+
+/**
+ * The liveness and readiness probes for the load balancer. Both are handled on the request thread so that they will
+ * still be answered while the async executor is saturated, and both return pre-serialised responses.
+ *
+ * @author Karl Bennett
+ */
+@RestController
+@RequestMapping("/health")
+public class HealthController {
+
+    private static final byte[] LIVE = "{\"running\":true}".getBytes(StandardCharsets.UTF_8);
+
+    @Autowired
+    private HealthMonitor healthMonitor;
+
+    /**
+     * Check that the application is running, this never checks any of the application's dependencies.
+     *
+     * @return a {@code 200 OK}.
+     */
+    @RequestMapping(value = "/live", method = GET, produces = APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> live() {
+
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(LIVE);
+    }
+
+    /**
+     * Check that the application is ready to handle requests. This is answered from a snapshot that is refreshed in
+     * the background by the {@link HealthMonitor}.
+     *
+     * @return a {@code 200 OK} if the application is ready otherwise a {@code 503 Service Unavailable}, the body
+     *         contains the state of the database and the async executor.
+     */
+    @RequestMapping(value = "/ready", method = GET, produces = APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> ready() {
+
+        final HealthMonitor.Readiness readiness = healthMonitor.getReadiness();
+
+        return ResponseEntity.status(readiness.isReady() ? OK : SERVICE_UNAVAILABLE)
+                .contentType(MediaType.APPLICATION_JSON).body(readiness.getBody());
+    }
+}
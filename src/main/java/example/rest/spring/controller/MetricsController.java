@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.controller;
+
+import example.rest.spring.metrics.Metrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+
+/**
+ * A controller that exposes the request, serialisation and repository timings in the Prometheus text format.
+ *
+ * @author Karl Bennett
+ */
+@RestController
+@RequestMapping("/metrics")
+public class MetricsController {
+
+    static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+    @Autowired
+    private Metrics metrics;
+
+    /**
+     * Write out all the metrics that have been recorded since startup.
+     *
+     * @param response the servlet response object.
+     * @throws IOException if the metrics can not be written.
+     */
+    @RequestMapping(method = GET)
+    public void metrics(HttpServletResponse response) throws IOException {
+
+        response.setContentType(PROMETHEUS_TEXT);
+        metrics.write(response.getWriter());
+    }
+}
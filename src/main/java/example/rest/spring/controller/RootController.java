@@ -22,9 +22,9 @@ import org.springframework.web.bind.annotation.ResponseBody;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.HashMap;
 import java.util.Map;
 
+import static java.util.Collections.singletonMap;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 import static org.springframework.web.bind.annotation.RequestMethod.GET;
 
@@ -37,22 +37,21 @@ import static org.springframework.web.bind.annotation.RequestMethod.GET;
 @RequestMapping("/")
 public class RootController {
 
+    private static final Map<Object, Object> RUNNING = singletonMap((Object) "running", (Object) true);
+
     /**
      * Map any request to the servlet root to this method.
      *
      * @param request  the servlet request object.
      * @param response the servlet response object.
      * @return a map that will be converted by Spring into {@code JSON} because of the {@code produces} value in
-     *         {@code @RequestMapping}.
+     *         {@code @RequestMapping}. The same map is returned every time, a probe that checks the health of the
+     *         application should use {@link HealthController} instead.
      */
     @RequestMapping(method = GET, produces = APPLICATION_JSON_VALUE)
     @ResponseBody
     public Map<Object, Object> handle(HttpServletRequest request, HttpServletResponse response) {
 
-        Map<Object, Object> body = new HashMap<>();
-
-        body.put("running", true);
-
-        return body;
+        return RUNNING;
     }
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.controller;
+
+import example.rest.spring.config.AsyncRejectionPolicy;
+import example.rest.spring.data.EntityCache;
+import example.rest.spring.data.UserCache;
+import example.rest.spring.data.UserSearchIndex;
+import example.rest.spring.replica.ReplicaRoutingDataSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static java.util.Collections.singletonMap;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+
+/**
+ * A controller that exposes the runtime statistics of the application.
+ *
+ * @author Karl Bennett
+ */
+@RestController
+@RequestMapping("/stats")
+public class StatsController {
+
+    @Autowired
+    private ThreadPoolTaskExecutor asyncTaskExecutor;
+
+    @Autowired
+    private AsyncRejectionPolicy asyncRejectionPolicy;
+
+    @Autowired
+    private UserCache userCache;
+
+    @Autowired
+    private EntityCache entityCache;
+
+    @Autowired
+    private UserSearchIndex searchIndex;
+
+    // Only present with the "replica" profile.
+    @Autowired(required = false)
+    private ReplicaRoutingDataSource replicaRoutingDataSource;
+
+    /**
+     * Retrieve the current state of the executor that runs the async requests.
+     *
+     * @return the executor statistics.
+     */
+    @RequestMapping(value = "/executor", method = GET, produces = APPLICATION_JSON_VALUE)
+    public Map<String, Object> executor() {
+
+        final ThreadPoolExecutor executor = asyncTaskExecutor.getThreadPoolExecutor();
+
+        final Map<String, Object> body = new LinkedHashMap<>();
+
+        body.put("poolSize", executor.getPoolSize());
+        body.put("corePoolSize", executor.getCorePoolSize());
+        body.put("maxPoolSize", executor.getMaximumPoolSize());
+        body.put("activeCount", executor.getActiveCount());
+        body.put("queueDepth", executor.getQueue().size());
+        body.put("queueRemainingCapacity", executor.getQueue().remainingCapacity());
+        body.put("completedCount", executor.getCompletedTaskCount());
+        body.put("rejectedCount", asyncRejectionPolicy.getRejectedCount());
+
+        return body;
+    }
+
+    /**
+     * Retrieve the current state of the user cache.
+     *
+     * @return the cache statistics.
+     */
+    @RequestMapping(value = "/cache", method = GET, produces = APPLICATION_JSON_VALUE)
+    public Map<String, Object> cache() {
+
+        final Map<String, Object> body = new LinkedHashMap<>();
+
+        body.put("size", userCache.getSize());
+        body.put("maximumSize", userCache.getMaximumSize());
+        body.put("hitCount", userCache.getHitCount());
+        body.put("missCount", userCache.getMissCount());
+        body.put("evictionCount", userCache.getEvictionCount());
+
+        return body;
+    }
+
+    /**
+     * Retrieve the current state of the Hibernate second-level cache regions for the users and their addresses.
+     *
+     * @return the statistics for each entity region.
+     */
+    @RequestMapping(value = "/entity-cache", method = GET, produces = APPLICATION_JSON_VALUE)
+    public Map<String, Map<String, Object>> entityCache() {
+
+        return entityCache.getStatistics();
+    }
+
+    /**
+     * Retrieve the size of the user search index and the number of searches.
+     *
+     * @return the search index statistics.
+     */
+    @RequestMapping(value = "/search", method = GET, produces = APPLICATION_JSON_VALUE)
+    public Map<String, Object> search() {
+
+        return searchIndex.getStatistics();
+    }
+
+    /**
+     * Retrieve how the database connections have been routed and how far behind each read replica is.
+     *
+     * @return the replica statistics, or just {@code "enabled": false} if the replicas aren't being used.
+     */
+    @RequestMapping(value = "/replicas", method = GET, produces = APPLICATION_JSON_VALUE)
+    public Map<String, ?> replicas() {
+
+        if (null == replicaRoutingDataSource) {
+            return singletonMap("enabled", false);
+        }
+
+        return replicaRoutingDataSource.getStatistics();
+    }
+}
@@ -16,29 +16,88 @@
 
 package example.rest.spring.controller;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import example.rest.spring.data.Address;
 import example.rest.spring.data.Id;
+import example.rest.spring.data.PartialUser;
 import example.rest.spring.data.User;
+import example.rest.spring.data.UserAggregates;
+import example.rest.spring.data.UserBatchWriter;
+import example.rest.spring.data.UserCache;
+import example.rest.spring.data.UserChanges;
+import example.rest.spring.data.UserFields;
+import example.rest.spring.data.UserFilter;
+import example.rest.spring.data.UserPatch;
 import example.rest.spring.data.UserRepository;
+import example.rest.spring.data.UserRepositoryCustom;
+import example.rest.spring.data.UserSearchIndex;
+import example.rest.spring.data.UserViews;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import javax.persistence.EntityNotFoundException;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.validation.ConstraintViolation;
+import javax.validation.ConstraintViolationException;
 import javax.validation.Valid;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 
 import static java.lang.String.format;
+import static java.util.Collections.singletonList;
+import static com.fasterxml.jackson.databind.SerializationFeature.FLUSH_AFTER_WRITE_VALUE;
 import static org.springframework.http.HttpStatus.CREATED;
+import static org.springframework.http.HttpStatus.NOT_MODIFIED;
 import static org.springframework.http.HttpStatus.NO_CONTENT;
+import static org.springframework.http.HttpHeaders.ETAG;
+import static org.springframework.http.HttpHeaders.IF_MATCH;
+import static org.springframework.http.HttpHeaders.IF_MODIFIED_SINCE;
+import static org.springframework.http.HttpHeaders.IF_NONE_MATCH;
+import static org.springframework.http.HttpHeaders.LAST_MODIFIED;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 import static org.springframework.web.bind.annotation.RequestMethod.DELETE;
 import static org.springframework.web.bind.annotation.RequestMethod.GET;
+import static org.springframework.web.bind.annotation.RequestMethod.PATCH;
 import static org.springframework.web.bind.annotation.RequestMethod.POST;
 import static org.springframework.web.bind.annotation.RequestMethod.PUT;
 
@@ -51,9 +110,69 @@ import static org.springframework.web.bind.annotation.RequestMethod.PUT;
 @RequestMapping("/users")
 public class UserController {
 
+    static final String NDJSON_VALUE = "application/x-ndjson";
+
+    private static final MediaType NDJSON = MediaType.valueOf(NDJSON_VALUE);
+
+    static final String MERGE_PATCH_VALUE = "application/merge-patch+json";
+
     @Autowired
     private UserRepository repository;
 
+    @Autowired
+    private UserCache cache;
+
+    @Autowired
+    private UserChanges changes;
+
+    @Autowired
+    private UserBatchWriter batchWriter;
+
+    @Autowired
+    private UserSearchIndex searchIndex;
+
+    @Autowired
+    private UserAggregates aggregates;
+
+    @Autowired
+    private UserViews views;
+
+    @Autowired
+    private Validator validator;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${users.page.max-limit:1000}")
+    private int maxLimit;
+
+    @Value("${users.stream.batch-size:500}")
+    private int batchSize;
+
+    @Value("${users.ids.max-size:100}")
+    private int maxIds;
+
+    @Value("${users.search.default-limit:20}")
+    private int defaultSearchLimit;
+
+    @Value("${users.search.max-limit:100}")
+    private int maxSearchLimit;
+
+    @Value("${users.export.fetch-size:500}")
+    private int exportFetchSize;
+
+    @Value("${users.batch.max-size:10000}")
+    private int maxBatchSize;
+
+    @Value("${users.batch.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${users.import.chunk-size:500}")
+    private int importChunkSize;
+
+    @Value("${async.retry-after-seconds:1}")
+    private int retryAfterSeconds;
+
     /**
      * Persist a new user using the user object that has been deserialised from the {@code JSON} in the body of the
      * {@code POST} request.
@@ -83,75 +202,629 @@ public class UserController {
                     address.setId(null);
                 }
 
-                return new Id(repository.save(user));
+                final User persisted = repository.save(user);
+
+                changes.changed();
+                views.put(persisted);
+
+                return new Id(persisted);
+            }
+        };
+    }
+
+    /**
+     * Persist many new users at once using the array of users that has been deserialised from the {@code JSON} in the
+     * body of the {@code POST} request.
+     * <p/>
+     * Each user is validated and persisted independently so an invalid user will not stop the rest of the users from
+     * being persisted. Just like a single create any ID's that are supplied will be ignored.
+     *
+     * @param users the users to persist.
+     * @return a result for each of the supplied users in the same order, each result will either contain the ID of
+     *         the newly persisted user or the reason the user could not be persisted.
+     * @throws IllegalArgumentException if more users are supplied than the maximum batch size.
+     */
+    @RequestMapping(value = "/batch", method = POST, consumes = APPLICATION_JSON_VALUE,
+            produces = APPLICATION_JSON_VALUE)
+    public Callable<List<BatchResult>> asyncCreate(@RequestBody final List<User> users) {
+
+        if (maxBatchSize < users.size()) {
+            throw new IllegalArgumentException(
+                    format("The batch size (%d) must not be greater than %d.", users.size(), maxBatchSize));
+        }
+
+        return new Callable<List<BatchResult>>() {
+
+            @Override
+            public List<BatchResult> call() throws Exception {
+
+                final BatchResult[] results = new BatchResult[users.size()];
+                final boolean[] created = {false};
+
+                final List<User> validUsers = new ArrayList<>(users.size());
+                final List<Integer> validIndexes = new ArrayList<>(users.size());
+
+                for (int i = 0; i < users.size(); i++) {
+
+                    final String violations = validate(users.get(i));
+
+                    if (null == violations) {
+                        validUsers.add(users.get(i));
+                        validIndexes.add(i);
+                    } else {
+                        results[i] = new BatchResult("ConstraintViolationException", violations);
+                    }
+                }
+
+                batchWriter.create(validUsers, chunkSize, new UserBatchWriter.Callback() {
+
+                    @Override
+                    public void created(int index, User user) {
+                        results[validIndexes.get(index)] = new BatchResult(user.getId());
+                        views.put(user);
+                        created[0] = true;
+                    }
+
+                    @Override
+                    public void failed(int index, User user, RuntimeException e) {
+                        results[validIndexes.get(index)] =
+                                new BatchResult(e.getClass().getSimpleName(), e.getMessage());
+                    }
+                });
+
+                if (created[0]) {
+                    changes.changed();
+                }
+
+                return Arrays.asList(results);
+            }
+        };
+    }
+
+    /**
+     * Import users from the newline delimited {@code JSON} in the body of the {@code POST} request, one user per line.
+     * <p/>
+     * The body is read a line at a time and the users are validated just like a single create and then persisted a
+     * chunk at a time, so only one chunk of users is ever held in memory. An invalid user, including one with an email
+     * that already exists, does not stop the rest of the users from being imported.
+     * <p/>
+     * The response is also newline delimited {@code JSON}, it contains a line for every user that could not be
+     * imported and a progress line after every chunk. The last line is the final progress with {@code complete} set.
+     *
+     * @param request the servlet request object, the users are read from it's input stream.
+     * @return the import errors and progress.
+     */
+    @RequestMapping(value = "/import", method = POST, consumes = NDJSON_VALUE, produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> asyncImport(final HttpServletRequest request) {
+
+        final ObjectReader reader = objectMapper.readerFor(User.class);
+        final ObjectWriter writer = objectMapper.writer().without(FLUSH_AFTER_WRITE_VALUE);
+
+        final StreamingResponseBody body = new StreamingResponseBody() {
+
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+
+                final JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+                final ImportProgress progress = new ImportProgress();
+                final List<User> users = new ArrayList<>(importChunkSize);
+                final List<Long> lines = new ArrayList<>(importChunkSize);
+
+                final BufferedReader input =
+                        new BufferedReader(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8));
+
+                for (String line = input.readLine(); null != line; line = input.readLine()) {
+
+                    final long lineNumber = ++progress.lines;
+
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+
+                    final User user;
+                    try {
+                        user = reader.readValue(line);
+                    } catch (JsonProcessingException e) {
+                        importFailed(lineNumber, e.getClass().getSimpleName(), e.getOriginalMessage(), progress,
+                                writer, generator);
+                        continue;
+                    }
+
+                    final String violations = validate(user);
+
+                    if (null != violations) {
+                        importFailed(lineNumber, "ConstraintViolationException", violations, progress, writer,
+                                generator);
+                        continue;
+                    }
+
+                    users.add(user);
+                    lines.add(lineNumber);
+
+                    if (importChunkSize == users.size()) {
+                        importChunk(users, lines, progress, writer, generator);
+                    }
+                }
+
+                importChunk(users, lines, progress, writer, generator);
+
+                progress.complete = true;
+                writeLine(writer, generator, progress);
+                generator.close();
             }
         };
+
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
     }
 
     /**
-     * Retrieve the user with the supplied ID.
+     * Retrieve the user with the supplied ID. The user is read through the {@link UserCache} so a popular user will
+     * usually be returned without touching the database.
+     * <p/>
+     * The response has a strong {@code ETag} that is the users version, if it matches the
+     * {@code If-None-Match} header of the request then a {@code 304} is returned without the user being serialised. If
+     * the user isn't cached then only it's version is read to check the {@code If-None-Match}, so an unchanged user is
+     * never loaded.
+     * <p/>
+     * If only some fields are requested then just those columns are read straight from the database, bypassing the
+     * cache, and only those fields are returned.
      *
-     * @param id the is of the user to retrieve.
+     * @param id          the is of the user to retrieve.
+     * @param fields      the comma separated fields to retrieve, this can be omitted to retrieve the whole user.
+     * @param ifNoneMatch the {@code ETag}'s that the client already has, this can be omitted.
      * @return the requested user.
      * @throws javax.persistence.EntityNotFoundException
      *          if no user exists with the supplied id.
+     * @throws IllegalArgumentException if any of the fields are unknown.
      */
     @RequestMapping(value = "/{id}", method = GET, produces = APPLICATION_JSON_VALUE)
-    public Callable<User> asyncRetrieve(@PathVariable final Long id) {
+    public Callable<ResponseEntity<?>> asyncRetrieve(@PathVariable final Long id,
+                                                     @RequestParam(required = false) String fields,
+                                                     @RequestHeader(value = IF_NONE_MATCH, required = false)
+                                                     final String ifNoneMatch) {
+
+        final UserFields userFields = fields(fields);
 
-        return new Callable<User>() {
+        return new Callable<ResponseEntity<?>>() {
 
             @Override
-            public User call() throws Exception {
+            public ResponseEntity<?> call() throws Exception {
+
+                if (null != userFields) {
+
+                    final PartialUser user = repository.findPartial(id, userFields);
+
+                    if (null == user) {
+                        throw notFound(id);
+                    }
+
+                    return ResponseEntity.ok().eTag(eTag(user.getVersion())).body(user);
+                }
 
-                checkExists(id);
+                if (null != ifNoneMatch && !cache.contains(id)) {
 
-                return repository.findOne(id);
+                    final Long version = repository.findVersionById(id);
+
+                    if (null == version) {
+                        throw notFound(id);
+                    }
+
+                    if (matches(ifNoneMatch, eTag(version))) {
+                        return ResponseEntity.status(NOT_MODIFIED).eTag(eTag(version)).build();
+                    }
+                }
+
+                final User user = cache.get(id, new Callable<User>() {
+
+                    @Override
+                    public User call() throws Exception {
+
+                        final User user = repository.findOne(id);
+
+                        if (null == user) {
+                            throw notFound(id);
+                        }
+
+                        return user;
+                    }
+                });
+
+                return ResponseEntity.ok().eTag(eTag(user.getVersion())).body(user);
             }
         };
     }
 
     /**
      * Retrieve all the persisted user.
+     * <p/>
+     * The users are streamed into the response a batch at a time in ID order, each batch is written out before the
+     * next is read so the full list of users is never held in memory.
+     * <p/>
+     * The users can be filtered by the {@code lastName}, {@code city}, {@code postcode} and {@code suburb} request
+     * parameters and ordered by the {@code sort} request parameter, see {@link UserFilter}.
+     * <p/>
+     * The response has an {@code ETag} and {@code Last-Modified} that change whenever a user is changed, if the client
+     * already has the latest list then a {@code 304} is returned without any users being read.
      *
+     * @param fields the comma separated fields to retrieve, this can be omitted to retrieve the whole users.
      * @return all the users that have been persisted.
+     * @throws IllegalArgumentException if any of the fields are unknown.
      */
     @RequestMapping(method = GET, produces = APPLICATION_JSON_VALUE)
-    public Callable<Iterable<User>> asyncRetrieve() {
+    public ResponseEntity<StreamingResponseBody> asyncRetrieve(@RequestParam(required = false) String fields,
+                                                               HttpServletRequest request,
+                                                               HttpServletResponse response) {
+
+        final UserFields userFields = fields(fields);
+        final UserFilter filter = filter(request);
+
+        final UserChanges.Change change = changes.getLatest();
+
+        if (notModified(change, request, response)) {
+            return null;
+        }
+
+        final ObjectWriter writer = objectMapper.writer().without(FLUSH_AFTER_WRITE_VALUE);
 
-        return new Callable<Iterable<User>>() {
+        final StreamingResponseBody body = new StreamingResponseBody() {
 
             @Override
-            public Iterable<User> call() throws Exception {
+            public void writeTo(OutputStream outputStream) throws IOException {
+
+                final JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+                generator.writeStartArray();
+
+                for (List<? extends Id> users = page(filter, null, batchSize, userFields); !users.isEmpty();
+                     users = page(filter, lastId(users), batchSize, userFields)) {
+
+                    for (Id user : users) {
+                        writer.writeValue(generator, user);
+                    }
+
+                    generator.flush();
+                }
 
-                return repository.findAll();
+                generator.writeEndArray();
+                generator.close();
+            }
+        };
+
+        return ResponseEntity.ok().eTag(change.getETag()).lastModified(change.getLastModified())
+                .contentType(APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * Export all the persisted users as newline delimited {@code JSON}, one user per line in ID order.
+     * <p/>
+     * The users are read through a single forward only cursor and each one is written straight to the response, so
+     * the memory used is the same however many users there are. If the client disconnects then the next write fails
+     * and the cursor is closed.
+     *
+     * @return all the users that have been persisted.
+     */
+    @RequestMapping(value = "/export", method = GET, produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> asyncExport() {
+
+        final ObjectWriter writer = objectMapper.writer().without(FLUSH_AFTER_WRITE_VALUE);
+
+        final StreamingResponseBody body = new StreamingResponseBody() {
+
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+
+                final JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+                final long[] count = {0};
+
+                repository.export(exportFetchSize, new UserRepositoryCustom.Visitor() {
+
+                    @Override
+                    public void visit(User user) throws IOException {
+
+                        writer.writeValue(generator, user);
+                        generator.writeRaw('\n');
+
+                        // Flush once per fetch so that the users aren't held in the buffer and a client that has gone
+                        // away is noticed.
+                        if (0 == ++count[0] % exportFetchSize) {
+                            generator.flush();
+                        }
+                    }
+                });
+
+                generator.close();
+            }
+        };
+
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    /**
+     * Retrieve a page of the persisted users in ID order. If there could be more users after this page then a
+     * {@code Link} header with a {@code rel="next"} will be added to the response that contains the URL of the next
+     * page.
+     * <p/>
+     * Just like when retrieving all the users a {@code 304} is returned if the client already has the latest page, and
+     * the users can be filtered and sorted with the same request parameters.
+     *
+     * @param after  the ID of the last user in the previous page, this can be omitted to retrieve the first page.
+     * @param limit  the maximum number of users to retrieve.
+     * @param fields the comma separated fields to retrieve, this can be omitted to retrieve the whole users.
+     * @return the requested page of users.
+     * @throws IllegalArgumentException if the limit is less than one or greater than the maximum page size, if any of
+     *                                  the fields or sort fields are unknown, or if the users are sorted by more than
+     *                                  their ID and the user the page is after no longer exists.
+     */
+    @RequestMapping(method = GET, params = "limit", produces = APPLICATION_JSON_VALUE)
+    public Callable<ResponseEntity<List<?>>> asyncRetrievePage(@RequestParam(required = false) final Long after,
+                                                               @RequestParam final int limit,
+                                                               @RequestParam(required = false) String fields,
+                                                               HttpServletRequest request,
+                                                               HttpServletResponse response) {
+
+        if (limit < 1 || maxLimit < limit) {
+            throw new IllegalArgumentException(format("The limit (%d) must be between 1 and %d.", limit, maxLimit));
+        }
+
+        final UserFields userFields = fields(fields);
+        final UserFilter filter = filter(request);
+
+        final UserChanges.Change change = changes.getLatest();
+
+        if (notModified(change, request, response)) {
+            return null;
+        }
+
+        final UriComponentsBuilder next = ServletUriComponentsBuilder.fromRequest(request);
+
+        return new Callable<ResponseEntity<List<?>>>() {
+
+            @Override
+            public ResponseEntity<List<?>> call() throws Exception {
+
+                final List<? extends Id> users = page(filter, after, limit, userFields);
+
+                final ResponseEntity.BodyBuilder ok = ResponseEntity.ok().eTag(change.getETag())
+                        .lastModified(change.getLastModified());
+
+                if (users.size() < limit) {
+                    return ok.<List<?>>body(users);
+                }
+
+                final String link = next.replaceQueryParam("after", lastId(users)).build().toUriString();
+
+                return ok.header("Link", format("<%s>; rel=\"next\"", link)).<List<?>>body(users);
+            }
+        };
+    }
+
+    /**
+     * Retrieve all the users with the supplied ID's at once. Any users that are in the {@link UserCache} are taken from
+     * there and the rest are read from the database with a single query. If only some fields are requested then all
+     * the users are read from the database with a single query of just those columns.
+     *
+     * @param ids    the ID's of the users to retrieve, any duplicates are ignored.
+     * @param fields the comma separated fields to retrieve, this can be omitted to retrieve the whole users.
+     * @return the users that exist in the order of the supplied ID's along with the ID's of the users that don't exist.
+     * @throws IllegalArgumentException if more ID's are supplied than the maximum, or if any of the fields are unknown.
+     */
+    @RequestMapping(method = GET, params = "ids", produces = APPLICATION_JSON_VALUE)
+    public Callable<IdsResult> asyncRetrieve(@RequestParam final List<Long> ids,
+                                             @RequestParam(required = false) String fields) {
+
+        final Collection<Long> uniqueIds = new LinkedHashSet<>(ids);
+
+        if (maxIds < uniqueIds.size()) {
+            throw new IllegalArgumentException(
+                    format("The number of ID's (%d) must not be greater than %d.", uniqueIds.size(), maxIds));
+        }
+
+        final UserFields userFields = fields(fields);
+
+        return new Callable<IdsResult>() {
+
+            @Override
+            public IdsResult call() throws Exception {
+
+                final Map<Long, ? extends Id> users = null == userFields
+                        ? retrieveAll(uniqueIds)
+                        : inOrder(uniqueIds, repository.findPartialByIdIn(uniqueIds, userFields));
+
+                final List<Long> missing = new ArrayList<>();
+
+                for (Long id : uniqueIds) {
+                    if (!users.containsKey(id)) {
+                        missing.add(id);
+                    }
+                }
+
+                return new IdsResult(new ArrayList<>(users.values()), missing);
+            }
+        };
+    }
+
+    /**
+     * Search for the users whose email, first name or last name contain every whitespace separated term in the query.
+     * <p/>
+     * The matches are found in the {@link UserSearchIndex} so the database is only read for the users that are
+     * returned. A user that matches a term exactly is ranked above one that starts with it, which is ranked above one
+     * that just contains it. A term of less than three characters only matches the start of a field.
+     *
+     * @param q      the terms to search for, they are not case sensitive.
+     * @param limit  the maximum number of users to return, this can be omitted to use the default.
+     * @param fields the comma separated fields to retrieve, this can be omitted to retrieve the whole users.
+     * @return the matching users, best match first.
+     * @throws IllegalArgumentException if the query is blank, the limit is less than one or greater than the maximum,
+     *                                  or if any of the fields are unknown.
+     */
+    @RequestMapping(value = "/search", method = GET, produces = APPLICATION_JSON_VALUE)
+    public Callable<List<?>> asyncSearch(@RequestParam final String q,
+                                         @RequestParam(required = false) Integer limit,
+                                         @RequestParam(required = false) String fields) {
+
+        if (q.trim().isEmpty()) {
+            throw new IllegalArgumentException("The search query must not be blank.");
+        }
+
+        final int searchLimit = null == limit ? defaultSearchLimit : limit;
+
+        if (searchLimit < 1 || maxSearchLimit < searchLimit) {
+            throw new IllegalArgumentException(
+                    format("The limit (%d) must be between 1 and %d.", searchLimit, maxSearchLimit));
+        }
+
+        final UserFields userFields = fields(fields);
+
+        return new Callable<List<?>>() {
+
+            @Override
+            public List<?> call() throws Exception {
+
+                final List<Long> ids = searchIndex.search(q, searchLimit);
+
+                if (ids.isEmpty()) {
+                    return ids;
+                }
+
+                final Map<Long, ? extends Id> users = null == userFields
+                        ? retrieveAll(ids)
+                        : inOrder(ids, repository.findPartialByIdIn(ids, userFields));
+
+                return new ArrayList<>(users.values());
+            }
+        };
+    }
+
+    /**
+     * Retrieve the number of users along with the number in each city and postcode. The counts are held in memory and
+     * kept up to date by every change, so the response takes the same time however many users there are.
+     *
+     * @return the user counts.
+     */
+    @RequestMapping(value = "/aggregates", method = GET, produces = APPLICATION_JSON_VALUE)
+    public Callable<UserAggregates.Counts> asyncAggregates() {
+
+        return new Callable<UserAggregates.Counts>() {
+
+            @Override
+            public UserAggregates.Counts call() throws Exception {
+                return aggregates.getCounts();
             }
         };
     }
 
     /**
      * Updated the user that has been deserialised from the {@code JSON} in the body of the {@code PUT} request.
+     * <p/>
+     * The user is updated directly without being read first, the existing address is updated in place so any address
+     * ID in the request is ignored.
+     * <p/>
+     * If an {@code If-Match} header is supplied then the user is only updated if it's {@code ETag} still matches, this
+     * stops concurrent updates from silently overwriting each other.
      *
-     * @param id   the ID of the user to update.
-     * @param user the deserialised user minus the ID.
+     * @param id      the ID of the user to update.
+     * @param ifMatch the {@code ETag} the user must still have to be updated, this can be omitted.
+     * @param user    the deserialised user minus the ID.
      * @return the updated user.
      * @throws javax.persistence.EntityNotFoundException
      *          if no user exists with the supplied id.
+     * @throws OptimisticLockingFailureException
+     *          if the users {@code ETag} does not match the {@code If-Match} header.
      */
     @RequestMapping(value = "/{id}", method = PUT, consumes = APPLICATION_JSON_VALUE, produces = APPLICATION_JSON_VALUE)
     @ResponseStatus(NO_CONTENT)
-    public Callable<String> asyncUpdate(@PathVariable Long id, @Valid @RequestBody final User user) {
+    public Callable<String> asyncUpdate(@PathVariable Long id,
+                                        @RequestHeader(value = IF_MATCH, required = false) String ifMatch,
+                                        @Valid @RequestBody final User user) {
 
         user.setId(id);
 
+        final Long version = version(ifMatch);
+
         return new Callable<String>() {
 
             @Override
             public String call() throws Exception {
 
-                checkExists(user.getId());
+                final Long updated = repository.update(user, version);
+
+                if (null == updated) {
+                    throw notFound(user.getId());
+                }
+
+                user.setVersion(updated);
 
-                repository.save(user);
+                // Count the change before evicting so that a replica without it can't refill the cache.
+                changes.changed();
+                cache.evict(user.getId());
+                views.put(user);
+
+                return "";
+            }
+        };
+    }
+
+    /**
+     * Apply the {@code JSON} Merge Patch in the body of the {@code PATCH} request to the user with the supplied ID.
+     * <p/>
+     * Only the fields that are in the patch are changed and only their columns are updated, a field that is patched
+     * to null is cleared. The users address is left alone unless the patch contains an address, an address that is
+     * patched to null is removed.
+     * <p/>
+     * Just like a full update an {@code If-Match} header can be supplied to make sure the user hasn't changed.
+     *
+     * @param id      the ID of the user to patch.
+     * @param ifMatch the {@code ETag} the user must still have to be patched, this can be omitted.
+     * @param patch   the merge patch.
+     * @return nothing.
+     * @throws javax.persistence.EntityNotFoundException
+     *          if no user exists with the supplied id.
+     * @throws IllegalArgumentException if the patch contains an unknown field or a value of the wrong type.
+     * @throws ConstraintViolationException if any of the patched values are invalid.
+     * @throws OptimisticLockingFailureException
+     *          if the users {@code ETag} does not match the {@code If-Match} header.
+     */
+    @RequestMapping(value = "/{id}", method = PATCH, consumes = MERGE_PATCH_VALUE, produces = APPLICATION_JSON_VALUE)
+    @ResponseStatus(NO_CONTENT)
+    public Callable<String> asyncPatch(@PathVariable final Long id,
+                                       @RequestHeader(value = IF_MATCH, required = false) String ifMatch,
+                                       @RequestBody JsonNode body) {
+
+        final UserPatch patch = UserPatch.parse(body);
+
+        for (Map.Entry<String, Object> field : patch.getUser().entrySet()) {
+
+            final Set<ConstraintViolation<User>> violations =
+                    validator.validateValue(User.class, field.getKey(), field.getValue());
+
+            if (!violations.isEmpty()) {
+                throw new ConstraintViolationException(
+                        format("%s: %s", field.getKey(), violations.iterator().next().getMessage()),
+                        new HashSet<ConstraintViolation<?>>(violations));
+            }
+        }
+
+        final Long version = version(ifMatch);
+
+        return new Callable<String>() {
+
+            @Override
+            public String call() throws Exception {
+
+                final User patched = repository.patch(id, patch, version);
+
+                if (null == patched) {
+                    throw notFound(id);
+                }
+
+                changes.changed();
+                cache.evict(id);
+                views.put(patched);
 
                 return "";
             }
@@ -175,15 +848,25 @@ public class UserController {
             @Override
             public String call() throws Exception {
 
-                checkExists(id);
+                if (!repository.remove(id)) {
+                    throw notFound(id);
+                }
 
-                repository.delete(id);
+                changes.changed();
+                cache.evict(id);
+                views.remove(id);
 
                 return "";
             }
         };
     }
 
+    /**
+     * Delete all the users. The users are deleted with bulk statements so none of them are loaded, this means the
+     * delete takes the same time however many users there are apart from the databases own cost.
+     *
+     * @return nothing.
+     */
     @RequestMapping(method = DELETE, produces = APPLICATION_JSON_VALUE)
     @ResponseStatus(NO_CONTENT)
     public Callable<String> asyncDeleteAll() {
@@ -193,18 +876,278 @@ public class UserController {
             @Override
             public String call() throws Exception {
 
-                repository.deleteAll();
+                repository.removeAll();
+
+                changes.changed();
+                cache.clear();
+                views.clear();
 
                 return "";
             }
         };
     }
 
-    private void checkExists(Long id) {
+    /**
+     * Persist a chunk of imported users in a single transaction, or one at a time if the chunk fails, then write out
+     * any failures and the progress so far. The chunk is emptied so that it can be reused.
+     */
+    private void importChunk(List<User> users, final List<Long> lines, final ImportProgress progress,
+                             final ObjectWriter writer, final JsonGenerator generator) throws IOException {
+
+        if (users.isEmpty()) {
+            return;
+        }
+
+        final List<ImportError> errors = new ArrayList<>();
+        final long created = progress.created;
+
+        batchWriter.create(users, importChunkSize, new UserBatchWriter.Callback() {
+
+            @Override
+            public void created(int index, User user) {
+                progress.created++;
+                views.put(user);
+            }
+
+            @Override
+            public void failed(int index, User user, RuntimeException e) {
+                errors.add(new ImportError(lines.get(index), e.getClass().getSimpleName(), e.getMessage()));
+            }
+        });
+
+        users.clear();
+        lines.clear();
+
+        if (created < progress.created) {
+            changes.changed();
+        }
+
+        for (ImportError error : errors) {
+            progress.failed++;
+            writeLine(writer, generator, error);
+        }
+
+        writeLine(writer, generator, progress);
+        generator.flush();
+    }
+
+    private static void importFailed(long line, String error, String message, ImportProgress progress,
+                                     ObjectWriter writer, JsonGenerator generator) throws IOException {
+
+        progress.failed++;
+        writeLine(writer, generator, new ImportError(line, error, message));
+    }
+
+    private static void writeLine(ObjectWriter writer, JsonGenerator generator, Object value) throws IOException {
+
+        writer.writeValue(generator, value);
+        generator.writeRaw('\n');
+    }
+
+    private Map<Long, User> retrieveAll(Collection<Long> ids) throws Exception {
+
+        return cache.getAll(ids, new UserCache.BulkLoader() {
+
+            @Override
+            public List<User> load(List<Long> ids) throws Exception {
+                return repository.findByIdIn(ids);
+            }
+        });
+    }
+
+    private static <T extends Id> Map<Long, T> inOrder(Collection<Long> ids, List<T> users) {
+
+        final Map<Long, T> byId = new HashMap<>();
+        for (T user : users) {
+            byId.put(user.getId(), user);
+        }
+
+        final Map<Long, T> ordered = new LinkedHashMap<>();
+        for (Long id : ids) {
+            if (byId.containsKey(id)) {
+                ordered.put(id, byId.get(id));
+            }
+        }
+
+        return ordered;
+    }
+
+    private List<? extends Id> page(UserFilter filter, Long after, int limit, UserFields fields) {
+
+        if (!filter.isEmpty()) {
+            return filteredPage(filter, after, limit, fields);
+        }
+
+        if (null != fields) {
+            return repository.findPartialPage(after, limit, fields);
+        }
+
+        final Pageable page = new PageRequest(0, limit);
+
+        if (null == after) {
+            return repository.findAllByOrderByIdAsc(page);
+        }
+
+        return repository.findByIdGreaterThanOrderByIdAsc(after, page);
+    }
+
+    private List<? extends Id> filteredPage(UserFilter filter, Long after, int limit, UserFields fields) {
+
+        List<?> position = null;
+
+        if (null != after) {
+
+            // The page carries on from the sort values of the last user, so they have to be read unless it's only the
+            // ID that is sorted on.
+            position = filter.isSortedById() ? singletonList(after) : repository.findSortValues(after, filter);
+
+            if (null == position) {
+                throw new IllegalArgumentException(
+                        format("The user (%d) that the page is after no longer exists.", after));
+            }
+        }
+
+        if (null != fields) {
+            return repository.findPartialFilteredPage(filter, position, limit, fields);
+        }
+
+        return repository.findFilteredPage(filter, position, limit);
+    }
+
+    /**
+     * @return the filter made up of the filter and sort parameters in the request.
+     * @throws IllegalArgumentException if any of the sort fields are unknown.
+     */
+    private static UserFilter filter(HttpServletRequest request) {
+
+        final Map<String, String> conditions = new LinkedHashMap<>();
+
+        for (String field : UserFilter.FIELDS) {
+
+            final String value = request.getParameter(field);
+
+            if (null != value) {
+                conditions.put(field, value);
+            }
+        }
+
+        return UserFilter.parse(conditions, request.getParameter("sort"));
+    }
+
+    /**
+     * Check the validators in the request against the latest change, if the client already has the latest version of
+     * the users then a {@code 304} is set on the response.
+     * <p/>
+     * {@code If-Modified-Since} is only used if there is no {@code If-None-Match}, Spring would otherwise require both
+     * to match before it returned a {@code 304}.
+     */
+    private static boolean notModified(UserChanges.Change change, HttpServletRequest request,
+                                       HttpServletResponse response) {
+
+        final String ifNoneMatch = request.getHeader(IF_NONE_MATCH);
+
+        final boolean notModified = null == ifNoneMatch
+                ? change.getLastModified() / 1000 * 1000 <= ifModifiedSince(request)
+                : matches(ifNoneMatch, change.getETag());
+
+        if (notModified) {
+            response.setStatus(NOT_MODIFIED.value());
+            response.setHeader(ETAG, change.getETag());
+            response.setDateHeader(LAST_MODIFIED, change.getLastModified());
+        }
+
+        return notModified;
+    }
+
+    private static long ifModifiedSince(HttpServletRequest request) {
+
+        try {
+            return request.getDateHeader(IF_MODIFIED_SINCE);
+        } catch (IllegalArgumentException e) {
+            // An invalid date must be ignored.
+            return -1;
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String eTag) {
+
+        for (String match : ifNoneMatch.split(",")) {
+
+            final String trimmed = match.trim();
+
+            if ("*".equals(trimmed) || eTag.equals(trimmed) || eTag.equals(trimmed.replaceFirst("^W/", ""))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return a strong {@code ETag} made from the users version, the version is incremented by every update including
+     *         an update to the users address.
+     */
+    private static String eTag(Long version) {
+
+        return format("\"%d\"", version);
+    }
+
+    private static UserFields fields(String fields) {
+
+        return null == fields ? null : UserFields.parse(fields);
+    }
+
+    /**
+     * @return the version that the user must be at for the supplied {@code If-Match} to match, or null if the user
+     *         should always be updated. A value that could never be one of our {@code ETag}'s will never match.
+     */
+    private static Long version(String ifMatch) {
+
+        if (null == ifMatch || "*".equals(ifMatch.trim())) {
+            return null;
+        }
+
+        try {
+            return Long.valueOf(ifMatch.trim().replaceAll("^\"|\"$", ""));
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    private static Long lastId(List<? extends Id> users) {
+
+        return users.get(users.size() - 1).getId();
+    }
+
+    private String validate(User user) {
+
+        if (null == user) {
+            return "A user must be supplied.";
+        }
+
+        final Set<ConstraintViolation<User>> violations = validator.validate(user);
+
+        if (violations.isEmpty()) {
+            return null;
+        }
+
+        final StringBuilder message = new StringBuilder();
 
-        if (!repository.exists(id)) {
-            throw new EntityNotFoundException(format("A user with the ID (%d) could not be found.", id));
+        for (ConstraintViolation<User> violation : violations) {
+
+            if (0 < message.length()) {
+                message.append(", ");
+            }
+
+            message.append(violation.getPropertyPath()).append(": ").append(violation.getMessage());
         }
+
+        return message.toString();
+    }
+
+    private static EntityNotFoundException notFound(Long id) {
+
+        return new EntityNotFoundException(format("A user with the ID (%d) could not be found.", id));
     }
 
     public static class ErrorResponse {
@@ -232,6 +1175,140 @@ public class UserController {
         }
     }
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class BatchResult {
+
+        private final Long id;
+
+        private final String error;
+
+        private final String message;
+
+
+        public BatchResult(Long id) {
+
+            this(id, null, null);
+        }
+
+        public BatchResult(String error, String message) {
+
+            this(null, error, message);
+        }
+
+        private BatchResult(Long id, String error, String message) {
+
+            this.id = id;
+            this.error = error;
+            this.message = message;
+        }
+
+
+        public Long getId() {
+
+            return id;
+        }
+
+        public String getError() {
+
+            return error;
+        }
+
+        public String getMessage() {
+
+            return message;
+        }
+    }
+
+    public static class ImportError {
+
+        private final long line;
+
+        private final String error;
+
+        private final String message;
+
+
+        public ImportError(long line, String error, String message) {
+
+            this.line = line;
+            this.error = error;
+            this.message = message;
+        }
+
+
+        public long getLine() {
+
+            return line;
+        }
+
+        public String getError() {
+
+            return error;
+        }
+
+        public String getMessage() {
+
+            return message;
+        }
+    }
+
+    public static class ImportProgress {
+
+        private long lines;
+
+        private long created;
+
+        private long failed;
+
+        private boolean complete;
+
+
+        public long getLines() {
+
+            return lines;
+        }
+
+        public long getCreated() {
+
+            return created;
+        }
+
+        public long getFailed() {
+
+            return failed;
+        }
+
+        public boolean isComplete() {
+
+            return complete;
+        }
+    }
+
+    public static class IdsResult {
+
+        private final List<? extends Id> users;
+
+        private final List<Long> missing;
+
+
+        public IdsResult(List<? extends Id> users, List<Long> missing) {
+
+            this.users = users;
+            this.missing = missing;
+        }
+
+
+        public List<? extends Id> getUsers() {
+
+            return users;
+        }
+
+        public List<Long> getMissing() {
+
+            return missing;
+        }
+    }
+
     @ExceptionHandler
     public ErrorResponse handleException(EntityNotFoundException e, HttpServletResponse response) {
 
@@ -240,6 +1317,23 @@ public class UserController {
         return new ErrorResponse(e.getClass().getSimpleName(), e.getMessage());
     }
 
+    @ExceptionHandler
+    public ErrorResponse handleException(OptimisticLockingFailureException e, HttpServletResponse response) {
+
+        response.setStatus(412);
+
+        return new ErrorResponse(e.getClass().getSimpleName(), e.getMessage());
+    }
+
+    @ExceptionHandler
+    public ErrorResponse handleException(TaskRejectedException e, HttpServletResponse response) {
+
+        response.setStatus(503);
+        response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+
+        return new ErrorResponse(e.getClass().getSimpleName(), e.getMessage());
+    }
+
     @ExceptionHandler
     public ErrorResponse handleException(Exception e, HttpServletResponse response) {
 
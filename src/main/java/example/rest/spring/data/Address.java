@@ -16,16 +16,33 @@
 
 package example.rest.spring.data;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Version;
 import java.io.Serializable;
 
 /**
  * A simple address class that is an aggregate of the {@link User} class.
+ * <p/>
+ * The city, postcode and suburb are indexed so that the users can be filtered by them.
  *
  * @author Karl Bennett
  */
 @Entity
+@Table(indexes = {
+        @Index(name = "address_city", columnList = "city"),
+        @Index(name = "address_postcode", columnList = "postcode"),
+        @Index(name = "address_suburb", columnList = "suburb")
+})
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Address extends Id implements Serializable {
 
     @Column
@@ -43,6 +60,10 @@ public class Address extends Id implements Serializable {
     @Column
     private String postcode;
 
+    @Version
+    @Column(nullable = false)
+    private Long version;
+
     public Address() {
     }
 
@@ -53,6 +74,7 @@ public class Address extends Id implements Serializable {
     public Address(Address address) {
         this(address.getId(), address.getNumber(), address.getStreet(), address.getSuburb(), address.getCity(),
                 address.getPostcode());
+        setVersion(address.getVersion());
     }
 
     public Address(Long id, Integer number, String street, String suburb, String city, String postcode) {
@@ -104,6 +126,15 @@ public class Address extends Id implements Serializable {
         this.postcode = postcode;
     }
 
+    @JsonIgnore
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     @Override
     public boolean equals(Object object) {
 
@@ -160,6 +191,7 @@ public class Address extends Id implements Serializable {
                 ", suburb = '" + suburb + '\'' +
                 ", city = '" + city + '\'' +
                 ", postcode = '" + postcode + '\'' +
+                ", version = " + version +
                 '}';
     }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.data;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Statistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The Hibernate second-level cache regions that hold the {@link User} and {@link Address} entities. They are shared by
+ * every entity manager so an entity that has been read once can be found again without going to the database.
+ * <p/>
+ * The regions are kept consistent by Hibernate itself. The entities are cached read-write, so a user that is changed
+ * through the entity manager is locked in the cache until the change has been committed. The bulk {@code UPDATE} and
+ * {@code DELETE} statements in the {@link UserRepositoryImpl} can't know which entities they change, so instead they
+ * empty the whole of the regions for the tables they write to. Just like the {@link UserCache} the users must not be
+ * modified directly in the database.
+ *
+ * @author Karl Bennett
+ */
+@Component
+public class EntityCache {
+
+    private static final String[] REGIONS = {User.class.getName(), Address.class.getName()};
+
+    private final CacheManager cacheManager;
+
+    private final int maxEntries;
+
+    /**
+     * @param entityManagerFactory the factory that created the cache regions, it must have been started before the
+     *                             regions can be configured.
+     * @param maxEntries           the maximum number of entities to hold in each region, once this is reached the
+     *                             least recently used entities are evicted.
+     */
+    @Autowired
+    public EntityCache(EntityManagerFactory entityManagerFactory,
+                       @Value("${users.entity-cache.max-entries:10000}") int maxEntries) {
+
+        // The region factory shares the singleton cache manager, so it is the one that holds the regions.
+        this.cacheManager = CacheManager.getInstance();
+        this.maxEntries = maxEntries;
+
+        for (String region : REGIONS) {
+            cacheManager.getEhcache(region).getCacheConfiguration().setMaxElementsInMemory(maxEntries);
+        }
+    }
+
+    /**
+     * @return the statistics of each entity region keyed by the simple name of the entity.
+     */
+    public Map<String, Map<String, Object>> getStatistics() {
+
+        final Map<String, Map<String, Object>> statistics = new LinkedHashMap<>();
+
+        for (String region : REGIONS) {
+            final Ehcache cache = cacheManager.getEhcache(region);
+            final Statistics regionStatistics = cache.getStatistics();
+
+            final Map<String, Object> body = new LinkedHashMap<>();
+
+            body.put("size", regionStatistics.getObjectCount());
+            body.put("maximumSize", maxEntries);
+            body.put("hitCount", regionStatistics.getCacheHits());
+            body.put("missCount", regionStatistics.getCacheMisses());
+            body.put("evictionCount", regionStatistics.getEvictionCount());
+
+            statistics.put(region.substring(region.lastIndexOf('.') + 1), body);
+        }
+
+        return statistics;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.data;
+
+/**
+ * A count-min sketch that estimates how often each key has been seen, it is used by the {@link UserCache} to decide
+ * which users are worth keeping.
+ * <p/>
+ * Each key is counted in four of the counters and it's estimate is the smallest of those four counts. The counters are
+ * capped at 15 and once enough keys have been counted all the counters are halved, this ages out the popularity of keys
+ * that used to be popular but no longer are.
+ * <p/>
+ * The counters are updated without any locking so concurrent increments can be lost, this is fine because the counts
+ * only need to be approximate.
+ *
+ * @author Karl Bennett
+ */
+class FrequencySketch {
+
+    private static final int MAX_COUNT = 15;
+
+    private static final long[] SEEDS = {0x97cb3127L, 0x0b1b1f7dL, 0x6a09e667L, 0x3c6ef372L};
+
+    private final int[] counters;
+
+    private final int mask;
+
+    private final int sampleSize;
+
+    private int additions;
+
+    FrequencySketch(int maximumSize) {
+
+        final int size = Integer.highestOneBit(Math.max(16, maximumSize) - 1) << 1;
+
+        this.counters = new int[size];
+        this.mask = size - 1;
+        this.sampleSize = 10 * Math.max(1, maximumSize);
+    }
+
+    /**
+     * @param key the key that has been seen.
+     */
+    void increment(long key) {
+
+        boolean added = false;
+
+        for (long seed : SEEDS) {
+
+            final int index = index(key, seed);
+
+            if (counters[index] < MAX_COUNT) {
+                counters[index]++;
+                added = true;
+            }
+        }
+
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * @param key the key to estimate.
+     * @return approximately how many times the key has been seen recently.
+     */
+    int frequency(long key) {
+
+        int frequency = MAX_COUNT;
+
+        for (long seed : SEEDS) {
+            frequency = Math.min(frequency, counters[index(key, seed)]);
+        }
+
+        return frequency;
+    }
+
+    private synchronized void reset() {
+
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] >>>= 1;
+        }
+
+        additions = 0;
+    }
+
+    private int index(long key, long seed) {
+
+        long hash = (key + seed) * 0x9e3779b97f4a7c15L;
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+
+        return (int) (hash ^ (hash >>> 33)) & mask;
+    }
+}
@@ -16,13 +16,21 @@
 
 package example.rest.spring.data;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.MappedSuperclass;
 import java.io.Serializable;
 
 /**
  * This class can be extended by any {@link javax.persistence.Entity} that needs an Id.
+ * <p/>
+ * The ID's are allocated from a pooled sequence rather than an identity column. This means that the ID of a new entity
+ * is known before it is inserted which allows Hibernate to send the inserts in JDBC batches, it also means that only
+ * one in every {@code increment_size} inserts requires a call to the sequence.
+ * <p/>
+ * When the users are sharded each shard has it's own sequence and pool of ID's.
  *
  * @author Karl Bennett
  */
@@ -30,7 +38,13 @@ import java.io.Serializable;
 public class Id implements Serializable {
 
     @javax.persistence.Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(generator = "id_sequence")
+    @GenericGenerator(name = "id_sequence", strategy = "example.rest.spring.shard.ShardSequenceGenerator",
+            parameters = {
+                    @Parameter(name = "sequence_name", value = "id_sequence"),
+                    @Parameter(name = "increment_size", value = "50"),
+                    @Parameter(name = "optimizer", value = "pooled")
+            })
     private Long id;
 
     /**
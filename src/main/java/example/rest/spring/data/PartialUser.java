@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.data;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.Map;
+
+/**
+ * A user that has only had some of it's fields read, it is serialised as just those fields.
+ *
+ * @author Karl Bennett
+ * @see UserFields
+ */
+public class PartialUser extends Id {
+
+    private final Long version;
+
+    private final Map<String, Object> fields;
+
+    public PartialUser(Long id, Long version, Map<String, Object> fields) {
+        super(id);
+        this.version = version;
+        this.fields = fields;
+    }
+
+    @JsonIgnore
+    public Long getVersion() {
+        return version;
+    }
+
+    @JsonValue
+    public Map<String, Object> getFields() {
+        return fields;
+    }
+
+    @Override
+    public String toString() {
+
+        return "PartialUser {" +
+                "id = " + getId() +
+                ", version = " + version +
+                ", fields = " + fields +
+                '}';
+    }
+}
@@ -16,11 +16,19 @@
 
 package example.rest.spring.data;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import javax.persistence.Cacheable;
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.OneToOne;
+import javax.persistence.Table;
+import javax.persistence.Version;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
 import java.io.Serializable;
@@ -28,10 +36,24 @@ import java.io.Serializable;
 /**
  * A simple user class that contains an email, first name, last name, phone number, and address. The email has been
  * annotated to indicate it should be unique. Some others have been annotated to be not null.
+ * <p/>
+ * The version is incremented every time the user is updated, it is used as the users {@code ETag} so it isn't part of
+ * the {@code JSON} or of equality.
+ * <p/>
+ * The last name is indexed along with the ID so that the users with a last name can be read in ID order, and the users
+ * can be sorted by last name, straight from the index. The first name and email are indexed along with the ID as well,
+ * so that a page sorted by either of them is also read straight from an index however many users there are.
  *
  * @author Karl Bennett
  */
 @Entity
+@Table(indexes = {
+        @Index(name = "user_last_name_id", columnList = "lastName, id"),
+        @Index(name = "user_first_name_id", columnList = "firstName, id"),
+        @Index(name = "user_email_id", columnList = "email, id")
+})
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class User extends Id implements Serializable {
 
     @NotNull(message = "email.null")
@@ -56,6 +78,10 @@ public class User extends Id implements Serializable {
     @JoinColumn(name = "address_id")
     private Address address;
 
+    @Version
+    @Column(nullable = false)
+    private Long version;
+
     /**
      * A default constructor is required by serialisation and ORM API's.
      */
@@ -69,6 +95,7 @@ public class User extends Id implements Serializable {
     public User(User user) {
         this(user.getId(), user.getEmail(), user.getFirstName(), user.getLastName(), user.getPhoneNumber(),
                 user.getAddress());
+        setVersion(user.getVersion());
     }
 
     public User(Long id, String email, String firstName, String lastName, String phoneNumber, Address address) {
@@ -126,6 +153,15 @@ public class User extends Id implements Serializable {
         this.address = null == address ? null : new Address(address);
     }
 
+    @JsonIgnore
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     @Override
     public boolean equals(Object object) {
 
@@ -183,6 +219,7 @@ public class User extends Id implements Serializable {
                 ", lastName = '" + lastName + '\'' +
                 ", phoneNumber = '" + phoneNumber + '\'' +
                 ", address = " + address +
+                ", version = " + version +
                 '}';
     }
 }
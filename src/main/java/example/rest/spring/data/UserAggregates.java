@@ -0,0 +1,174 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.data;
+
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory counts of the users in each city and postcode, so that they can be retrieved without reading any users.
+ * <p/>
+ * The counts are one of the {@link UserViews} so they are seeded when the application starts and then kept up to date
+ * by every change. The city and postcode of each user is held so that an update or delete knows which counts to move
+ * without having to read the user first. The updates are serialised so a snapshot of the counts is always consistent
+ * with itself.
+ * <p/>
+ * A deleted user's place is dropped straight away and the groups without any users are removed, so the counts only
+ * ever hold the live users and their groups however many users have been deleted.
+ *
+ * @author Karl Bennett
+ */
+@Component
+public class UserAggregates implements UserView {
+
+    private static final Place NOWHERE = new Place(null, null);
+
+    private final Map<Long, Place> places = new HashMap<>();
+
+    private final Map<String, Long> cities = new HashMap<>();
+
+    private final Map<String, Long> postcodes = new HashMap<>();
+
+    /**
+     * Count the supplied user, moving it out of the city and postcode it was counted in before.
+     *
+     * @param user a user that has been persisted.
+     */
+    @Override
+    public synchronized void put(User user) {
+
+        final Address address = user.getAddress();
+
+        put(user.getId(), null == address ? NOWHERE : new Place(address.getCity(), address.getPostcode()));
+    }
+
+    @Override
+    public synchronized void remove(Long id) {
+
+        final Place place = places.remove(id);
+
+        if (null != place) {
+            count(place, -1);
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+
+        discard();
+    }
+
+    /**
+     * @return a snapshot of the counts, this only copies the counts so it takes the same time however many users
+     *         there are.
+     */
+    public synchronized Counts getCounts() {
+
+        return new Counts(places.size(), new TreeMap<>(cities), new TreeMap<>(postcodes));
+    }
+
+    private void put(Long id, Place place) {
+
+        final Place previous = places.put(id, place);
+
+        if (null != previous) {
+            count(previous, -1);
+        }
+
+        count(place, 1);
+    }
+
+    private void discard() {
+
+        places.clear();
+        cities.clear();
+        postcodes.clear();
+    }
+
+    private void count(Place place, long change) {
+
+        count(cities, place.city, change);
+        count(postcodes, place.postcode, change);
+    }
+
+    /**
+     * Change the count of the supplied group, a group is removed once it has no users so the counts only ever hold the
+     * groups that exist. Users without a value aren't in any group.
+     */
+    private static void count(Map<String, Long> groups, String group, long change) {
+
+        if (null == group) {
+            return;
+        }
+
+        final Long current = groups.get(group);
+        final long count = (null == current ? 0 : current) + change;
+
+        if (0 == count) {
+            groups.remove(group);
+        } else {
+            groups.put(group, count);
+        }
+    }
+
+    private static class Place {
+
+        private final String city;
+
+        private final String postcode;
+
+        private Place(String city, String postcode) {
+            this.city = city;
+            this.postcode = postcode;
+        }
+    }
+
+    /**
+     * The number of users, and the number of users in each city and postcode. A user without a city or postcode is
+     * only included in the total.
+     */
+    public static class Counts {
+
+        private final long users;
+
+        private final Map<String, Long> cities;
+
+        private final Map<String, Long> postcodes;
+
+        private Counts(long users, Map<String, Long> cities, Map<String, Long> postcodes) {
+
+            this.users = users;
+            this.cities = cities;
+            this.postcodes = postcodes;
+        }
+
+        public long getUsers() {
+            return users;
+        }
+
+        public Map<String, Long> getCities() {
+            return cities;
+        }
+
+        public Map<String, Long> getPostcodes() {
+            return postcodes;
+        }
+    }
+}
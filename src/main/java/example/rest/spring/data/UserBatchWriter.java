@@ -0,0 +1,164 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.data;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.orm.jpa.JpaDialect;
+import org.springframework.orm.jpa.vendor.HibernateJpaDialect;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.List;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * Persists many users at once. The users are inserted a chunk at a time with each chunk in it's own transaction, within
+ * a chunk Hibernate will send the {@code user} and {@code address} inserts to the database in JDBC batches.
+ * <p/>
+ * If any user in a chunk fails to be persisted then the whole chunk is rolled back and it's users are retried one at a
+ * time so that only the users that are actually invalid fail.
+ *
+ * @author Karl Bennett
+ */
+@Component
+public class UserBatchWriter {
+
+    private static final JpaDialect DIALECT = new HibernateJpaDialect();
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public UserBatchWriter(PlatformTransactionManager transactionManager) {
+
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Persist the supplied users. Any ID's on the users or their addresses will be ignored.
+     *
+     * @param users     the users to persist.
+     * @param chunkSize the number of users to persist in each transaction.
+     * @param callback  the callback that will be told the outcome for each user, it is called in the same order as
+     *                  the supplied users.
+     */
+    public void create(List<User> users, int chunkSize, Callback callback) {
+
+        for (int start = 0; start < users.size(); start += chunkSize) {
+
+            final List<User> chunk = users.subList(start, Math.min(start + chunkSize, users.size()));
+
+            try {
+                persist(chunk);
+            } catch (RuntimeException e) {
+                persistEach(chunk, start, callback);
+                continue;
+            }
+
+            for (int i = 0; i < chunk.size(); i++) {
+                callback.created(start + i, chunk.get(i));
+            }
+        }
+    }
+
+    private void persistEach(List<User> chunk, int start, Callback callback) {
+
+        for (int i = 0; i < chunk.size(); i++) {
+
+            final User user = chunk.get(i);
+
+            try {
+                persist(singletonList(user));
+                callback.created(start + i, user);
+            } catch (RuntimeException e) {
+                callback.failed(start + i, user, translate(e));
+            }
+        }
+    }
+
+    /**
+     * Persist the supplied users within a single transaction.
+     */
+    protected void persist(final List<User> users) {
+
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+
+                for (User user : users) {
+                    // Null out the ID's to make sure that an attempt is made at a create, this also clears any ID's
+                    // that were allocated to a chunk that was rolled back.
+                    nullIds(user);
+                    entityManager.persist(user);
+                }
+
+                entityManager.flush();
+                entityManager.clear();
+            }
+        });
+    }
+
+    private static void nullIds(User user) {
+
+        user.setId(null);
+
+        final Address address = user.getAddress();
+        if (null != address) {
+            address.setId(null);
+            user.setAddress(address);
+        }
+    }
+
+    /**
+     * @return the matching {@link DataAccessException} if there is one, otherwise the supplied exception.
+     */
+    protected static RuntimeException translate(RuntimeException e) {
+
+        final DataAccessException translated = DIALECT.translateExceptionIfPossible(e);
+
+        return null == translated ? e : translated;
+    }
+
+    /**
+     * Is told the outcome of persisting each user in a batch.
+     */
+    public interface Callback {
+
+        /**
+         * @param index the index of the user within the batch.
+         * @param user  the user that has been persisted, it's ID will have been populated.
+         */
+        void created(int index, User user);
+
+        /**
+         * @param index the index of the user within the batch.
+         * @param user  the user that could not be persisted.
+         * @param e     the reason the user could not be persisted.
+         */
+        void failed(int index, User user, RuntimeException e);
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.data;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.Collections.singleton;
+
+/**
+ * A read-through cache of users keyed by their ID.
+ * <p/>
+ * Lookups are lock free. Once the cache is full a newly loaded user is only admitted if it has been requested more
+ * often than the least recently used user in the cache, in which case that user is evicted to make room. This stops a
+ * scan of rarely requested users from flushing out the popular ones. The request frequencies are estimated with a
+ * {@link FrequencySketch}.
+ * <p/>
+ * The cached users are shared between requests so they must not be modified. A user that is loaded while the cache
+ * is invalidated is never cached, so a user that is loaded from a copy of the database that had every change committed
+ * before the load began can't be stale once it is cached. {@link #isLoading()} lets a read find out that it needs such
+ * a copy.
+ *
+ * @author Karl Bennett
+ */
+@Component
+public class UserCache {
+
+    private static final ThreadLocal<Boolean> LOADING = new ThreadLocal<>();
+
+    private final ConcurrentMap<Long, Entry> entries = new ConcurrentHashMap<>();
+
+    // Guarded by the lock, it holds the same entries as the map ordered from least to most recently used.
+    private final LinkedHashMap<Long, Entry> recency = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Incremented on every invalidation so that a user that was loaded before an invalidation is never cached.
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final FrequencySketch sketch;
+
+    private final int maximumSize;
+
+    private final long timeToLiveNanos;
+
+    /**
+     * @param maximumSize        the maximum number of users to cache, zero disables the cache.
+     * @param timeToLiveSeconds the number of seconds a user can be cached for, zero means forever.
+     */
+    @Autowired
+    public UserCache(@Value("${users.cache.maximum-size:10000}") int maximumSize,
+                     @Value("${users.cache.time-to-live-seconds:0}") long timeToLiveSeconds) {
+
+        this.sketch = new FrequencySketch(maximumSize);
+        this.maximumSize = maximumSize;
+        this.timeToLiveNanos = TimeUnit.SECONDS.toNanos(timeToLiveSeconds);
+    }
+
+    /**
+     * Retrieve the user with the supplied ID from the cache, if it isn't cached then it will be loaded and possibly
+     * cached.
+     *
+     * @param id     the ID of the user to retrieve.
+     * @param loader the loader that will be called if the user isn't cached, it must return null if the user doesn't
+     *               exist.
+     * @return the cached or loaded user.
+     * @throws Exception any exception thrown by the loader.
+     */
+    public User get(Long id, Callable<User> loader) throws Exception {
+
+        sketch.increment(id);
+
+        final Entry entry = entries.get(id);
+
+        if (null != entry) {
+
+            if (!entry.isExpired()) {
+                hits.incrementAndGet();
+                recordAccess(id);
+                return entry.user;
+            }
+
+            expire(id, entry);
+        }
+
+        misses.incrementAndGet();
+
+        final long stamp = generation.get();
+
+        final User user = load(loader);
+
+        if (null != user) {
+            admit(id, user, stamp);
+        }
+
+        return user;
+    }
+
+    /**
+     * @return true if the user with the supplied ID is cached and hasn't expired, this doesn't count as a hit or a
+     *         miss.
+     */
+    public boolean contains(Long id) {
+
+        final Entry entry = entries.get(id);
+
+        return null != entry && !entry.isExpired();
+    }
+
+    /**
+     * Retrieve all the users with the supplied ID's from the cache, any that aren't cached will be loaded together with
+     * a single call to the loader and possibly cached.
+     *
+     * @param ids    the ID's of the users to retrieve.
+     * @param loader the loader that will be called with the ID's of the users that aren't cached, it will not be called
+     *               if every user is cached.
+     * @return the cached and loaded users keyed by their ID in the order of the supplied ID's, a user that doesn't
+     *         exist will be missing.
+     * @throws Exception any exception thrown by the loader.
+     */
+    public Map<Long, User> getAll(Collection<Long> ids, BulkLoader loader) throws Exception {
+
+        final Map<Long, User> users = new LinkedHashMap<>();
+        final List<Long> missingIds = new ArrayList<>();
+
+        for (Long id : ids) {
+
+            sketch.increment(id);
+
+            final Entry entry = entries.get(id);
+
+            if (null != entry && !entry.isExpired()) {
+                hits.incrementAndGet();
+                recordAccess(id);
+                users.put(id, entry.user);
+                continue;
+            }
+
+            if (null != entry) {
+                expire(id, entry);
+            }
+
+            misses.incrementAndGet();
+            // Keep the users in the order of the ID's, the place will be filled once the user is loaded.
+            users.put(id, null);
+            missingIds.add(id);
+        }
+
+        if (missingIds.isEmpty()) {
+            return users;
+        }
+
+        final long stamp = generation.get();
+
+        for (User user : load(loader, missingIds)) {
+            users.put(user.getId(), user);
+            admit(user.getId(), user, stamp);
+        }
+
+        users.values().removeAll(singleton(null));
+
+        return users;
+    }
+
+    /**
+     * Remove the user with the supplied ID from the cache, this must be called after any change to the user has been
+     * committed.
+     *
+     * @param id the ID of the user to remove.
+     */
+    public void evict(Long id) {
+
+        lock.lock();
+        try {
+            generation.incrementAndGet();
+            entries.remove(id);
+            recency.remove(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove all the users from the cache.
+     */
+    public void clear() {
+
+        lock.lock();
+        try {
+            generation.incrementAndGet();
+            entries.clear();
+            recency.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if the current thread is loading users that might be cached, any read of them must see every change
+     *         that had been committed when the load began.
+     */
+    public static boolean isLoading() {
+        return Boolean.TRUE.equals(LOADING.get());
+    }
+
+    public int getSize() {
+        return entries.size();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private static User load(Callable<User> loader) throws Exception {
+
+        LOADING.set(true);
+        try {
+            return loader.call();
+        } finally {
+            LOADING.remove();
+        }
+    }
+
+    private static List<User> load(BulkLoader loader, List<Long> ids) throws Exception {
+
+        LOADING.set(true);
+        try {
+            return loader.load(ids);
+        } finally {
+            LOADING.remove();
+        }
+    }
+
+    private void recordAccess(Long id) {
+
+        // Reordering the recency is only best effort, a read should never have to wait for the lock.
+        if (lock.tryLock()) {
+            try {
+                recency.get(id);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void admit(Long id, User user, long stamp) {
+
+        if (maximumSize < 1) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            if (generation.get() != stamp) {
+                return;
+            }
+
+            if (!entries.containsKey(id) && maximumSize <= entries.size()) {
+
+                final Long victim = recency.keySet().iterator().next();
+
+                if (sketch.frequency(id) <= sketch.frequency(victim)) {
+                    return;
+                }
+
+                entries.remove(victim);
+                recency.remove(victim);
+                evictions.incrementAndGet();
+            }
+
+            final Entry entry = new Entry(user, timeToLiveNanos);
+            entries.put(id, entry);
+            recency.put(id, entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void expire(Long id, Entry entry) {
+
+        lock.lock();
+        try {
+            if (entries.remove(id, entry)) {
+                recency.remove(id);
+                evictions.incrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Loads many users at once.
+     */
+    public interface BulkLoader {
+
+        /**
+         * @param ids the ID's of the users to load.
+         * @return the users that exist, in any order.
+         * @throws Exception if the users could not be loaded.
+         */
+        List<User> load(List<Long> ids) throws Exception;
+    }
+
+    private static class Entry {
+
+        private final User user;
+
+        private final long expiresAt;
+
+        private Entry(User user, long timeToLiveNanos) {
+
+            this.user = user;
+            this.expiresAt = 0 == timeToLiveNanos ? Long.MAX_VALUE : System.nanoTime() + timeToLiveNanos;
+        }
+
+        private boolean isExpired() {
+            return Long.MAX_VALUE != expiresAt && 0 < System.nanoTime() - expiresAt;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.data;
+
+import org.springframework.stereotype.Component;
+
+import static java.lang.String.format;
+
+/**
+ * Counts the changes that have been made to the persisted users so that it can be cheaply decided whether or not a
+ * client already has the latest list of users.
+ * <p/>
+ * Only the changes that are made through this application are counted.
+ *
+ * @author Karl Bennett
+ */
+@Component
+public class UserChanges {
+
+    // The start time makes sure that an ETag from before a restart can never match the count after the restart.
+    private final long startTime = System.currentTimeMillis();
+
+    private volatile Change latest = new Change(startTime, 0, startTime);
+
+    /**
+     * Record that the persisted users have been changed, this must be called after the change has been committed.
+     */
+    public synchronized void changed() {
+
+        // Last-Modified only has a resolution of one second so two changes within the same second have the same date,
+        // it must never be in the future though. The ETag changes with every change so it tells them apart.
+        latest = new Change(startTime, latest.getCount() + 1, System.currentTimeMillis());
+    }
+
+    /**
+     * @return the latest change, this should be read before the users are read so that a change that happens during
+     *         the read will be seen as a new change the next time.
+     */
+    public Change getLatest() {
+
+        return latest;
+    }
+
+    public static class Change {
+
+        private final long count;
+
+        private final long lastModified;
+
+        private final String eTag;
+
+
+        private Change(long startTime, long count, long lastModified) {
+
+            this.count = count;
+            this.lastModified = lastModified;
+            this.eTag = format("\"%x-%x\"", startTime, count);
+        }
+
+
+        public long getCount() {
+
+            return count;
+        }
+
+        public long getLastModified() {
+
+            return lastModified;
+        }
+
+        public String getETag() {
+
+            return eTag;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.lang.String.format;
+
+/**
+ * A selection of the {@link User} fields that should be read and returned, for example {@code email,firstName} or
+ * {@code lastName,address.city}. Requesting {@code address} selects all of the address fields.
+ * <p/>
+ * The selection is turned into a {@code JPQL} projection of only the selected columns, the {@code address} table is
+ * only joined if an address field has been selected.
+ *
+ * @author Karl Bennett
+ */
+public class UserFields {
+
+    private static final String ADDRESS = "address";
+
+    private static final Map<String, String> COLUMNS = new LinkedHashMap<>();
+
+    static {
+        COLUMNS.put("id", "u.id");
+        COLUMNS.put("email", "u.email");
+        COLUMNS.put("firstName", "u.firstName");
+        COLUMNS.put("lastName", "u.lastName");
+        COLUMNS.put("phoneNumber", "u.phoneNumber");
+        COLUMNS.put("address.id", "a.id");
+        COLUMNS.put("address.number", "a.number");
+        COLUMNS.put("address.street", "a.street");
+        COLUMNS.put("address.suburb", "a.suburb");
+        COLUMNS.put("address.city", "a.city");
+        COLUMNS.put("address.postcode", "a.postcode");
+    }
+
+    // The ID and version are always selected so that the results can be paged through and given an ETag, the address
+    // ID is selected with any address fields so that a missing address can be told apart from an empty one.
+    private static final int USER_ID = 0;
+    private static final int VERSION = 1;
+    private static final int ADDRESS_ID = 2;
+
+    private final List<String> fields;
+
+    private final boolean addressSelected;
+
+    private final String select;
+
+    private final String from;
+
+    private UserFields(List<String> fields) {
+
+        this.fields = fields;
+        this.addressSelected = !fields.isEmpty() && fields.get(fields.size() - 1).startsWith(ADDRESS + ".");
+
+        final StringBuilder select = new StringBuilder("u.id, u.version");
+
+        if (addressSelected) {
+            select.append(", a.id");
+        }
+
+        for (String field : fields) {
+            select.append(", ").append(COLUMNS.get(field));
+        }
+
+        this.select = select.toString();
+        this.from = addressSelected ? "User u LEFT JOIN u.address a" : "User u";
+    }
+
+    /**
+     * @param fields a comma separated list of the field names.
+     * @return the selection of the named fields, they will be returned in the same order as the fields of a full user.
+     * @throws IllegalArgumentException if no fields are supplied or any of the fields are unknown.
+     */
+    public static UserFields parse(String fields) {
+
+        final Set<String> requested = new LinkedHashSet<>();
+
+        for (String field : fields.split(",")) {
+
+            final String trimmed = field.trim();
+
+            if (!trimmed.isEmpty()) {
+                requested.add(trimmed);
+            }
+        }
+
+        if (requested.isEmpty()) {
+            throw new IllegalArgumentException("At least one field must be requested.");
+        }
+
+        final List<String> selected = new ArrayList<>();
+
+        for (String field : COLUMNS.keySet()) {
+            if (requested.remove(field) || (field.startsWith(ADDRESS + ".") && requested.contains(ADDRESS))) {
+                selected.add(field);
+            }
+        }
+        requested.remove(ADDRESS);
+
+        if (!requested.isEmpty()) {
+            throw new IllegalArgumentException(format("The fields %s are not any of %s.", requested,
+                    Collections.unmodifiableSet(COLUMNS.keySet())));
+        }
+
+        return new UserFields(selected);
+    }
+
+    /**
+     * @return the {@code JPQL} select clause for these fields, the user is aliased as {@code u}.
+     */
+    String getSelect() {
+        return select;
+    }
+
+    /**
+     * @return the {@code JPQL} from clause for these fields, it only joins the address if an address field is selected.
+     */
+    String getFrom() {
+        return from;
+    }
+
+    /**
+     * @param row a row that was selected with the {@link #getSelect()} clause.
+     * @return the selected fields of the row.
+     */
+    PartialUser toPartialUser(Object[] row) {
+
+        final Map<String, Object> user = new LinkedHashMap<>();
+
+        int column = addressSelected ? ADDRESS_ID + 1 : ADDRESS_ID;
+
+        for (String field : fields) {
+
+            if (!field.startsWith(ADDRESS + ".")) {
+                user.put(field, row[column++]);
+                continue;
+            }
+
+            if (null == row[ADDRESS_ID]) {
+                user.put(ADDRESS, null);
+                break;
+            }
+
+            @SuppressWarnings("unchecked")
+            Map<String, Object> address = (Map<String, Object>) user.get(ADDRESS);
+
+            if (null == address) {
+                address = new LinkedHashMap<>();
+                user.put(ADDRESS, address);
+            }
+
+            address.put(field.substring(ADDRESS.length() + 1), row[column++]);
+        }
+
+        return new PartialUser((Long) row[USER_ID], (Long) row[VERSION], user);
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.lang.String.format;
+
+/**
+ * The conditions and order of a list of users, for example {@code city=Wellington} sorted by {@code lastName,-id}.
+ * <p/>
+ * The conditions are exact matches on columns that are indexed. The sort is a comma separated list of fields, each
+ * prefixed with a {@code -} to sort in descending order. The ID is always the last sort field, if it isn't requested it
+ * is added in ascending order, so the order is total and a page can start directly after any user. A missing address
+ * field sorts before any value.
+ *
+ * @author Karl Bennett
+ */
+public class UserFilter {
+
+    private static final String ID = "id";
+
+    private static final String DESCENDING = "-";
+
+    private static final Map<String, String> CONDITIONS = new LinkedHashMap<>();
+
+    private static final Map<String, String> SORTS = new LinkedHashMap<>();
+
+    static {
+        CONDITIONS.put("lastName", "u.lastName");
+        CONDITIONS.put("city", "a.city");
+        CONDITIONS.put("postcode", "a.postcode");
+        CONDITIONS.put("suburb", "a.suburb");
+
+        SORTS.put(ID, "u.id");
+        SORTS.put("email", "u.email");
+        SORTS.put("firstName", "u.firstName");
+        SORTS.put("lastName", "u.lastName");
+        SORTS.put("city", "a.city");
+        SORTS.put("postcode", "a.postcode");
+        SORTS.put("suburb", "a.suburb");
+    }
+
+    /**
+     * The names of the fields that can be filtered on.
+     */
+    public static final Set<String> FIELDS = Collections.unmodifiableSet(CONDITIONS.keySet());
+
+    private final Map<String, String> conditions;
+
+    private final List<String> sort;
+
+    private final List<Boolean> ascending;
+
+    private UserFilter(Map<String, String> conditions, List<String> sort, List<Boolean> ascending) {
+
+        this.conditions = conditions;
+        this.sort = sort;
+        this.ascending = ascending;
+    }
+
+    /**
+     * @param conditions the values that the fields must equal keyed by the field names, this can be empty.
+     * @param sort       a comma separated list of the fields to sort by, this can be null to sort by ID.
+     * @return the filter.
+     * @throws IllegalArgumentException if any of the fields are unknown or a field is sorted by more than once.
+     */
+    public static UserFilter parse(Map<String, String> conditions, String sort) {
+
+        final Set<String> unknown = new LinkedHashSet<>(conditions.keySet());
+        unknown.removeAll(CONDITIONS.keySet());
+
+        if (!unknown.isEmpty()) {
+            throw new IllegalArgumentException(format("The filters %s are not any of %s.", unknown, FIELDS));
+        }
+
+        final List<String> fields = new ArrayList<>();
+        final List<Boolean> ascending = new ArrayList<>();
+
+        for (String field : null == sort ? new String[0] : sort.split(",")) {
+
+            final String trimmed = field.trim();
+
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+
+            final boolean descending = trimmed.startsWith(DESCENDING);
+            final String name = descending ? trimmed.substring(DESCENDING.length()) : trimmed;
+
+            if (!SORTS.containsKey(name)) {
+                throw new IllegalArgumentException(format("The sort field (%s) is not any of %s.", name,
+                        Collections.unmodifiableSet(SORTS.keySet())));
+            }
+
+            if (fields.contains(name)) {
+                throw new IllegalArgumentException(format("The users can only be sorted by (%s) once.", name));
+            }
+
+            fields.add(name);
+            ascending.add(!descending);
+
+            // The ID is unique so there is nothing left for any later fields to order.
+            if (ID.equals(name)) {
+                break;
+            }
+        }
+
+        if (!fields.contains(ID)) {
+            fields.add(ID);
+            ascending.add(true);
+        }
+
+        return new UserFilter(new LinkedHashMap<>(conditions), fields, ascending);
+    }
+
+    /**
+     * @return true if there are no conditions and the users are sorted by ascending ID, this is the default order.
+     */
+    public boolean isEmpty() {
+        return conditions.isEmpty() && isSortedById();
+    }
+
+    /**
+     * @return true if the users are only sorted by ascending ID.
+     */
+    public boolean isSortedById() {
+        return 1 == sort.size() && ascending.get(0);
+    }
+
+    /**
+     * @return the {@code JPQL} from clause that selects the users for this filter, the address is joined if any of the
+     *         conditions or sort fields are address fields.
+     */
+    String getFrom(UserFields fields) {
+
+        // A condition on an address field can never match a user without an address, so the address can be inner
+        // joined which lets the database start from the address indexes instead of scanning every user.
+        if (isAddressFiltered()) {
+            return "User u JOIN u.address a";
+        }
+
+        if (isAddressSorted()) {
+            return "User u LEFT JOIN u.address a";
+        }
+
+        return null == fields ? "User u" : fields.getFrom();
+    }
+
+    /**
+     * @return the {@code JPQL} from clause that selects the users for this filter along with their addresses.
+     */
+    String getFetchFrom() {
+        return isAddressFiltered() ? "User u JOIN FETCH u.address a" : "User u LEFT JOIN FETCH u.address a";
+    }
+
+    private boolean isAddressFiltered() {
+
+        for (String field : conditions.keySet()) {
+            if (CONDITIONS.get(field).startsWith("a.")) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isAddressSorted() {
+
+        for (String field : sort) {
+            if (SORTS.get(field).startsWith("a.")) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the {@code JPQL} select clause of the sort fields, the user is aliased as {@code u} and the address as
+     *         {@code a}.
+     */
+    String getSortSelect() {
+
+        final StringBuilder select = new StringBuilder();
+
+        for (String field : sort) {
+            select.append(0 == select.length() ? "" : ", ").append(SORTS.get(field));
+        }
+
+        return select.toString();
+    }
+
+    /**
+     * Build the where and order by clauses of the filter.
+     *
+     * @param after      the sort values of the user that the users must come after, or null to start at the first.
+     * @param parameters the map that the values of the named parameters in the clauses are added to.
+     * @return the {@code JPQL} clauses.
+     */
+    String getClauses(List<?> after, Map<String, Object> parameters) {
+
+        final List<String> where = new ArrayList<>();
+
+        for (Map.Entry<String, String> condition : conditions.entrySet()) {
+
+            final String parameter = "filter_" + condition.getKey();
+
+            where.add(format("%s = :%s", CONDITIONS.get(condition.getKey()), parameter));
+            parameters.put(parameter, condition.getValue());
+        }
+
+        if (null != after) {
+            where.add(after(0, after, parameters));
+            bound(after, where);
+        }
+
+        final StringBuilder clauses = new StringBuilder();
+
+        for (String clause : where) {
+            clauses.append(clauses.length() == 0 ? "WHERE " : " AND ").append(clause);
+        }
+
+        clauses.append(" ORDER BY ");
+
+        for (int i = 0; i < sort.size(); i++) {
+
+            clauses.append(0 == i ? "" : ", ").append(SORTS.get(sort.get(i)))
+                    .append(ascending.get(i) ? " ASC" : " DESC");
+
+            // Make sure the missing addresses sort the same way in every database, the keyset depends on it.
+            if (isNullable(i)) {
+                clauses.append(ascending.get(i) ? " NULLS FIRST" : " NULLS LAST");
+            }
+        }
+
+        return clauses.toString();
+    }
+
+    /**
+     * @return the sort values of the supplied user in the same order as {@link #getSortSelect()}.
+     */
+    public List<Object> getSortValues(User user) {
+
+        final Address address = user.getAddress();
+
+        final List<Object> values = new ArrayList<>(sort.size());
+
+        for (String field : sort) {
+            switch (field) {
+                case ID:
+                    values.add(user.getId());
+                    break;
+                case "email":
+                    values.add(user.getEmail());
+                    break;
+                case "firstName":
+                    values.add(user.getFirstName());
+                    break;
+                case "lastName":
+                    values.add(user.getLastName());
+                    break;
+                case "city":
+                    values.add(null == address ? null : address.getCity());
+                    break;
+                case "postcode":
+                    values.add(null == address ? null : address.getPostcode());
+                    break;
+                case "suburb":
+                    values.add(null == address ? null : address.getSuburb());
+                    break;
+                default:
+                    throw new IllegalStateException(
+                            format("The value of the sort field (%s) can't be read from a user.", field));
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * @return a comparator that orders users the same way as the database does for this filter.
+     */
+    public Comparator<User> comparator() {
+
+        return new Comparator<User>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public int compare(User left, User right) {
+
+                final List<Object> leftValues = getSortValues(left);
+                final List<Object> rightValues = getSortValues(right);
+
+                for (int i = 0; i < sort.size(); i++) {
+
+                    final Comparable<Object> leftValue = (Comparable<Object>) leftValues.get(i);
+                    final Object rightValue = rightValues.get(i);
+
+                    final int compared;
+                    if (null == leftValue) {
+                        compared = null == rightValue ? 0 : -1;
+                    } else {
+                        compared = null == rightValue ? 1 : leftValue.compareTo(rightValue);
+                    }
+
+                    if (0 != compared) {
+                        return ascending.get(i) ? compared : -compared;
+                    }
+                }
+
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * Build the keyset condition that selects the users that come after the supplied sort values from the sort field at
+     * the supplied index onwards. A missing address field is treated as lower than any value.
+     */
+    private String after(int index, List<?> after, Map<String, Object> parameters) {
+
+        final String column = SORTS.get(sort.get(index));
+        final Object value = after.get(index);
+        final String parameter = "after_" + index;
+
+        if (null != value) {
+            parameters.put(parameter, value);
+        }
+
+        final String greater;
+        if (ascending.get(index)) {
+            greater = null == value ? format("%s IS NOT NULL", column) : format("%s > :%s", column, parameter);
+        } else if (null == value) {
+            greater = null;
+        } else {
+            greater = isNullable(index)
+                    ? format("(%s < :%s OR %s IS NULL)", column, parameter, column)
+                    : format("%s < :%s", column, parameter);
+        }
+
+        if (index == sort.size() - 1) {
+            return null == greater ? "1 = 0" : greater;
+        }
+
+        final String equal = null == value ? format("%s IS NULL", column) : format("%s = :%s", column, parameter);
+        final String rest = format("%s AND %s", equal, after(index + 1, after, parameters));
+
+        return null == greater ? format("(%s)", rest) : format("(%s OR (%s))", greater, rest);
+    }
+
+    /**
+     * Add a bound on the first sort field to the keyset condition when it doesn't change the result. The keyset
+     * condition is a disjunction that the database can't use to seek into an index, with the bound it can start the
+     * page at the right place in the index instead of reading every user before it.
+     */
+    private void bound(List<?> after, List<String> where) {
+
+        // In descending order the missing address fields come last, so they would be excluded by the bound.
+        if (1 < sort.size() && null != after.get(0) && (ascending.get(0) || !isNullable(0))) {
+            where.add(format("%s %s :after_0", SORTS.get(sort.get(0)), ascending.get(0) ? ">=" : "<="));
+        }
+    }
+
+    private boolean isNullable(int index) {
+        return SORTS.get(sort.get(index)).startsWith("a.");
+    }
+}
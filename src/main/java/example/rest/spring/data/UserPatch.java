@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.data;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.String.format;
+
+/**
+ * The changes described by a {@code JSON} Merge Patch (RFC 7386) of a {@link User}. A field that is in the patch is
+ * set to the patched value, a field that is patched to null is cleared and any field that isn't in the patch is left
+ * alone. The address is only changed if the patch contains an {@code address}, patching the address to null removes
+ * it.
+ * <p/>
+ * The {@code id} is ignored just like it is for a full update.
+ *
+ * @author Karl Bennett
+ */
+public class UserPatch {
+
+    private static final List<String> USER_FIELDS = Arrays.asList("email", "firstName", "lastName", "phoneNumber");
+
+    private static final List<String> ADDRESS_FIELDS = Arrays.asList("number", "street", "suburb", "city", "postcode");
+
+    private static final String ADDRESS = "address";
+
+    private final Map<String, Object> user;
+
+    private final Map<String, Object> address;
+
+    private final boolean removeAddress;
+
+    private UserPatch(Map<String, Object> user, Map<String, Object> address, boolean removeAddress) {
+        this.user = user;
+        this.address = address;
+        this.removeAddress = removeAddress;
+    }
+
+    /**
+     * @param patch the merge patch.
+     * @return the changes described by the merge patch.
+     * @throws IllegalArgumentException if the patch isn't an object, contains an unknown field or a field has a value
+     *                                  of the wrong type.
+     */
+    public static UserPatch parse(JsonNode patch) {
+
+        if (null == patch || !patch.isObject()) {
+            throw new IllegalArgumentException("A user merge patch must be a JSON object.");
+        }
+
+        final Map<String, Object> user = new LinkedHashMap<>();
+        Map<String, Object> address = null;
+        boolean removeAddress = false;
+
+        for (Iterator<Map.Entry<String, JsonNode>> fields = patch.fields(); fields.hasNext(); ) {
+
+            final Map.Entry<String, JsonNode> field = fields.next();
+            final String name = field.getKey();
+            final JsonNode value = field.getValue();
+
+            if ("id".equals(name)) {
+                continue;
+            }
+
+            if (USER_FIELDS.contains(name)) {
+                user.put(name, text(name, value));
+                continue;
+            }
+
+            if (!ADDRESS.equals(name)) {
+                throw unknown(name, USER_FIELDS);
+            }
+
+            if (value.isNull()) {
+                removeAddress = true;
+                continue;
+            }
+
+            if (!value.isObject()) {
+                throw new IllegalArgumentException("The address in a user merge patch must be a JSON object or null.");
+            }
+
+            address = parseAddress(value);
+        }
+
+        return new UserPatch(user, address, removeAddress);
+    }
+
+    private static Map<String, Object> parseAddress(JsonNode patch) {
+
+        final Map<String, Object> address = new LinkedHashMap<>();
+
+        for (Iterator<Map.Entry<String, JsonNode>> fields = patch.fields(); fields.hasNext(); ) {
+
+            final Map.Entry<String, JsonNode> field = fields.next();
+            final String name = field.getKey();
+            final JsonNode value = field.getValue();
+
+            if ("id".equals(name)) {
+                continue;
+            }
+
+            if (!ADDRESS_FIELDS.contains(name)) {
+                throw unknown(ADDRESS + "." + name, ADDRESS_FIELDS);
+            }
+
+            if ("number".equals(name)) {
+
+                if (!value.isNull() && !(value.isIntegralNumber() && value.canConvertToInt())) {
+                    throw new IllegalArgumentException("The address number must be an integer or null.");
+                }
+
+                address.put(name, value.isNull() ? null : value.intValue());
+                continue;
+            }
+
+            address.put(name, text(ADDRESS + "." + name, value));
+        }
+
+        return address;
+    }
+
+    private static String text(String name, JsonNode value) {
+
+        if (!value.isNull() && !value.isTextual()) {
+            throw new IllegalArgumentException(format("The field (%s) must be a string or null.", name));
+        }
+
+        return value.isNull() ? null : value.textValue();
+    }
+
+    private static IllegalArgumentException unknown(String name, List<String> fields) {
+
+        return new IllegalArgumentException(format("The field (%s) is not any of %s.", name, fields));
+    }
+
+    /**
+     * @return the patched values of the users own fields keyed by the field name, this can be empty.
+     */
+    public Map<String, Object> getUser() {
+        return Collections.unmodifiableMap(user);
+    }
+
+    /**
+     * @return the patched values of the address fields keyed by the field name, or null if the address isn't patched.
+     */
+    public Map<String, Object> getAddress() {
+        return null == address ? null : Collections.unmodifiableMap(address);
+    }
+
+    /**
+     * @return true if the address should be removed from the user.
+     */
+    public boolean isRemoveAddress() {
+        return removeAddress;
+    }
+}
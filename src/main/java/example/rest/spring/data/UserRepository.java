@@ -16,13 +16,66 @@
 
 package example.rest.spring.data;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
 
 /**
  * A CRUD repository for the {@link User} class. It extends from the Spring Data {@link CrudRepository} which means it's
- * implementation will be generated on application start.
+ * implementation will be generated on application start. The operations in {@link UserRepositoryCustom} are
+ * implemented by hand in {@link UserRepositoryImpl}.
  *
  * @author Karl Bennett
  */
-public interface UserRepository extends CrudRepository<User, Long> {
+public interface UserRepository extends CrudRepository<User, Long>, UserRepositoryCustom {
+
+    /**
+     * Retrieve the first page of users ordered by their ID, their addresses are fetched in the same query.
+     *
+     * @param pageable the page request, only the page size is relevant since the offset should always be zero.
+     * @return the users with the lowest IDs.
+     */
+    @Transactional(readOnly = true)
+    @EntityGraph(attributePaths = "address")
+    List<User> findAllByOrderByIdAsc(Pageable pageable);
+
+    /**
+     * Retrieve the page of users that directly follow the supplied ID. This is a keyset query so it will always be an
+     * index seek on the primary key no matter how deep into the users the page is. The addresses are fetched in the
+     * same query.
+     *
+     * @param id       the ID of the last user in the previous page.
+     * @param pageable the page request, only the page size is relevant since the offset should always be zero.
+     * @return the users with the next highest IDs.
+     */
+    @Transactional(readOnly = true)
+    @EntityGraph(attributePaths = "address")
+    List<User> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+    /**
+     * Retrieve all the users with the supplied ID's in a single query, their addresses are fetched in the same query.
+     *
+     * @param ids the ID's of the users to retrieve.
+     * @return the users that exist, in no particular order.
+     * @see UserCache#isLoading() this fills the user cache, so with the "replica" profile it is only read from a
+     *      replica that has every change.
+     */
+    @Transactional(readOnly = true)
+    @Query("SELECT u FROM User u LEFT JOIN FETCH u.address WHERE u.id IN :ids")
+    List<User> findByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Retrieve just the version of a user, this is enough to check an {@code ETag} without loading the user.
+     *
+     * @param id the ID of the user.
+     * @return the version of the user, or null if the user doesn't exist.
+     */
+    @Query("SELECT u.version FROM User u WHERE u.id = :id")
+    Long findVersionById(@Param("id") Long id);
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.data;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The {@link UserRepository} operations that can't be generated by Spring Data. The updates and deletes are written
+ * directly as bulk statements so that they can tell whether the user exists from the number of rows they change,
+ * instead of having to load the user first. The partial reads select only the requested columns so no entities are
+ * loaded at all, and the export reads the users through a cursor so they never all have to be held in memory.
+ *
+ * @author Karl Bennett
+ */
+public interface UserRepositoryCustom {
+
+    /**
+     * Update the user with the ID of the supplied user so that it matches the supplied user. The user's address is
+     * updated in place, or created if the user didn't have one, or deleted if the supplied user doesn't have one.
+     * <p/>
+     * The users version is incremented by the update, if a version is supplied then the user is only updated if it is
+     * still at that version.
+     *
+     * @param user    the new state of the user.
+     * @param version the version the user must be at to be updated, or null if the user should always be updated.
+     * @return the version the user has been updated to, or null if no user exists with the supplied users ID.
+     * @throws org.springframework.dao.OptimisticLockingFailureException
+     *          if the user exists but is not at the supplied version.
+     */
+    Long update(User user, Long version);
+
+    /**
+     * Apply a merge patch to the user with the supplied ID. Only the patched columns are updated, and the address is
+     * only touched if the patch contains an address. If the user doesn't have an address then patching the address
+     * creates one.
+     * <p/>
+     * Just like a full update the users version is incremented, and if a version is supplied then the user is only
+     * patched if it is still at that version. The patched user is read back within the same transaction so that
+     * anything that holds the users fields can be given the whole of the user at exactly the patched version.
+     *
+     * @param id      the ID of the user to patch.
+     * @param patch   the changes to make to the user.
+     * @param version the version the user must be at to be patched, or null if the user should always be patched.
+     * @return the patched user, or null if no user exists with the supplied ID.
+     * @throws org.springframework.dao.OptimisticLockingFailureException
+     *          if the user exists but is not at the supplied version.
+     */
+    User patch(Long id, UserPatch patch, Long version);
+
+    /**
+     * Delete the user with the supplied ID along with it's address.
+     *
+     * @param id the ID of the user to delete.
+     * @return false if no user exists with the supplied ID.
+     */
+    boolean remove(Long id);
+
+    /**
+     * Delete every user along with their addresses. This is done with two bulk statements so none of the users are ever
+     * loaded, the users are deleted first and then any addresses that no longer have a user.
+     *
+     * @return the number of users that were deleted.
+     */
+    int removeAll();
+
+    /**
+     * Read only the supplied fields of the user with the supplied ID.
+     *
+     * @param id     the ID of the user to read.
+     * @param fields the fields to read.
+     * @return the partial user, or null if no user exists with the supplied ID.
+     */
+    PartialUser findPartial(Long id, UserFields fields);
+
+    /**
+     * Read only the supplied fields of a page of users in ID order.
+     *
+     * @param after  the ID of the last user in the previous page, or null for the first page.
+     * @param limit  the maximum number of users to read.
+     * @param fields the fields to read.
+     * @return the partial users.
+     */
+    List<PartialUser> findPartialPage(Long after, int limit, UserFields fields);
+
+    /**
+     * Read only the supplied fields of all the users with the supplied ID's.
+     *
+     * @param ids    the ID's of the users to read.
+     * @param fields the fields to read.
+     * @return the partial users that exist in no particular order.
+     */
+    List<PartialUser> findPartialByIdIn(Collection<Long> ids, UserFields fields);
+
+    /**
+     * Read the values of the filter's sort fields for the user with the supplied ID, these are where the next page of
+     * the filtered users starts.
+     *
+     * @param id     the ID of the user.
+     * @param filter the filter that defines the sort fields.
+     * @return the sort values, or null if no user exists with the supplied ID.
+     */
+    List<Object> findSortValues(Long id, UserFilter filter);
+
+    /**
+     * Read a page of the users that match the filter in the filter's order, their addresses are fetched in the same
+     * query. This is a keyset query so with an index on the sort fields it is a seek however deep the page is.
+     *
+     * @param filter the conditions and order of the users.
+     * @param after  the sort values of the last user in the previous page, or null for the first page.
+     * @param limit  the maximum number of users to read.
+     * @return the users.
+     */
+    List<User> findFilteredPage(UserFilter filter, List<?> after, int limit);
+
+    /**
+     * Read only the supplied fields of a page of the users that match the filter in the filter's order.
+     *
+     * @param filter the conditions and order of the users.
+     * @param after  the sort values of the last user in the previous page, or null for the first page.
+     * @param limit  the maximum number of users to read.
+     * @param fields the fields to read.
+     * @return the partial users.
+     */
+    List<PartialUser> findPartialFilteredPage(UserFilter filter, List<?> after, int limit, UserFields fields);
+
+    /**
+     * Read every user in ID order along with their address through a forward only cursor. The persistence context is
+     * cleared after each fetch, so however many users there are only one fetch of them is ever held in memory.
+     *
+     * @param fetchSize the number of rows the database should send at a time.
+     * @param visitor   the visitor that is given each user, if it throws then the export stops.
+     * @return the number of users that were visited.
+     * @throws IOException if the visitor fails to write out a user.
+     */
+    long export(int fetchSize, Visitor visitor) throws IOException;
+
+    /**
+     * Is given each user in turn by {@link #export}.
+     */
+    interface Visitor {
+
+        /**
+         * @param user the next user, it will be detached once the current fetch has been visited.
+         * @throws IOException if the user can not be written out.
+         */
+        void visit(User user) throws IOException;
+    }
+}
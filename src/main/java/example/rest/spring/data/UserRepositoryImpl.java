@@ -0,0 +1,458 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.data;
+
+import org.hibernate.CacheMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.String.format;
+
+/**
+ * The implementation of {@link UserRepositoryCustom}, Spring Data finds it by it's name and merges it into the
+ * generated {@link UserRepository}.
+ *
+ * @author Karl Bennett
+ */
+public class UserRepositoryImpl implements UserRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Override
+    @Transactional
+    public Long update(User user, Long version) {
+
+        final Long id = user.getId();
+        final Address address = user.getAddress();
+
+        if (null == address) {
+            return updateAndRemoveAddress(user, version);
+        }
+
+        if (0 == updateUser(user, version, false)) {
+            return notUpdated(id, version);
+        }
+
+        final int addressUpdated = entityManager.createQuery("UPDATE Address a SET a.version = a.version + 1, " +
+                "a.number = :number, a.street = :street, a.suburb = :suburb, a.city = :city, a.postcode = :postcode " +
+                "WHERE a.id = (SELECT u.address.id FROM User u WHERE u.id = :id)")
+                .setParameter("number", address.getNumber())
+                .setParameter("street", address.getStreet())
+                .setParameter("suburb", address.getSuburb())
+                .setParameter("city", address.getCity())
+                .setParameter("postcode", address.getPostcode())
+                .setParameter("id", id)
+                .executeUpdate();
+
+        if (0 == addressUpdated) {
+            addAddress(id, address);
+        }
+
+        return findVersion(id);
+    }
+
+    @Override
+    @Transactional
+    public User patch(Long id, UserPatch patch, Long version) {
+
+        if (patch.isRemoveAddress()) {
+
+            final List<Long> addressIds = findAddressId(id);
+
+            if (addressIds.isEmpty()) {
+                return null;
+            }
+
+            if (0 == patchUser(id, patch.getUser(), version, true)) {
+                return notUpdated(id, version);
+            }
+
+            removeAddress(addressIds.get(0));
+
+            return findPatched(id);
+        }
+
+        if (0 == patchUser(id, patch.getUser(), version, false)) {
+            return notUpdated(id, version);
+        }
+
+        final Map<String, Object> address = patch.getAddress();
+
+        if (null == address || address.isEmpty()) {
+            return findPatched(id);
+        }
+
+        final int addressPatched = setParameters(entityManager.createQuery(
+                "UPDATE Address a SET a.version = a.version + 1" + assignments("a", address) +
+                        " WHERE a.id = (SELECT u.address.id FROM User u WHERE u.id = :id)"), address)
+                .setParameter("id", id)
+                .executeUpdate();
+
+        if (0 == addressPatched) {
+            addAddress(id, new Address((Integer) address.get("number"), (String) address.get("street"),
+                    (String) address.get("suburb"), (String) address.get("city"), (String) address.get("postcode")));
+        }
+
+        return findPatched(id);
+    }
+
+    @Override
+    @Transactional
+    public boolean remove(Long id) {
+
+        final List<Long> addressIds = findAddressId(id);
+
+        if (addressIds.isEmpty()) {
+            return false;
+        }
+
+        entityManager.createQuery("DELETE FROM User u WHERE u.id = :id").setParameter("id", id).executeUpdate();
+
+        removeAddress(addressIds.get(0));
+
+        return true;
+    }
+
+    @Override
+    public int removeAll() {
+
+        // The users must be committed as deleted before the addresses are deleted. H2 checks that each deleted address
+        // isn't referenced by a user and that check has to step over every uncommitted deleted user, so deleting both
+        // in one transaction takes time proportional to the square of the number of users.
+        final int removed = execute("DELETE FROM User u");
+
+        // Only the orphaned addresses are deleted so the address of a user that was created in between is left alone,
+        // and if this fails the orphans will just be deleted by the next call.
+        execute("DELETE FROM Address a WHERE NOT EXISTS (SELECT u.id FROM User u WHERE u.address = a)");
+
+        return removed;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public PartialUser findPartial(Long id, UserFields fields) {
+
+        final List<PartialUser> users = toPartialUsers(fields,
+                selectPartial(fields, "WHERE u.id = :id").setParameter("id", id).getResultList());
+
+        return users.isEmpty() ? null : users.get(0);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<PartialUser> findPartialPage(Long after, int limit, UserFields fields) {
+
+        final TypedQuery<Object[]> query = null == after
+                ? selectPartial(fields, "ORDER BY u.id")
+                : selectPartial(fields, "WHERE u.id > :after ORDER BY u.id").setParameter("after", after);
+
+        return toPartialUsers(fields, query.setMaxResults(limit).getResultList());
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<PartialUser> findPartialByIdIn(Collection<Long> ids, UserFields fields) {
+
+        return toPartialUsers(fields, selectPartial(fields, "WHERE u.id IN :ids").setParameter("ids", ids)
+                .getResultList());
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Object> findSortValues(Long id, UserFilter filter) {
+
+        // The ID is selected first so that there are always at least two columns and each row is an array.
+        final List<Object[]> rows = entityManager.createQuery(
+                format("SELECT u.id, %s FROM User u LEFT JOIN u.address a WHERE u.id = :id", filter.getSortSelect()),
+                Object[].class)
+                .setParameter("id", id)
+                .getResultList();
+
+        return rows.isEmpty() ? null : Arrays.asList(rows.get(0)).subList(1, rows.get(0).length);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<User> findFilteredPage(UserFilter filter, List<?> after, int limit) {
+
+        final Map<String, Object> parameters = new HashMap<>();
+        final String clauses = filter.getClauses(after, parameters);
+
+        return setParameters(entityManager.createQuery(
+                format("SELECT u FROM %s %s", filter.getFetchFrom(), clauses), User.class), parameters)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<PartialUser> findPartialFilteredPage(UserFilter filter, List<?> after, int limit, UserFields fields) {
+
+        final Map<String, Object> parameters = new HashMap<>();
+        final String clauses = filter.getClauses(after, parameters);
+
+        return toPartialUsers(fields, setParameters(entityManager.createQuery(
+                format("SELECT %s FROM %s %s", fields.getSelect(), filter.getFrom(fields), clauses), Object[].class),
+                parameters)
+                .setMaxResults(limit)
+                .getResultList());
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public long export(int fetchSize, Visitor visitor) throws IOException {
+
+        final Session session = entityManager.unwrap(Session.class);
+
+        final ScrollableResults users = session
+                .createQuery("SELECT u FROM User u LEFT JOIN FETCH u.address ORDER BY u.id")
+                .setFetchSize(fetchSize)
+                .setReadOnly(true)
+                .setCacheMode(CacheMode.IGNORE)
+                .scroll(ScrollMode.FORWARD_ONLY);
+
+        long count = 0;
+        try {
+            while (users.next()) {
+
+                visitor.visit((User) users.get(0));
+
+                if (0 == ++count % fetchSize) {
+                    session.clear();
+                }
+            }
+        } finally {
+            users.close();
+        }
+
+        return count;
+    }
+
+    private TypedQuery<Object[]> selectPartial(UserFields fields, String clauses) {
+
+        return entityManager.createQuery(
+                format("SELECT %s FROM %s %s", fields.getSelect(), fields.getFrom(), clauses), Object[].class);
+    }
+
+    private static List<PartialUser> toPartialUsers(UserFields fields, List<Object[]> rows) {
+
+        final List<PartialUser> users = new ArrayList<>(rows.size());
+
+        for (Object[] row : rows) {
+            users.add(fields.toPartialUser(row));
+        }
+
+        return users;
+    }
+
+    private Long updateAndRemoveAddress(User user, Long version) {
+
+        // The user holds the foreign key to it's address so the ID of the address has to be read before it's removed
+        // from the user, otherwise there would be no way to find the orphaned address.
+        final List<Long> addressIds = findAddressId(user.getId());
+
+        if (addressIds.isEmpty()) {
+            return null;
+        }
+
+        if (0 == updateUser(user, version, true)) {
+            return notUpdated(user.getId(), version);
+        }
+
+        removeAddress(addressIds.get(0));
+
+        return findVersion(user.getId());
+    }
+
+    /**
+     * Update the users own columns and increment it's version with a single statement, the version is only checked
+     * within the statement so the user never has to be read first.
+     */
+    private int updateUser(User user, Long version, boolean removeAddress) {
+
+        final Query query = entityManager.createQuery("UPDATE User u SET u.version = u.version + 1, " +
+                "u.email = :email, u.firstName = :firstName, u.lastName = :lastName, u.phoneNumber = :phoneNumber" +
+                (removeAddress ? ", u.address = NULL" : "") +
+                " WHERE u.id = :id" +
+                (null == version ? "" : " AND u.version = :version"))
+                .setParameter("email", user.getEmail())
+                .setParameter("firstName", user.getFirstName())
+                .setParameter("lastName", user.getLastName())
+                .setParameter("phoneNumber", user.getPhoneNumber())
+                .setParameter("id", user.getId());
+
+        if (null != version) {
+            query.setParameter("version", version);
+        }
+
+        return query.executeUpdate();
+    }
+
+    /**
+     * Update only the patched columns of the user, the version is always incremented even if no columns are patched.
+     */
+    private int patchUser(Long id, Map<String, Object> fields, Long version, boolean removeAddress) {
+
+        final Query query = setParameters(entityManager.createQuery("UPDATE User u SET u.version = u.version + 1" +
+                assignments("u", fields) +
+                (removeAddress ? ", u.address = NULL" : "") +
+                " WHERE u.id = :id" +
+                (null == version ? "" : " AND u.version = :version")), fields)
+                .setParameter("id", id);
+
+        if (null != version) {
+            query.setParameter("version", version);
+        }
+
+        return query.executeUpdate();
+    }
+
+    /**
+     * @return an assignment for each of the fields, the field names have already been checked by {@link UserPatch} so
+     *         they are safe to use in the statement.
+     */
+    private static String assignments(String alias, Map<String, Object> fields) {
+
+        final StringBuilder assignments = new StringBuilder();
+
+        for (String field : fields.keySet()) {
+            assignments.append(format(", %s.%s = :%s", alias, field, field));
+        }
+
+        return assignments.toString();
+    }
+
+    private static <Q extends Query> Q setParameters(Q query, Map<String, Object> fields) {
+
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            query.setParameter(field.getKey(), field.getValue());
+        }
+
+        return query;
+    }
+
+    /**
+     * Nothing was updated so either the user doesn't exist or it wasn't at the required version. The existence check
+     * is only made on this failure path.
+     */
+    private <T> T notUpdated(Long id, Long version) {
+
+        if (null != version && !findAddressId(id).isEmpty()) {
+            throw new OptimisticLockingFailureException(
+                    format("The user with the ID (%d) is not at the version (%d).", id, version));
+        }
+
+        return null;
+    }
+
+    private void addAddress(Long userId, Address address) {
+
+        final Address newAddress = new Address(address);
+        newAddress.setId(null);
+
+        entityManager.persist(newAddress);
+        entityManager.flush();
+
+        entityManager.createQuery("UPDATE User u SET u.address = :address WHERE u.id = :id")
+                .setParameter("address", newAddress)
+                .setParameter("id", userId)
+                .executeUpdate();
+    }
+
+    private void removeAddress(Long addressId) {
+
+        if (null == addressId) {
+            return;
+        }
+
+        entityManager.createQuery("DELETE FROM Address a WHERE a.id = :id").setParameter("id", addressId)
+                .executeUpdate();
+    }
+
+    private int execute(final String statement) {
+
+        return transactionTemplate.execute(new TransactionCallback<Integer>() {
+
+            @Override
+            public Integer doInTransaction(TransactionStatus status) {
+
+                return entityManager.createQuery(statement).executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * @return the version of the user as it has been changed by this transaction.
+     */
+    private Long findVersion(Long id) {
+
+        return entityManager.createQuery("SELECT u.version FROM User u WHERE u.id = :id", Long.class)
+                .setParameter("id", id)
+                .getSingleResult();
+    }
+
+    /**
+     * @return the user as it has been patched by this transaction. The bulk statements bypass the persistence context
+     *         so the user must not have been loaded by the transaction before it was patched.
+     */
+    private User findPatched(Long id) {
+
+        return entityManager.createQuery("SELECT u FROM User u LEFT JOIN FETCH u.address WHERE u.id = :id", User.class)
+                .setParameter("id", id)
+                .getSingleResult();
+    }
+
+    /**
+     * @return an empty list if the user doesn't exist, otherwise a list containing the ID of the users address which
+     * will be null if the user doesn't have an address.
+     */
+    private List<Long> findAddressId(Long userId) {
+
+        return entityManager.createQuery("SELECT u.address.id FROM User u WHERE u.id = :id", Long.class)
+                .setParameter("id", userId)
+                .getResultList();
+    }
+}
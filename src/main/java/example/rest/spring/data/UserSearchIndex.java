@@ -0,0 +1,382 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.data;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory index of the emails and names of the users that can be searched by prefix or substring without reading
+ * the database.
+ * <p/>
+ * Every field value is indexed by it's trigrams, a search term of three or more characters is looked up by the trigram
+ * of it that matches the fewest users and then each of those users is checked for the whole term. A shorter term is
+ * looked up in a sorted map of the whole field values, so it only matches the start of a field. The matches are ranked
+ * with an exact match above a prefix match above a substring match.
+ * <p/>
+ * The index is one of the {@link UserViews} so it is built when the application starts and then kept up to date by
+ * every change. Searches are lock free, the updates are serialised so that each user's trigrams are always consistent
+ * with it's fields.
+ *
+ * @author Karl Bennett
+ */
+@Component
+public class UserSearchIndex implements UserView {
+
+    static final int GRAM_LENGTH = 3;
+
+    private static final int EXACT = 3;
+
+    private static final int PREFIX = 2;
+
+    private static final int SUBSTRING = 1;
+
+    private static final Comparator<Match> WORST_FIRST = new Comparator<Match>() {
+        @Override
+        public int compare(Match left, Match right) {
+
+            if (left.score != right.score) {
+                return left.score < right.score ? -1 : 1;
+            }
+
+            // The lower ID is the better match when the scores are the same.
+            return right.id.compareTo(left.id);
+        }
+    };
+
+    private final ConcurrentMap<Long, Entry> entries = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Set<Long>> grams = new ConcurrentHashMap<>();
+
+    private final ConcurrentNavigableMap<String, Set<Long>> values = new ConcurrentSkipListMap<>();
+
+    private final AtomicLong searches = new AtomicLong();
+
+    /**
+     * Index the supplied user, replacing any fields that were indexed for it before.
+     *
+     * @param user a user that has been persisted.
+     */
+    @Override
+    public synchronized void put(User user) {
+
+        put(user.getId(), new Entry(user.getEmail(), user.getFirstName(), user.getLastName()));
+    }
+
+    @Override
+    public synchronized void remove(Long id) {
+
+        unindex(id);
+    }
+
+    @Override
+    public synchronized void clear() {
+
+        discard();
+    }
+
+    /**
+     * Find the users whose email, first name or last name matches every whitespace separated term in the query.
+     *
+     * @param query the terms to search for, they are not case sensitive.
+     * @param limit the maximum number of users to return.
+     * @return the ID's of the best matching users, best first.
+     */
+    public List<Long> search(String query, int limit) {
+
+        searches.incrementAndGet();
+
+        final String[] terms = normalise(query).split("\\s+");
+
+        final Collection<Long> candidates = candidates(terms);
+
+        final PriorityQueue<Match> best = new PriorityQueue<>(Math.max(1, limit), WORST_FIRST);
+
+        for (Long id : candidates) {
+
+            final Entry entry = entries.get(id);
+
+            // The user may have been removed since the candidates were looked up.
+            if (null == entry) {
+                continue;
+            }
+
+            final int score = entry.score(terms);
+
+            if (0 == score) {
+                continue;
+            }
+
+            best.add(new Match(id, score));
+
+            if (limit < best.size()) {
+                best.poll();
+            }
+        }
+
+        final List<Long> ids = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            ids.add(best.poll().id);
+        }
+        Collections.reverse(ids);
+
+        return ids;
+    }
+
+    public Map<String, Object> getStatistics() {
+
+        final Map<String, Object> statistics = new LinkedHashMap<>();
+
+        statistics.put("size", entries.size());
+        statistics.put("trigramCount", grams.size());
+        statistics.put("searchCount", searches.get());
+
+        return statistics;
+    }
+
+    private void put(Long id, Entry entry) {
+
+        unindex(id);
+
+        entries.put(id, entry);
+
+        for (String value : entry.values()) {
+
+            for (String gram : grams(value)) {
+                addPosting(grams, gram, id);
+            }
+
+            addPosting(values, value, id);
+        }
+    }
+
+    private void unindex(Long id) {
+
+        final Entry entry = entries.remove(id);
+
+        if (null == entry) {
+            return;
+        }
+
+        for (String value : entry.values()) {
+
+            for (String gram : grams(value)) {
+                removePosting(grams, gram, id);
+            }
+
+            removePosting(values, value, id);
+        }
+    }
+
+    private void discard() {
+
+        entries.clear();
+        grams.clear();
+        values.clear();
+    }
+
+    /**
+     * @return the users that could match every term, which is the smallest set of users that could match any one term.
+     */
+    private Collection<Long> candidates(String[] terms) {
+
+        Collection<Long> smallest = null;
+
+        for (String term : terms) {
+
+            final Collection<Long> candidates = candidates(term);
+
+            if (null == smallest || candidates.size() < smallest.size()) {
+                smallest = candidates;
+            }
+        }
+
+        return null == smallest ? Collections.<Long>emptySet() : smallest;
+    }
+
+    private Collection<Long> candidates(String term) {
+
+        if (term.length() < GRAM_LENGTH) {
+
+            final Set<Long> candidates = new HashSet<>();
+            for (Set<Long> ids : values.subMap(term, true, term + Character.MAX_VALUE, true).values()) {
+                candidates.addAll(ids);
+            }
+
+            return candidates;
+        }
+
+        Collection<Long> smallest = null;
+
+        for (String gram : grams(term)) {
+
+            final Set<Long> ids = grams.get(gram);
+
+            // No user has this trigram so no user can contain the term.
+            if (null == ids) {
+                return Collections.emptySet();
+            }
+
+            if (null == smallest || ids.size() < smallest.size()) {
+                smallest = ids;
+            }
+        }
+
+        return null == smallest ? Collections.<Long>emptySet() : smallest;
+    }
+
+    private static Set<String> grams(String value) {
+
+        final Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM_LENGTH <= value.length(); i++) {
+            grams.add(value.substring(i, i + GRAM_LENGTH));
+        }
+
+        return grams;
+    }
+
+    private static void addPosting(ConcurrentMap<String, Set<Long>> postings, String key, Long id) {
+
+        Set<Long> ids = postings.get(key);
+
+        if (null == ids) {
+            ids = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+            postings.put(key, ids);
+        }
+
+        ids.add(id);
+    }
+
+    private static void removePosting(ConcurrentMap<String, Set<Long>> postings, String key, Long id) {
+
+        final Set<Long> ids = postings.get(key);
+
+        if (null == ids) {
+            return;
+        }
+
+        ids.remove(id);
+
+        if (ids.isEmpty()) {
+            postings.remove(key);
+        }
+    }
+
+    private static String normalise(String value) {
+
+        return null == value ? null : value.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * The indexed fields of a single user, normalised the same way as the search terms.
+     */
+    private static class Entry {
+
+        private final String email;
+
+        private final String firstName;
+
+        private final String lastName;
+
+        private Entry(String email, String firstName, String lastName) {
+
+            this.email = normalise(email);
+            this.firstName = normalise(firstName);
+            this.lastName = normalise(lastName);
+        }
+
+        private Set<String> values() {
+
+            final Set<String> values = new HashSet<>();
+
+            for (String value : new String[]{email, firstName, lastName}) {
+                if (null != value && !value.isEmpty()) {
+                    values.add(value);
+                }
+            }
+
+            return values;
+        }
+
+        /**
+         * @return the sum of the best score of each term, or zero if any term doesn't match.
+         */
+        private int score(String[] terms) {
+
+            int total = 0;
+
+            for (String term : terms) {
+
+                final int score = Math.max(score(email, term), Math.max(score(firstName, term), score(lastName, term)));
+
+                if (0 == score) {
+                    return 0;
+                }
+
+                total += score;
+            }
+
+            return total;
+        }
+
+        private static int score(String value, String term) {
+
+            if (null == value) {
+                return 0;
+            }
+
+            if (value.equals(term)) {
+                return EXACT;
+            }
+
+            if (value.startsWith(term)) {
+                return PREFIX;
+            }
+
+            return GRAM_LENGTH <= term.length() && value.contains(term) ? SUBSTRING : 0;
+        }
+    }
+
+    private static class Match {
+
+        private final Long id;
+
+        private final int score;
+
+        private Match(Long id, int score) {
+
+            this.id = id;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.data;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The version of each user that the {@link UserView}s were last given, along with the users that have recently been
+ * removed from them.
+ * <p/>
+ * A change is only applied if it is to a newer version than the views already have. The changes are given to the views
+ * straight after they have been committed, so a change that arrives out of order is never more than the reorder window
+ * behind. A removed ID is only held until that window has passed, after which no change to it can still arrive. Every
+ * user that is removed at once is covered by a single watermark instead, the highest ID that had been handed out, which
+ * is also only held for the window. Only the versions of the live users are held for longer than the window.
+ * <p/>
+ * This isn't thread safe, the updates must be serialised.
+ *
+ * @author Karl Bennett
+ */
+class UserVersions {
+
+    private final long windowMillis;
+
+    private final Map<Long, Long> versions = new HashMap<>();
+
+    // The ID's in the order they were removed along with when, so the expired ones are always first.
+    private final LinkedHashMap<Long, Long> removed = new LinkedHashMap<>();
+
+    private long highestId;
+
+    private long watermark = -1;
+
+    private long watermarkedAt;
+
+    /**
+     * @param windowMillis the longest a change can take to reach the views after it has been committed.
+     */
+    UserVersions(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * @param id      the ID of the changed user.
+     * @param version the version the user was changed to.
+     * @param now     the current time in milliseconds.
+     * @return true if the user has been removed or the views already have the same or a newer version of it.
+     */
+    boolean isStale(Long id, Long version, long now) {
+
+        expire(now);
+
+        if (removed.containsKey(id)) {
+            return true;
+        }
+
+        final Long current = versions.get(id);
+
+        return null != current && null != version && version <= current;
+    }
+
+    /**
+     * @param id  the ID of the changed user.
+     * @param now the current time in milliseconds.
+     * @return true if the user might have been removed with every other user, in which case whether or not it still
+     *         exists has to be checked before it is added to the views.
+     */
+    boolean isUncertain(Long id, long now) {
+
+        expire(now);
+
+        return id <= watermark && !versions.containsKey(id);
+    }
+
+    void put(Long id, Long version) {
+
+        versions.put(id, version);
+        highestId = Math.max(highestId, id);
+    }
+
+    void remove(Long id, long now) {
+
+        expire(now);
+
+        versions.remove(id);
+        removed.remove(id);
+        removed.put(id, now);
+    }
+
+    /**
+     * Remove every user, any user with an ID that is no higher than the supplied ID or any the views have been given
+     * could have been one of them.
+     *
+     * @param highestId the highest ID that had been handed out when the users were removed.
+     * @param now       the current time in milliseconds.
+     */
+    void removeAll(long highestId, long now) {
+
+        watermark = Math.max(highestId, this.highestId);
+        watermarkedAt = now;
+
+        versions.clear();
+        removed.clear();
+    }
+
+    /**
+     * Forget every user including the removed ones, this is only safe when the views are about to be rebuilt.
+     */
+    void clear() {
+
+        versions.clear();
+        removed.clear();
+        watermark = -1;
+    }
+
+    /**
+     * @return the number of removed ID's that are still held.
+     */
+    int getRemovedCount(long now) {
+
+        expire(now);
+
+        return removed.size();
+    }
+
+    private void expire(long now) {
+
+        final long expired = now - windowMillis;
+
+        for (Iterator<Long> removedAt = removed.values().iterator(); removedAt.hasNext(); ) {
+
+            if (removedAt.next() >= expired) {
+                break;
+            }
+
+            removedAt.remove();
+        }
+
+        if (watermarkedAt < expired) {
+            watermark = -1;
+        }
+    }
+}
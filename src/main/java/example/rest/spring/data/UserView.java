@@ -0,0 +1,47 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.data;
+
+/**
+ * An in-memory view of the persisted users that is kept up to date by the {@link UserViews}.
+ * <p/>
+ * The {@link UserViews} only give a view a change that is newer than the one it already has, so a view can apply
+ * every change it is given without keeping track of the versions itself.
+ *
+ * @author Karl Bennett
+ */
+public interface UserView {
+
+    /**
+     * Add the supplied user to the view, replacing any older version of it.
+     *
+     * @param user a user that has been persisted.
+     */
+    void put(User user);
+
+    /**
+     * Remove the user with the supplied ID from the view.
+     *
+     * @param id the ID of a user that has been deleted.
+     */
+    void remove(Long id);
+
+    /**
+     * Remove every user that the view holds because every persisted user has been deleted.
+     */
+    void clear();
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.data;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Component;
+
+import example.rest.spring.shard.ShardSequenceGenerator;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Every in-memory {@link UserView} of the persisted users, like the {@link UserSearchIndex} and the
+ * {@link UserAggregates}.
+ * <p/>
+ * The views are built from the database when the application starts and then kept up to date by every create, update
+ * and delete that is made through this application, so the users must not be modified directly in the database. All
+ * the views are built from a single export of the users, so adding a view doesn't add another read of every user.
+ * <p/>
+ * The changes are given to the views after they have been committed, so two changes to the same user can arrive in the
+ * opposite order to their commits. The {@link UserVersions} are shared by every view and make sure that a change to an
+ * older version of a user, or to a user that has been removed, is never applied.
+ *
+ * @author Karl Bennett
+ */
+@Component
+public class UserViews implements ApplicationListener<ContextRefreshedEvent> {
+
+    @Autowired
+    private List<UserView> views;
+
+    @Autowired
+    private UserRepository repository;
+
+    @Value("${users.export.fetch-size:500}")
+    private int fetchSize;
+
+    private final UserVersions versions;
+
+    /**
+     * @param reorderWindowMillis the longest a change can take to reach the views after it has been committed, a
+     *                            removed user is held for this long so that a late change can't add it back.
+     */
+    @Autowired
+    public UserViews(@Value("${users.views.reorder-window-millis:60000}") long reorderWindowMillis) {
+        this.versions = new UserVersions(reorderWindowMillis);
+    }
+
+    /**
+     * Build the views once the application context is ready, this is before the server accepts any requests.
+     */
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+
+        // A child context, like the management context, publishes it's own refreshed event to this context.
+        if (null == event.getApplicationContext().getParent()) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Discard the views and build them again from all the persisted users. A change that is made while the views are
+     * being built is still applied, the views ignore whichever of it and the exported user is the older version.
+     */
+    public synchronized void rebuild() {
+
+        versions.clear();
+
+        for (UserView view : views) {
+            view.clear();
+        }
+
+        try {
+            repository.export(fetchSize, new UserRepositoryCustom.Visitor() {
+                @Override
+                public void visit(User user) {
+                    put(user);
+                }
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the users to build the views.", e);
+        }
+    }
+
+    /**
+     * Add the supplied user to every view, unless it has been removed or the views already have the same or a newer
+     * version of it.
+     *
+     * @param user a user that has been persisted.
+     */
+    public synchronized void put(User user) {
+
+        final Long id = user.getId();
+        final long now = System.currentTimeMillis();
+
+        if (versions.isStale(id, user.getVersion(), now)) {
+            return;
+        }
+
+        // The user might have been removed along with every other user after it was persisted, so check that it
+        // still exists rather than adding it back.
+        if (versions.isUncertain(id, now) && null == repository.findVersionById(id)) {
+            return;
+        }
+
+        versions.put(id, user.getVersion());
+
+        for (UserView view : views) {
+            view.put(user);
+        }
+    }
+
+    public synchronized void remove(Long id) {
+
+        versions.remove(id, System.currentTimeMillis());
+
+        for (UserView view : views) {
+            view.remove(id);
+        }
+    }
+
+    public synchronized void clear() {
+
+        versions.removeAll(ShardSequenceGenerator.getHighestId(), System.currentTimeMillis());
+
+        for (UserView view : views) {
+            view.clear();
+        }
+    }
+
+    /**
+     * @return the number of removed users that are still held to stop a late change from adding them back.
+     */
+    public synchronized int getRemovedCount() {
+        return versions.getRemovedCount(System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.health;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.metadata.DataSourcePoolMetadata;
+import org.springframework.boot.autoconfigure.jdbc.metadata.DataSourcePoolMetadataProvider;
+import org.springframework.boot.autoconfigure.jdbc.metadata.DataSourcePoolMetadataProviders;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonMap;
+
+/**
+ * Keeps a snapshot of whether or not the application is ready to handle requests. The snapshot is refreshed in the
+ * background so that a readiness probe never has to touch the database or wait on it.
+ * <p/>
+ * The application is ready if a connection can be taken from the database pool and validated, the pool is not close
+ * to saturation and the async executor's queue is not close to full. If the snapshot hasn't been refreshed for a while,
+ * for instance because the refresh is stuck waiting for a database connection, then the application is also reported
+ * as not ready.
+ * <p/>
+ * The snapshot is serialised once when it changes, so the probes are normally served the same bytes each time.
+ *
+ * @author Karl Bennett
+ */
+@Component
+public class HealthMonitor {
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private ThreadPoolTaskExecutor asyncTaskExecutor;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired(required = false)
+    private Collection<DataSourcePoolMetadataProvider> metadataProviders = Collections.emptyList();
+
+    @Value("${health.refresh-interval-millis:1000}")
+    private long refreshIntervalMillis;
+
+    @Value("${health.database.validation-timeout-seconds:1}")
+    private int validationTimeoutSeconds;
+
+    @Value("${health.database.max-pool-usage:0.9}")
+    private float maxPoolUsage;
+
+    @Value("${health.executor.max-queue-usage:0.9}")
+    private float maxQueueUsage;
+
+    private DataSourcePoolMetadata poolMetadata;
+
+    private byte[] staleBody;
+
+    private volatile Readiness readiness;
+
+    @PostConstruct
+    public void setUp() throws JsonProcessingException {
+
+        poolMetadata = new DataSourcePoolMetadataProviders(metadataProviders).getDataSourcePoolMetadata(dataSource);
+        staleBody = objectMapper.writeValueAsBytes(singletonMap("ready", false));
+
+        refresh();
+    }
+
+    /**
+     * Check the database and executor and replace the readiness snapshot if anything has changed.
+     */
+    @Scheduled(fixedDelayString = "${health.refresh-interval-millis:1000}")
+    public void refresh() throws JsonProcessingException {
+
+        final Map<String, Object> database = checkDatabase();
+        final Map<String, Object> executor = checkExecutor();
+
+        final Map<String, Object> state = new LinkedHashMap<>();
+        state.put("ready", Boolean.TRUE.equals(database.get("ready")) && Boolean.TRUE.equals(executor.get("ready")));
+        state.put("database", database);
+        state.put("executor", executor);
+
+        final Readiness previous = readiness;
+
+        // Only serialise the snapshot when it has changed, which it rarely does while the application is healthy.
+        final byte[] body = null != previous && previous.state.equals(state)
+                ? previous.body : objectMapper.writeValueAsBytes(state);
+
+        readiness = new Readiness(state, body, System.nanoTime());
+    }
+
+    /**
+     * @return the latest readiness snapshot, or a not ready snapshot if the latest one is out of date.
+     */
+    public Readiness getReadiness() {
+
+        final Readiness current = readiness;
+
+        if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - current.checkedAt) > refreshIntervalMillis * 3) {
+            return new Readiness(singletonMap("ready", (Object) false), staleBody, current.checkedAt);
+        }
+
+        return current;
+    }
+
+    private Map<String, Object> checkDatabase() {
+
+        final Map<String, Object> database = new LinkedHashMap<>();
+
+        boolean ready;
+        try (Connection connection = dataSource.getConnection()) {
+            ready = connection.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            ready = false;
+        }
+
+        database.put("connected", ready);
+
+        if (null != poolMetadata) {
+
+            final Integer active = poolMetadata.getActive();
+            final Integer max = poolMetadata.getMax();
+            final Float usage = poolMetadata.getUsage();
+
+            database.put("active", active);
+            database.put("max", max);
+
+            // The connection that was used for the check above has been returned to the pool by now.
+            ready = ready && (null == usage || usage < maxPoolUsage);
+        }
+
+        database.put("ready", ready);
+
+        return database;
+    }
+
+    private Map<String, Object> checkExecutor() {
+
+        final BlockingQueue<Runnable> queue = asyncTaskExecutor.getThreadPoolExecutor().getQueue();
+
+        final int depth = queue.size();
+        final int capacity = depth + queue.remainingCapacity();
+
+        final Map<String, Object> executor = new LinkedHashMap<>();
+        executor.put("ready", 0 == capacity || (float) depth / capacity < maxQueueUsage);
+        executor.put("queueDepth", depth);
+        executor.put("queueCapacity", capacity);
+
+        return executor;
+    }
+
+    public static class Readiness {
+
+        private final Map<String, Object> state;
+
+        private final byte[] body;
+
+        private final long checkedAt;
+
+        private Readiness(Map<String, Object> state, byte[] body, long checkedAt) {
+            this.state = state;
+            this.body = body;
+            this.checkedAt = checkedAt;
+        }
+
+        public boolean isReady() {
+            return Boolean.TRUE.equals(state.get("ready"));
+        }
+
+        /**
+         * @return the readiness serialised as {@code JSON}, this must not be modified.
+         */
+        public byte[] getBody() {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.metrics;
+
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.CallableProcessingInterceptorAdapter;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static example.rest.spring.metrics.Metrics.label;
+
+/**
+ * Times every request to a controller handler along with the async processing of any {@link Callable} that the handler
+ * returns. The time a {@link Callable} spends waiting in the executor's queue is recorded separately from the time it
+ * spends running.
+ * <p/>
+ * Each handler is identified by an {@code endpoint} label built from it's {@link RequestMapping}, for example
+ * {@code GET /users/{id}} or {@code GET /users?limit}.
+ *
+ * @author Karl Bennett
+ */
+public class EndpointMetrics extends CallableProcessingInterceptorAdapter implements HandlerInterceptor {
+
+    private static final String ENDPOINT = EndpointMetrics.class.getName() + ".ENDPOINT";
+    private static final String STARTED = EndpointMetrics.class.getName() + ".STARTED";
+    private static final String SUBMITTED = EndpointMetrics.class.getName() + ".SUBMITTED";
+    private static final String CALLED = EndpointMetrics.class.getName() + ".CALLED";
+
+    private final ConcurrentMap<Method, String> endpoints = new ConcurrentHashMap<>();
+
+    private final Metrics metrics;
+
+    public EndpointMetrics(Metrics metrics) {
+
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param attributes the attributes of the current request.
+     * @return the formatted {@code endpoint} label for the handler of the current request, or null if the request isn't
+     *         being handled by a controller.
+     */
+    public static String endpoint(RequestAttributes attributes) {
+
+        return null == attributes ? null : (String) attributes.getAttribute(ENDPOINT, RequestAttributes.SCOPE_REQUEST);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+
+        if (!(handler instanceof HandlerMethod)) {
+            return true;
+        }
+
+        request.setAttribute(ENDPOINT, endpoint((HandlerMethod) handler));
+
+        // An async request is dispatched a second time to write out the result, it should be timed from the first.
+        if (null == request.getAttribute(STARTED)) {
+            request.setAttribute(STARTED, System.nanoTime());
+        }
+
+        return true;
+    }
+
+    @Override
+    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+                           ModelAndView modelAndView) {
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+
+        final Object started = request.getAttribute(STARTED);
+
+        if (null == started) {
+            return;
+        }
+
+        metrics.histogram("http_request_duration_seconds", "The time taken to handle each request.",
+                request.getAttribute(ENDPOINT) + "," + label("status", String.valueOf(response.getStatus())))
+                .recordSince((Long) started);
+    }
+
+    @Override
+    public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+
+        request.setAttribute(SUBMITTED, System.nanoTime(), RequestAttributes.SCOPE_REQUEST);
+    }
+
+    @Override
+    public <T> void preProcess(NativeWebRequest request, Callable<T> task) {
+
+        final long now = System.nanoTime();
+        request.setAttribute(CALLED, now, RequestAttributes.SCOPE_REQUEST);
+
+        final Object submitted = request.getAttribute(SUBMITTED, RequestAttributes.SCOPE_REQUEST);
+
+        if (null != submitted) {
+            metrics.histogram("async_queue_duration_seconds",
+                    "The time each Callable waited for an async executor thread.", endpoint(request))
+                    .record(now - (Long) submitted);
+        }
+    }
+
+    @Override
+    public <T> void postProcess(NativeWebRequest request, Callable<T> task, Object concurrentResult) {
+
+        final Object called = request.getAttribute(CALLED, RequestAttributes.SCOPE_REQUEST);
+
+        if (null != called) {
+            metrics.histogram("async_execution_duration_seconds",
+                    "The time each Callable took to run, this includes streaming the response.", endpoint(request))
+                    .recordSince((Long) called);
+        }
+    }
+
+    private String endpoint(HandlerMethod handler) {
+
+        final Method method = handler.getMethod();
+
+        final String endpoint = endpoints.get(method);
+
+        if (null != endpoint) {
+            return endpoint;
+        }
+
+        endpoints.putIfAbsent(method, label("endpoint", describe(handler)));
+
+        return endpoints.get(method);
+    }
+
+    private static String describe(HandlerMethod handler) {
+
+        final RequestMapping type = AnnotationUtils.findAnnotation(handler.getBeanType(), RequestMapping.class);
+        final RequestMapping mapping = AnnotationUtils.findAnnotation(handler.getMethod(), RequestMapping.class);
+
+        final StringBuilder description = new StringBuilder();
+
+        for (RequestMethod requestMethod : mapping.method()) {
+            description.append(0 == description.length() ? "" : ",").append(requestMethod);
+        }
+
+        description.append(0 == description.length() ? "" : " ")
+                .append(null == type || 0 == type.value().length ? "" : type.value()[0])
+                .append(0 == mapping.value().length ? "" : mapping.value()[0]);
+
+        for (int i = 0; i < mapping.params().length; i++) {
+            description.append(0 == i ? "?" : "&").append(mapping.params()[i]);
+        }
+
+        return description.toString();
+    }
+}
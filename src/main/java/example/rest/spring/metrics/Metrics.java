@@ -0,0 +1,235 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.metrics;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static java.lang.String.format;
+
+/**
+ * A registry of counters and timing histograms that can be written out in the Prometheus text format.
+ * <p/>
+ * Recording a value is just a map lookup and a few atomic increments so it is cheap enough to do on every request.
+ * Each metric is identified by it's name and a set of labels, the labels are supplied already formatted, for example
+ * {@code endpoint="GET /users/{id}"}, so that they can be built once and reused.
+ *
+ * @author Karl Bennett
+ */
+@Component
+public class Metrics {
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param name   the name of the counter, it should end in {@code _total}.
+     * @param help   a description of the counter.
+     * @param labels the formatted labels of the counter, this can be empty.
+     * @return the counter with the supplied name and labels, it is created if it doesn't exist.
+     */
+    public Counter counter(String name, String help, String labels) {
+
+        return (Counter) family(name, help, "counter").metric(labels);
+    }
+
+    /**
+     * @param name   the name of the histogram, it should end in {@code _seconds}.
+     * @param help   a description of what is being timed.
+     * @param labels the formatted labels of the histogram, this can be empty.
+     * @return the histogram with the supplied name and labels, it is created if it doesn't exist.
+     */
+    public Histogram histogram(String name, String help, String labels) {
+
+        return (Histogram) family(name, help, "histogram").metric(labels);
+    }
+
+    /**
+     * Write out all the metrics in the Prometheus text format.
+     *
+     * @param writer the writer to write the metrics to.
+     * @throws IOException if the metrics can not be written.
+     */
+    public void write(Writer writer) throws IOException {
+
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            entry.getValue().write(entry.getKey(), writer);
+        }
+    }
+
+    /**
+     * Format a single label so that it can be used as the labels of a metric, any characters that aren't allowed in
+     * a label value are escaped.
+     */
+    public static String label(String name, String value) {
+
+        return format("%s=\"%s\"", name, value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"));
+    }
+
+    private Family family(String name, String help, String type) {
+
+        final Family family = families.get(name);
+
+        if (null != family) {
+            return family;
+        }
+
+        families.putIfAbsent(name, new Family(help, type));
+
+        return families.get(name);
+    }
+
+    private static class Family {
+
+        private final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<>();
+
+        private final String help;
+
+        private final String type;
+
+        private Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+
+        private Object metric(String labels) {
+
+            final Object metric = metrics.get(labels);
+
+            if (null != metric) {
+                return metric;
+            }
+
+            metrics.putIfAbsent(labels, "counter".equals(type) ? new Counter() : new Histogram());
+
+            return metrics.get(labels);
+        }
+
+        private void write(String name, Writer writer) throws IOException {
+
+            writer.write(format("# HELP %s %s\n# TYPE %s %s\n", name, help, name, type));
+
+            for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+
+                if (entry.getValue() instanceof Counter) {
+                    writer.write(format("%s%s %d\n", name, braces(entry.getKey()), ((Counter) entry.getValue()).get()));
+                } else {
+                    ((Histogram) entry.getValue()).write(name, entry.getKey(), writer);
+                }
+            }
+        }
+    }
+
+    private static String braces(String labels) {
+
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    public static class Counter {
+
+        private final AtomicLong count = new AtomicLong();
+
+        public void increment() {
+            count.incrementAndGet();
+        }
+
+        public void add(long value) {
+            count.addAndGet(value);
+        }
+
+        public long get() {
+            return count.get();
+        }
+    }
+
+    /**
+     * A histogram of durations with fixed buckets from one millisecond to ten seconds.
+     */
+    public static class Histogram {
+
+        private static final double[] BUCKETS =
+                {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+        private static final long[] BUCKET_NANOS = new long[BUCKETS.length];
+
+        static {
+            for (int i = 0; i < BUCKETS.length; i++) {
+                BUCKET_NANOS[i] = (long) (BUCKETS[i] * TimeUnit.SECONDS.toNanos(1));
+            }
+        }
+
+        // The last count is for the durations that are longer than all the buckets.
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS.length + 1);
+
+        private final AtomicLong sumNanos = new AtomicLong();
+
+        /**
+         * @param nanos the duration to record in nanoseconds.
+         */
+        public void record(long nanos) {
+
+            int bucket = 0;
+            while (bucket < BUCKET_NANOS.length && BUCKET_NANOS[bucket] < nanos) {
+                bucket++;
+            }
+
+            counts.incrementAndGet(bucket);
+            sumNanos.addAndGet(nanos);
+        }
+
+        /**
+         * @param startNanos the {@link System#nanoTime()} that the timed work started at.
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long getCount() {
+
+            long count = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                count += counts.get(i);
+            }
+
+            return count;
+        }
+
+        private void write(String name, String labels, Writer writer) throws IOException {
+
+            final String separator = labels.isEmpty() ? "" : ",";
+
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                cumulative += counts.get(i);
+                writer.write(format("%s_bucket{%s%sle=\"%s\"} %d\n", name, labels, separator, BUCKETS[i], cumulative));
+            }
+            cumulative += counts.get(BUCKETS.length);
+
+            writer.write(format("%s_bucket{%s%sle=\"+Inf\"} %d\n", name, labels, separator, cumulative));
+            writer.write(format("%s_sum%s %s\n", name, braces(labels), sumNanos.get() / 1e9));
+            writer.write(format("%s_count%s %d\n", name, braces(labels), cumulative));
+        }
+    }
+}
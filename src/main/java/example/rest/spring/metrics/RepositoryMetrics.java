@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.metrics;
+
+import example.rest.spring.data.UserRepository;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static example.rest.spring.metrics.Metrics.label;
+
+/**
+ * Times every call to the {@link UserRepository} and counts the statements that each call sends to the database.
+ * <p/>
+ * The statements are counted by the {@link StatementCounter} so they will only be counted if it has been configured
+ * as the Hibernate interceptor.
+ *
+ * @author Karl Bennett
+ */
+@Component
+public class RepositoryMetrics implements BeanPostProcessor, MethodInterceptor {
+
+    private final ConcurrentMap<Method, String> methods = new ConcurrentHashMap<>();
+
+    private final Metrics metrics;
+
+    @Autowired
+    public RepositoryMetrics(Metrics metrics) {
+
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+
+        if (!(bean instanceof UserRepository)) {
+            return bean;
+        }
+
+        // The Spring Data repository is already a proxy so the timing can just be added to the front of it's advice.
+        if (bean instanceof Advised && !((Advised) bean).isFrozen()) {
+            ((Advised) bean).addAdvice(0, this);
+            return bean;
+        }
+
+        final ProxyFactory proxyFactory = new ProxyFactory(bean);
+        proxyFactory.addAdvice(this);
+
+        return proxyFactory.getProxy();
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+
+        final String method = method(invocation.getMethod());
+
+        final long statements = StatementCounter.count();
+        final long start = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } finally {
+            metrics.histogram("repository_call_duration_seconds", "The time taken by each repository method.", method)
+                    .recordSince(start);
+            metrics.counter("repository_statements_total",
+                    "The number of statements that each repository method has sent to the database.", method)
+                    .add(StatementCounter.count() - statements);
+        }
+    }
+
+    private String method(Method method) {
+
+        final String label = methods.get(method);
+
+        if (null != label) {
+            return label;
+        }
+
+        methods.putIfAbsent(method, label("method", method.getName()));
+
+        return methods.get(method);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.metrics;
+
+import org.hibernate.EmptyInterceptor;
+
+/**
+ * A Hibernate interceptor that counts the statements that are prepared on each thread, this allows the statements that
+ * are issued by a single repository call to be counted by comparing the {@link #count()} before and after the call.
+ * <p/>
+ * Hibernate creates this interceptor itself from the {@code hibernate.ejb.interceptor} property, so the count is held
+ * statically rather than in a Spring bean.
+ *
+ * @author Karl Bennett
+ */
+public class StatementCounter extends EmptyInterceptor {
+
+    private static final ThreadLocal<long[]> COUNT = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    /**
+     * @return the number of statements that have been prepared on the current thread.
+     */
+    public static long count() {
+        return COUNT.get()[0];
+    }
+
+    @Override
+    public String onPrepareStatement(String sql) {
+
+        COUNT.get()[0]++;
+
+        return sql;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.metrics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * The standard Jackson message converter, except that it times how long each response body takes to be serialised and
+ * written out.
+ *
+ * @author Karl Bennett
+ */
+public class TimedJacksonConverter extends MappingJackson2HttpMessageConverter {
+
+    private final Metrics metrics;
+
+    public TimedJacksonConverter(ObjectMapper objectMapper, Metrics metrics) {
+        super(objectMapper);
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage) throws IOException {
+
+        final long start = System.nanoTime();
+        try {
+            super.writeInternal(object, type, outputMessage);
+        } finally {
+            final String endpoint = EndpointMetrics.endpoint(RequestContextHolder.getRequestAttributes());
+            metrics.histogram("serialisation_duration_seconds", "The time taken to write out each JSON response body.",
+                    null == endpoint ? "" : endpoint).recordSince(start);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.replica;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A read replica of the primary database along with how far it has caught up with the primary.
+ * <p/>
+ * How far a replica has caught up is measured in the changes counted by the
+ * {@link example.rest.spring.data.UserChanges}. The replica must be told each time it has applied all of the changes up
+ * to a count, at the moment only the {@link ReplicaStandIn} does this so a replica without a stand-in is never used.
+ *
+ * @author Karl Bennett
+ */
+public class Replica {
+
+    private final String name;
+
+    private final DataSource dataSource;
+
+    private final AtomicLong connectionCount = new AtomicLong();
+
+    private volatile Position position;
+
+    /**
+     * @param name       the name of the replica, it must be unique.
+     * @param dataSource the connection pool for the replica.
+     */
+    public Replica(String name, DataSource dataSource) {
+
+        this.name = name;
+        this.dataSource = dataSource;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * Record that the replica now contains every change that was made to the primary before the supplied time.
+     *
+     * @param changeCount the number of changes that had been made to the primary at the supplied time.
+     * @param syncedAt    the time in milliseconds that the replica is in sync with.
+     */
+    public void synced(long changeCount, long syncedAt) {
+
+        position = new Position(changeCount, syncedAt);
+    }
+
+    /**
+     * @return the number of changes the replica has applied, or -1 if it has never been synced.
+     */
+    public long getSyncedChangeCount() {
+
+        final Position current = position;
+
+        return null == current ? -1 : current.changeCount;
+    }
+
+    /**
+     * @param latestChangeCount the number of changes that have been made to the primary.
+     * @param now               the current time in milliseconds.
+     * @return zero if the replica has applied every change, otherwise the number of milliseconds since the time the
+     *         replica is in sync with. A replica that has never been synced is infinitely far behind.
+     */
+    public long getLagMillis(long latestChangeCount, long now) {
+
+        final Position current = position;
+
+        if (null == current) {
+            return Long.MAX_VALUE;
+        }
+
+        return current.changeCount >= latestChangeCount ? 0 : Math.max(0, now - current.syncedAt);
+    }
+
+    /**
+     * Record that a connection has been routed to this replica.
+     */
+    public void connected() {
+
+        connectionCount.incrementAndGet();
+    }
+
+    public long getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * Close the connection pool for the replica.
+     */
+    public void close() {
+
+        dataSource.close();
+    }
+
+    private static class Position {
+
+        private final long changeCount;
+
+        private final long syncedAt;
+
+        private Position(long changeCount, long syncedAt) {
+            this.changeCount = changeCount;
+            this.syncedAt = syncedAt;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.replica;
+
+import example.rest.spring.data.UserCache;
+import example.rest.spring.data.UserChanges;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Routes the connections for read-only transactions to the replicas and every other connection to the primary.
+ * <p/>
+ * A replica is only used if it is no more than the maximum lag behind the primary, the replicas take turns so the
+ * reads are spread across every replica that is close enough. If none of them are then the read falls back to the
+ * primary. With a maximum lag of zero a replica is only used once it has applied every change, so a client will always
+ * read it's own writes.
+ * <p/>
+ * A read that loads users into the {@link UserCache} is only sent to a replica that has applied every change, whatever
+ * the maximum lag, otherwise a stale user could stay cached until it was next changed.
+ * <p/>
+ * Whether or not a transaction is read-only is only known once the transaction has begun, which is after the
+ * transaction manager has asked for it's connection. So this must be wrapped in a {@link LazyConnectionDataSourceProxy}
+ * that only asks for the connection when the first statement is sent.
+ *
+ * @author Karl Bennett
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements DisposableBean {
+
+    private static final String PRIMARY = "primary";
+
+    private final List<Replica> replicas;
+
+    private final UserChanges changes;
+
+    private final long maxLagMillis;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final AtomicLong primaryConnectionCount = new AtomicLong();
+
+    private final AtomicLong fallbackConnectionCount = new AtomicLong();
+
+    /**
+     * @param primary      the primary database that all the writes are sent to.
+     * @param replicas     the replicas that the reads can be sent to.
+     * @param changes      the changes that have been made to the primary, these are used to work out how far behind
+     *                     each replica is.
+     * @param maxLagMillis the maximum number of milliseconds that a replica can be behind the primary and still be
+     *                     read.
+     */
+    public ReplicaRoutingDataSource(DataSource primary, List<Replica> replicas, UserChanges changes,
+                                    long maxLagMillis) {
+
+        this.replicas = new ArrayList<>(replicas);
+        this.changes = changes;
+        this.maxLagMillis = maxLagMillis;
+
+        final Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        for (Replica replica : replicas) {
+            targets.put(replica.getName(), replica.getDataSource());
+        }
+
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        setLenientFallback(false);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            primaryConnectionCount.incrementAndGet();
+            return PRIMARY;
+        }
+
+        final Replica replica = selectReplica();
+
+        if (null == replica) {
+            fallbackConnectionCount.incrementAndGet();
+            return PRIMARY;
+        }
+
+        replica.connected();
+        return replica.getName();
+    }
+
+    private Replica selectReplica() {
+
+        final long latestChangeCount = changes.getLatest().getCount();
+        final long now = System.currentTimeMillis();
+        final boolean loading = UserCache.isLoading();
+
+        // Mask off the sign bit so that the turns carry on from zero once the counter overflows.
+        final int start = next.getAndIncrement() & Integer.MAX_VALUE;
+
+        for (int i = 0; i < replicas.size(); i++) {
+
+            final Replica replica = replicas.get((start + i) % replicas.size());
+
+            // A replica that was synced just before the latest change isn't any milliseconds behind, so the change
+            // counts are compared for the reads that have to see every change.
+            if (loading ? replica.getSyncedChangeCount() >= latestChangeCount
+                    : replica.getLagMillis(latestChangeCount, now) <= maxLagMillis) {
+                return replica;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the routing statistics along with the lag of each replica.
+     */
+    public Map<String, Object> getStatistics() {
+
+        final long latestChangeCount = changes.getLatest().getCount();
+        final long now = System.currentTimeMillis();
+
+        final List<Map<String, Object>> replicaStatistics = new ArrayList<>();
+        for (Replica replica : replicas) {
+
+            final long lagMillis = replica.getLagMillis(latestChangeCount, now);
+
+            final Map<String, Object> body = new LinkedHashMap<>();
+            body.put("name", replica.getName());
+            body.put("syncedChangeCount", replica.getSyncedChangeCount());
+            body.put("lagMillis", Long.MAX_VALUE == lagMillis ? null : lagMillis);
+            body.put("connectionCount", replica.getConnectionCount());
+
+            replicaStatistics.add(body);
+        }
+
+        final Map<String, Object> body = new LinkedHashMap<>();
+        body.put("latestChangeCount", latestChangeCount);
+        body.put("maxLagMillis", maxLagMillis);
+        body.put("primaryConnectionCount", primaryConnectionCount.get());
+        body.put("fallbackConnectionCount", fallbackConnectionCount.get());
+        body.put("replicas", replicaStatistics);
+
+        return body;
+    }
+
+    /**
+     * Close the connection pools for the replicas, the primary belongs to the application context.
+     */
+    @Override
+    public void destroy() {
+
+        for (Replica replica : replicas) {
+            replica.close();
+        }
+    }
+}
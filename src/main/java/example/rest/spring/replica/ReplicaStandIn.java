@@ -0,0 +1,241 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.replica;
+
+import example.rest.spring.data.UserChanges;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps in-memory H2 replicas in sync with the primary so that the replica routing can be run and tested without real
+ * database replication.
+ * <p/>
+ * On start the schema of the primary is copied to each replica. Then every time the users change each replica is
+ * brought up to date by replacing all of it's users with a copy of the primary's users. The users and their addresses
+ * are read with a single query so the copy is always consistent. Copying everything is only reasonable for the small
+ * amounts of data that are used locally, this is a stand-in for replication and not an implementation of it.
+ *
+ * @author Karl Bennett
+ */
+public class ReplicaStandIn {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaStandIn.class);
+
+    private static final String USER = "USER";
+
+    private static final String ADDRESS = "ADDRESS";
+
+    private final DataSource primary;
+
+    private final List<Replica> replicas;
+
+    private final UserChanges changes;
+
+    /**
+     * @param primary  the primary database, it's schema must already have been created.
+     * @param replicas the replicas to keep in sync, any existing data in them will be dropped.
+     * @param changes  the changes that have been made to the primary.
+     */
+    public ReplicaStandIn(DataSource primary, List<Replica> replicas, UserChanges changes) throws SQLException {
+
+        this.primary = primary;
+        this.replicas = replicas;
+        this.changes = changes;
+
+        final List<String> schema = readSchema();
+        for (Replica replica : replicas) {
+            createSchema(replica, schema);
+        }
+
+        sync();
+    }
+
+    /**
+     * Bring any replica that is missing some of the changes up to date.
+     */
+    @Scheduled(fixedDelayString = "${datasource.replica.stand-in.sync-interval-millis:100}")
+    public void refresh() throws SQLException {
+
+        final long latestChangeCount = changes.getLatest().getCount();
+
+        for (Replica replica : replicas) {
+            if (replica.getSyncedChangeCount() < latestChangeCount) {
+                sync(replica);
+            }
+        }
+    }
+
+    /**
+     * Copy the primary to every replica whether or not they are missing any changes, this will also pick up any
+     * changes that were made directly to the primary.
+     */
+    public void sync() throws SQLException {
+
+        for (Replica replica : replicas) {
+            sync(replica);
+        }
+    }
+
+    private void sync(Replica replica) throws SQLException {
+
+        // The change count and time are read before the copy, so every change they include is sure to be copied.
+        final long changeCount = changes.getLatest().getCount();
+        final long syncedAt = System.currentTimeMillis();
+
+        copy(replica.getDataSource());
+
+        replica.synced(changeCount, syncedAt);
+
+        log.debug("Synced replica {} to change {}.", replica.getName(), changeCount);
+    }
+
+    private List<String> readSchema() throws SQLException {
+
+        final List<String> statements = new ArrayList<>();
+
+        try (
+                Connection connection = primary.getConnection();
+                Statement statement = connection.createStatement();
+                ResultSet script = statement.executeQuery("SCRIPT NODATA")
+        ) {
+            while (script.next()) {
+                statements.add(script.getString(1));
+            }
+        }
+
+        return statements;
+    }
+
+    private static void createSchema(Replica replica, List<String> schema) throws SQLException {
+
+        try (
+                Connection connection = replica.getDataSource().getConnection();
+                Statement statement = connection.createStatement()
+        ) {
+            statement.execute("DROP ALL OBJECTS");
+
+            for (String sql : schema) {
+                statement.execute(sql);
+            }
+        }
+    }
+
+    private void copy(DataSource replica) throws SQLException {
+
+        try (
+                Connection source = primary.getConnection();
+                Statement select = source.createStatement();
+                ResultSet rows = select.executeQuery(
+                        "SELECT a.*, u.* FROM user u LEFT JOIN address a ON a.id = u.address_id ORDER BY u.id");
+                Connection target = replica.getConnection()
+        ) {
+            final ResultSetMetaData metadata = rows.getMetaData();
+            final List<Integer> addressColumns = columns(metadata, ADDRESS);
+            final List<Integer> userColumns = columns(metadata, USER);
+            final int addressId = column(metadata, ADDRESS, "ID");
+            final String insertAddressSql = insert(metadata, ADDRESS, addressColumns);
+            final String insertUserSql = insert(metadata, USER, userColumns);
+
+            target.setAutoCommit(false);
+
+            try (
+                    Statement delete = target.createStatement();
+                    PreparedStatement insertAddress = target.prepareStatement(insertAddressSql);
+                    PreparedStatement insertUser = target.prepareStatement(insertUserSql)
+            ) {
+                delete.executeUpdate("DELETE FROM user");
+                delete.executeUpdate("DELETE FROM address");
+
+                while (rows.next()) {
+                    // The address ID is null when the user has no address.
+                    if (null != rows.getObject(addressId)) {
+                        addBatch(rows, insertAddress, addressColumns);
+                    }
+                    addBatch(rows, insertUser, userColumns);
+                }
+
+                // The addresses must be inserted first because the users reference them.
+                insertAddress.executeBatch();
+                insertUser.executeBatch();
+
+                target.commit();
+            } catch (SQLException e) {
+                target.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private static List<Integer> columns(ResultSetMetaData metadata, String table) throws SQLException {
+
+        final List<Integer> columns = new ArrayList<>();
+
+        for (int column = 1; column <= metadata.getColumnCount(); column++) {
+            if (table.equalsIgnoreCase(metadata.getTableName(column))) {
+                columns.add(column);
+            }
+        }
+
+        return columns;
+    }
+
+    private static int column(ResultSetMetaData metadata, String table, String name) throws SQLException {
+
+        for (Integer column : columns(metadata, table)) {
+            if (name.equalsIgnoreCase(metadata.getColumnName(column))) {
+                return column;
+            }
+        }
+
+        throw new SQLException("Could not find the " + table + "." + name + " column.");
+    }
+
+    private static String insert(ResultSetMetaData metadata, String table, List<Integer> columns)
+            throws SQLException {
+
+        final StringBuilder names = new StringBuilder();
+        final StringBuilder values = new StringBuilder();
+
+        for (Integer column : columns) {
+            names.append(0 == names.length() ? "" : ", ").append(metadata.getColumnName(column));
+            values.append(0 == values.length() ? "?" : ", ?");
+        }
+
+        return "INSERT INTO " + table + " (" + names + ") VALUES (" + values + ")";
+    }
+
+    private static void addBatch(ResultSet rows, PreparedStatement insert, List<Integer> columns)
+            throws SQLException {
+
+        for (int i = 0; i < columns.size(); i++) {
+            insert.setObject(i + 1, rows.getObject(columns.get(i)));
+        }
+
+        insert.addBatch();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.replica;
+
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * A {@link JpaTransactionManager} that stops read-only transactions from putting entities into the Hibernate
+ * second-level cache. The read-only transactions can be sent to a replica that is behind the primary, and any entity
+ * that it put into the cache would be served from there long after the replica had caught up. The read-only
+ * transactions can still read the entities that are already cached.
+ *
+ * @author Karl Bennett
+ */
+public class ReplicaTransactionManager extends JpaTransactionManager {
+
+    /**
+     * @param entityManagerFactory the factory for the entity managers that the transactions are run in.
+     */
+    public ReplicaTransactionManager(EntityManagerFactory entityManagerFactory) {
+        super(entityManagerFactory);
+    }
+
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {
+
+        super.doBegin(transaction, definition);
+
+        if (definition.isReadOnly()) {
+            session().setCacheMode(CacheMode.GET);
+        }
+    }
+
+    @Override
+    protected void doCleanupAfterCompletion(Object transaction) {
+
+        // The entity manager can outlive the transaction if it was opened before it, so put back the usual cache mode.
+        session().setCacheMode(CacheMode.NORMAL);
+
+        super.doCleanupAfterCompletion(transaction);
+    }
+
+    private Session session() {
+
+        final EntityManagerHolder holder =
+                (EntityManagerHolder) TransactionSynchronizationManager.getResource(getEntityManagerFactory());
+
+        return holder.getEntityManager().unwrap(Session.class);
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.shard;
+
+import example.rest.spring.data.Id;
+import example.rest.spring.data.User;
+import example.rest.spring.data.UserFilter;
+import example.rest.spring.data.UserPatch;
+import example.rest.spring.data.UserRepository;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.ProxyMethodInvocation;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.ReflectionUtils;
+
+import javax.sql.DataSource;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import static java.lang.String.format;
+
+/**
+ * Sends each call to the {@link UserRepository} to the shards that hold the users it is for.
+ * <p/>
+ * The calls for a single user are sent straight to the shard in it's ID, or for a new user the shard picked by it's
+ * email. The calls for many users by their ID's are split up by shard and each shard is called in parallel. The pages
+ * of users are read from every shard in parallel and then merged in their order. The export reads each shard in turn,
+ * the shards hold consecutive ranges of ID's so this is also in ID order.
+ * <p/>
+ * The emails are recorded on their home shards before a user is created or it's email is changed, and removed once the
+ * user no longer has the email. A change or delete locks the user's row while it reads the email the user has, so two
+ * concurrent changes can't both read the same email and the one that is released is always the one that was replaced.
+ *
+ * @author Karl Bennett
+ */
+@Component
+@Profile("shard")
+public class ShardRouting implements BeanPostProcessor, MethodInterceptor {
+
+    private static final Comparator<Id> ID_ORDER = new Comparator<Id>() {
+        @Override
+        public int compare(Id left, Id right) {
+            return left.getId().compareTo(right.getId());
+        }
+    };
+
+    private final Shards shards;
+
+    private final ObjectFactory<PlatformTransactionManager> transactionManager;
+
+    private final ObjectFactory<DataSource> dataSource;
+
+    /**
+     * @param transactionManager the transaction manager is only looked up when it's first needed, it depends on the
+     *                           repositories that this post processor has to be created before.
+     * @param dataSource         the data source that is used by JPA, it's looked up for the same reason.
+     */
+    @Autowired
+    public ShardRouting(Shards shards, ObjectFactory<PlatformTransactionManager> transactionManager,
+                        ObjectFactory<DataSource> dataSource) {
+
+        this.shards = shards;
+        this.transactionManager = transactionManager;
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+
+        if (!(bean instanceof UserRepository)) {
+            return bean;
+        }
+
+        // The routing must come before the transaction advice so that each transaction is started on it's shard.
+        if (bean instanceof Advised && !((Advised) bean).isFrozen()) {
+            ((Advised) bean).addAdvice(0, this);
+            return bean;
+        }
+
+        final ProxyFactory proxyFactory = new ProxyFactory(bean);
+        proxyFactory.addAdvice(this);
+
+        return proxyFactory.getProxy();
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+
+        if (ReflectionUtils.isObjectMethod(invocation.getMethod())) {
+            return invocation.proceed();
+        }
+
+        final Object[] arguments = invocation.getArguments();
+
+        switch (invocation.getMethod().getName()) {
+            case "save":
+                return create((User) arguments[0], invocation);
+            case "findOne":
+            case "findPartial":
+            case "findSortValues":
+            case "findVersionById":
+                return on(shards.shardOf((Long) arguments[0]), invocation);
+            case "update":
+                return change(((User) arguments[0]).getId(), ((User) arguments[0]).getEmail(), invocation);
+            case "patch":
+                return change((Long) arguments[0], (String) ((UserPatch) arguments[1]).getUser().get("email"),
+                        invocation);
+            case "remove":
+                return remove((Long) arguments[0], invocation);
+            case "removeAll":
+                return removeAll(invocation);
+            case "findByIdIn":
+            case "findPartialByIdIn":
+                return findByIdIn(invocation);
+            case "findAllByOrderByIdAsc":
+                return findPage(((Pageable) arguments[0]).getPageSize(), ID_ORDER, invocation);
+            case "findByIdGreaterThanOrderByIdAsc":
+                return findPage(((Pageable) arguments[1]).getPageSize(), ID_ORDER, invocation);
+            case "findPartialPage":
+                return findPage((Integer) arguments[1], ID_ORDER, invocation);
+            case "findFilteredPage":
+                return findPage((Integer) arguments[2], ((UserFilter) arguments[0]).comparator(), invocation);
+            case "findPartialFilteredPage":
+                return findPartialFilteredPage((UserFilter) arguments[0], (Integer) arguments[2], invocation);
+            case "export":
+                return export(invocation);
+            default:
+                throw new UnsupportedOperationException(format("UserRepository.%s() is not supported across shards.",
+                        invocation.getMethod().getName()));
+        }
+    }
+
+    private Object create(User user, MethodInvocation invocation) throws Exception {
+
+        shards.reserveEmail(user.getEmail());
+
+        try {
+            return on(shards.home(user.getEmail()), invocation);
+        } catch (Exception e) {
+            shards.releaseEmail(user.getEmail());
+            throw e;
+        }
+    }
+
+    private Object change(final Long id, final String email, final MethodInvocation invocation) throws Exception {
+
+        if (null == email) {
+            return on(shards.shardOf(id), invocation);
+        }
+
+        final Emails emails = new Emails();
+
+        final Object changed;
+        try {
+            changed = inTransaction(shards.shardOf(id), new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+
+                    emails.held = lockEmailOf(id);
+
+                    if (null != emails.held && !emails.held.equals(email)) {
+                        shards.reserveEmail(email);
+                        emails.reserved = email;
+                    }
+
+                    return proceed(invocation, invocation.getArguments());
+                }
+            });
+        } catch (Exception e) {
+            if (null != emails.reserved) {
+                shards.releaseEmail(emails.reserved);
+            }
+            throw e;
+        }
+
+        if (null != emails.reserved) {
+            shards.releaseEmail(null != changed ? emails.held : emails.reserved);
+        }
+
+        return changed;
+    }
+
+    private Object remove(final Long id, final MethodInvocation invocation) throws Exception {
+
+        final Emails emails = new Emails();
+
+        final Object removed = inTransaction(shards.shardOf(id), new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+
+                emails.held = lockEmailOf(id);
+
+                return proceed(invocation, invocation.getArguments());
+            }
+        });
+
+        if (Boolean.TRUE.equals(removed) && null != emails.held) {
+            shards.releaseEmail(emails.held);
+        }
+
+        return removed;
+    }
+
+    /**
+     * Run the supplied work in a transaction on a shard, the repository call that it makes joins the transaction.
+     */
+    private Object inTransaction(int shard, final Callable<Object> work) throws Exception {
+
+        final TransactionTemplate transaction = new TransactionTemplate(transactionManager.getObject());
+
+        return Shards.on(shard, new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return transaction.execute(new TransactionCallback<Object>() {
+                    @Override
+                    public Object doInTransaction(TransactionStatus status) {
+                        try {
+                            return work.call();
+                        } catch (RuntimeException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            throw new UndeclaredThrowableException(e);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return the email of the user, which stays locked until the current transaction ends, or null if the user
+     *         doesn't exist.
+     */
+    private String lockEmailOf(Long id) {
+
+        final List<String> emails = new JdbcTemplate(dataSource.getObject())
+                .queryForList("SELECT email FROM user WHERE id = ? FOR UPDATE", String.class, id);
+
+        return emails.isEmpty() ? null : emails.get(0);
+    }
+
+    private Object removeAll(final MethodInvocation invocation) throws Exception {
+
+        int removed = 0;
+
+        for (Object count : shards.onEvery(new Shards.ShardWork<Object>() {
+            @Override
+            public Callable<Object> on(final int shard) {
+                return new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        final Object count = proceed(invocation, invocation.getArguments());
+                        shards.clearEmails(shard);
+                        return count;
+                    }
+                };
+            }
+        })) {
+            removed += (Integer) count;
+        }
+
+        return removed;
+    }
+
+    private Object findByIdIn(final MethodInvocation invocation) throws Exception {
+
+        final Map<Integer, List<Long>> idsByShard = new TreeMap<>();
+        for (Object id : (Collection<?>) invocation.getArguments()[0]) {
+
+            final int shard = shards.shardOf((Long) id);
+
+            if (!idsByShard.containsKey(shard)) {
+                idsByShard.put(shard, new ArrayList<Long>());
+            }
+            idsByShard.get(shard).add((Long) id);
+        }
+
+        if (idsByShard.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        final List<Object> users = new ArrayList<>();
+        for (Object shardUsers : shards.onEach(idsByShard.keySet(), new Shards.ShardWork<Object>() {
+            @Override
+            public Callable<Object> on(int shard) {
+                final Object[] arguments = invocation.getArguments().clone();
+                arguments[0] = idsByShard.get(shard);
+                return proceeding(invocation, arguments);
+            }
+        })) {
+            users.addAll((List<?>) shardUsers);
+        }
+
+        return users;
+    }
+
+    private Object findPartialFilteredPage(UserFilter filter, int limit, MethodInvocation invocation)
+            throws Exception {
+
+        // A partial user might not have the fields it is sorted by, so the pages from each shard can't be merged.
+        if (!filter.isSortedById()) {
+            throw new UnsupportedOperationException(
+                    "Partial users can only be sorted by their ID's when they are spread across shards.");
+        }
+
+        return findPage(limit, ID_ORDER, invocation);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object findPage(int limit, Comparator<?> order, final MethodInvocation invocation) throws Exception {
+
+        final List<Object> users = new ArrayList<>();
+        for (Object shardUsers : shards.onEvery(new Shards.ShardWork<Object>() {
+            @Override
+            public Callable<Object> on(int shard) {
+                return proceeding(invocation, invocation.getArguments());
+            }
+        })) {
+            users.addAll((List<?>) shardUsers);
+        }
+
+        Collections.sort(users, (Comparator<Object>) order);
+
+        return new ArrayList<>(users.subList(0, Math.min(limit, users.size())));
+    }
+
+    private Object export(MethodInvocation invocation) throws Exception {
+
+        long exported = 0;
+
+        for (int shard = 0; shard < shards.size(); shard++) {
+            exported += (Long) Shards.on(shard, proceeding(invocation, invocation.getArguments()));
+        }
+
+        return exported;
+    }
+
+    private static Object on(int shard, MethodInvocation invocation) throws Exception {
+
+        return Shards.on(shard, proceeding(invocation, invocation.getArguments()));
+    }
+
+    private static Callable<Object> proceeding(final MethodInvocation invocation, final Object[] arguments) {
+
+        return new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return proceed(invocation, arguments);
+            }
+        };
+    }
+
+    /**
+     * Carry on with a copy of the invocation so that it can be carried on with more than once, and on other threads.
+     */
+    private static Object proceed(MethodInvocation invocation, Object[] arguments) throws Exception {
+
+        try {
+            return ((ProxyMethodInvocation) invocation).invocableClone(arguments).proceed();
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    /**
+     * The emails that a change or delete has read and reserved in it's transaction.
+     */
+    private static class Emails {
+
+        private String held;
+
+        private String reserved;
+    }
+}
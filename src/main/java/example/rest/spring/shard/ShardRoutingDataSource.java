@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.shard;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Routes each connection to the shard that the current thread is working on. A thread that isn't working on a shard is
+ * given a connection to the first shard, this is where Hibernate creates the schema and where the readiness probe
+ * checks the database.
+ *
+ * @author Karl Bennett
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource {
+
+    public ShardRoutingDataSource(Shards shards) {
+
+        final Map<Object, Object> targets = new HashMap<>();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            targets.put(shard, shards.getDataSource(shard));
+        }
+
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(shards.getDataSource(0));
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+
+        return Shards.current();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.shard;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+/**
+ * Creates the schema on every shard once Hibernate has created it on the first shard.
+ * <p/>
+ * Each shard is given the first shard's tables if it doesn't already have them, the {@code user_email} table that
+ * records the emails that are homed on it, and it's ID sequence is moved up to the start of it's range. The schema is
+ * copied with H2's {@code SCRIPT} command so the shards must be H2 databases.
+ *
+ * @author Karl Bennett
+ */
+public class ShardSchema {
+
+    private static final int ID_INCREMENT_SIZE = 50;
+
+    /**
+     * @param shards the shards, the schema must already have been created on the first shard.
+     */
+    public ShardSchema(Shards shards) {
+
+        final List<String> schema = new JdbcTemplate(shards.getDataSource(0))
+                .queryForList("SCRIPT NODATA", String.class);
+
+        for (int shard = 0; shard < shards.size(); shard++) {
+
+            final JdbcTemplate jdbcTemplate = new JdbcTemplate(shards.getDataSource(shard));
+
+            if (0 == jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = 'USER'", Integer.class)) {
+                for (String sql : schema) {
+                    jdbcTemplate.execute(sql);
+                }
+            }
+
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS user_email (email VARCHAR(255) PRIMARY KEY)");
+
+            moveSequence(jdbcTemplate, shard);
+        }
+    }
+
+    private static void moveSequence(JdbcTemplate jdbcTemplate, int shard) {
+
+        if (0 == shard) {
+            return;
+        }
+
+        final long current = jdbcTemplate.queryForObject(
+                "SELECT CURRENT_VALUE FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_NAME = 'ID_SEQUENCE'",
+                Long.class);
+
+        // The pooled optimizer treats each value from the sequence as the top of a block of ID's, so the first value
+        // has to be a whole block into the range for the first block to start at the beginning of the range.
+        if (current < Shards.firstId(shard)) {
+            jdbcTemplate.execute("ALTER SEQUENCE id_sequence RESTART WITH " +
+                    (Shards.firstId(shard) + ID_INCREMENT_SIZE));
+        }
+    }
+}
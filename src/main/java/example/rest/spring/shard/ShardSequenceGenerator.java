@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.shard;
+
+import org.hibernate.HibernateException;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.enhanced.Optimizer;
+import org.hibernate.id.enhanced.OptimizerFactory;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link SequenceStyleGenerator} that keeps a separate pool of ID's for each shard.
+ * <p/>
+ * The generator is shared by every session, so without this a pool of ID's that had been read from one shard's
+ * sequence could then be used for the entities that are inserted into another shard. Outside of a shard it behaves
+ * exactly like a normal {@link SequenceStyleGenerator}.
+ * <p/>
+ * The highest ID that has been handed out is recorded, this is how the in-memory views of the users can tell whether a
+ * user could have been created before they were cleared.
+ *
+ * @author Karl Bennett
+ */
+public class ShardSequenceGenerator extends SequenceStyleGenerator {
+
+    private static final AtomicLong HIGHEST_ID = new AtomicLong();
+
+    private final ConcurrentMap<Integer, Optimizer> optimizers = new ConcurrentHashMap<>();
+
+    @Override
+    public Serializable generate(SessionImplementor session, Object object) throws HibernateException {
+
+        final Integer shard = Shards.current();
+
+        final Serializable id = null == shard
+                ? super.generate(session, object)
+                : optimizer(shard).generate(getDatabaseStructure().buildCallback(session));
+
+        recordHighest((Long) id);
+
+        return id;
+    }
+
+    /**
+     * @return the highest ID that has been handed out since the application started, or zero if there hasn't been one.
+     */
+    public static long getHighestId() {
+        return HIGHEST_ID.get();
+    }
+
+    private static void recordHighest(long id) {
+
+        for (long highest = HIGHEST_ID.get(); highest < id; highest = HIGHEST_ID.get()) {
+            if (HIGHEST_ID.compareAndSet(highest, id)) {
+                return;
+            }
+        }
+    }
+
+    private Optimizer optimizer(Integer shard) {
+
+        final Optimizer optimizer = optimizers.get(shard);
+
+        if (null != optimizer) {
+            return optimizer;
+        }
+
+        optimizers.putIfAbsent(shard, OptimizerFactory.buildOptimizer(getOptimizer().getClass().getName(),
+                getIdentifierType().getReturnedClass(), getOptimizer().getIncrementSize(), -1));
+
+        return optimizers.get(shard);
+    }
+}
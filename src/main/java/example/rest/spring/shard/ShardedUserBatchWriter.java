@@ -0,0 +1,164 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.shard;
+
+import example.rest.spring.data.User;
+import example.rest.spring.data.UserBatchWriter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * Persists many users at once across the shards. Each chunk is split up by the home shard of each user's email and the
+ * parts are persisted on their shards in parallel, each in it's own transaction.
+ * <p/>
+ * Just like the {@link UserBatchWriter} if any user in a part fails to be persisted then the part is rolled back and
+ * it's users are retried one at a time. The callback is still told the outcome for each user in the supplied order.
+ *
+ * @author Karl Bennett
+ */
+@Component
+@Primary
+@Profile("shard")
+public class ShardedUserBatchWriter extends UserBatchWriter {
+
+    private final Shards shards;
+
+    @Autowired
+    public ShardedUserBatchWriter(PlatformTransactionManager transactionManager, Shards shards) {
+        super(transactionManager);
+
+        this.shards = shards;
+    }
+
+    @Override
+    public void create(List<User> users, int chunkSize, Callback callback) {
+
+        for (int start = 0; start < users.size(); start += chunkSize) {
+
+            final List<User> chunk = users.subList(start, Math.min(start + chunkSize, users.size()));
+
+            final RuntimeException[] failures = createOnShards(chunk);
+
+            for (int i = 0; i < chunk.size(); i++) {
+                if (null == failures[i]) {
+                    callback.created(start + i, chunk.get(i));
+                } else {
+                    callback.failed(start + i, chunk.get(i), failures[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the reason each user in the chunk could not be persisted, or null for the users that were persisted.
+     */
+    private RuntimeException[] createOnShards(final List<User> chunk) {
+
+        final Map<Integer, List<Integer>> indexesByShard = new TreeMap<>();
+        for (int i = 0; i < chunk.size(); i++) {
+
+            final int shard = shards.home(chunk.get(i).getEmail());
+
+            if (!indexesByShard.containsKey(shard)) {
+                indexesByShard.put(shard, new ArrayList<Integer>());
+            }
+            indexesByShard.get(shard).add(i);
+        }
+
+        final RuntimeException[] failures = new RuntimeException[chunk.size()];
+
+        try {
+            shards.onEach(indexesByShard.keySet(), new Shards.ShardWork<Void>() {
+                @Override
+                public Callable<Void> on(final int shard) {
+                    return new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            createOnShard(chunk, indexesByShard.get(shard), failures);
+                            return null;
+                        }
+                    };
+                }
+            });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+
+        return failures;
+    }
+
+    private void createOnShard(List<User> chunk, List<Integer> indexes, RuntimeException[] failures) {
+
+        final List<Integer> reserved = new ArrayList<>(indexes.size());
+        for (Integer index : indexes) {
+            try {
+                shards.reserveEmail(chunk.get(index).getEmail());
+                reserved.add(index);
+            } catch (RuntimeException e) {
+                failures[index] = translate(e);
+            }
+        }
+
+        final List<User> users = new ArrayList<>(reserved.size());
+        for (Integer index : reserved) {
+            users.add(chunk.get(index));
+        }
+
+        try {
+            persist(users);
+            return;
+        } catch (RuntimeException e) {
+            for (User user : users) {
+                shards.releaseEmail(user.getEmail());
+            }
+        }
+
+        for (Integer index : reserved) {
+            failures[index] = createOne(chunk.get(index));
+        }
+    }
+
+    private RuntimeException createOne(User user) {
+
+        try {
+            shards.reserveEmail(user.getEmail());
+        } catch (RuntimeException e) {
+            return translate(e);
+        }
+
+        try {
+            persist(singletonList(user));
+            return null;
+        } catch (RuntimeException e) {
+            shards.releaseEmail(user.getEmail());
+            return translate(e);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.shard;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The databases that the users are sharded across.
+ * <p/>
+ * Each shard allocates the ID's from it's own range, the shard is the top bits of the ID so it can be worked out from
+ * the ID alone. A new user is placed on the shard picked by a hash of it's email, every email is also recorded in the
+ * {@code user_email} table of that same shard and that table's primary key is what stops two users on different shards
+ * from having the same email.
+ * <p/>
+ * Work is sent to a shard by running it with {@link #on(int, Callable)}, which the {@link ShardRoutingDataSource} reads
+ * when a connection is needed.
+ *
+ * @author Karl Bennett
+ */
+public class Shards implements DisposableBean {
+
+    /**
+     * The number of low bits of each ID that are allocated within a shard, the bits above them are the shard.
+     */
+    public static final int SHARD_ID_BITS = 40;
+
+    private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<>();
+
+    private final List<DataSource> dataSources;
+
+    private final List<JdbcTemplate> jdbcTemplates = new ArrayList<>();
+
+    private final ExecutorService executor;
+
+    /**
+     * @param dataSources    the connection pool for each shard, the order must never change once users have been
+     *                       persisted.
+     * @param scatterThreads the number of threads that run the work that is sent to every shard at once.
+     */
+    public Shards(List<DataSource> dataSources, int scatterThreads) {
+
+        this.dataSources = new ArrayList<>(dataSources);
+
+        for (DataSource dataSource : dataSources) {
+            jdbcTemplates.add(new JdbcTemplate(dataSource));
+        }
+
+        this.executor = Executors.newFixedThreadPool(scatterThreads, new CustomizableThreadFactory("shard-"));
+    }
+
+    /**
+     * @return the shard that the current thread is working on, or null if it isn't working on a shard.
+     */
+    public static Integer current() {
+
+        return CURRENT.get();
+    }
+
+    public int size() {
+        return dataSources.size();
+    }
+
+    public DataSource getDataSource(int shard) {
+        return dataSources.get(shard);
+    }
+
+    /**
+     * @param shard the shard.
+     * @return the first ID in the shard's range.
+     */
+    public static long firstId(int shard) {
+
+        return (long) shard << SHARD_ID_BITS;
+    }
+
+    /**
+     * @param id the ID of a user.
+     * @return the shard the user is on. An ID that is outside of every shard's range can't exist, so the first shard
+     *         is returned where it just won't be found.
+     */
+    public int shardOf(Long id) {
+
+        final long shard = id >>> SHARD_ID_BITS;
+
+        return shard < dataSources.size() ? (int) shard : 0;
+    }
+
+    /**
+     * @param email the email of a user.
+     * @return the shard that a new user with the email is placed on, which is also where the email is recorded.
+     */
+    public int home(String email) {
+
+        // Mix the bits of the hash so that similar emails are still spread evenly.
+        int hash = null == email ? 0 : email.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+
+        return (hash & Integer.MAX_VALUE) % dataSources.size();
+    }
+
+    /**
+     * Run the supplied work on a shard in the current thread.
+     */
+    public static <T> T on(int shard, Callable<T> work) throws Exception {
+
+        final Integer previous = CURRENT.get();
+
+        CURRENT.set(shard);
+        try {
+            return work.call();
+        } finally {
+            if (null == previous) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Run the supplied work on each of the shards in parallel.
+     *
+     * @param shards the shards to run the work on.
+     * @param work   the work to run.
+     * @return the result from each shard in the same order as the shards.
+     */
+    public <T> List<T> onEach(Collection<Integer> shards, final ShardWork<T> work) throws Exception {
+
+        final List<T> results = new ArrayList<>(shards.size());
+
+        // There's no need to hand the work to another thread if there is only one shard to run it on.
+        if (1 == shards.size()) {
+            final int shard = shards.iterator().next();
+            results.add(on(shard, work.on(shard)));
+            return results;
+        }
+
+        final List<Future<T>> futures = new ArrayList<>(shards.size());
+        for (final Integer shard : shards) {
+            futures.add(executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return on(shard, work.on(shard));
+                }
+            }));
+        }
+
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                throw unwrap(e);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Run the supplied work on every shard in parallel.
+     *
+     * @return the result from each shard in shard order.
+     */
+    public <T> List<T> onEvery(ShardWork<T> work) throws Exception {
+
+        final List<Integer> shards = new ArrayList<>(dataSources.size());
+        for (int shard = 0; shard < dataSources.size(); shard++) {
+            shards.add(shard);
+        }
+
+        return onEach(shards, work);
+    }
+
+    /**
+     * Record an email on it's home shard.
+     *
+     * @throws org.springframework.dao.DuplicateKeyException if the email has already been recorded.
+     */
+    public void reserveEmail(String email) {
+
+        jdbcTemplates.get(home(email)).update("INSERT INTO user_email (email) VALUES (?)", email);
+    }
+
+    /**
+     * Remove an email from it's home shard so that it can be used again.
+     */
+    public void releaseEmail(String email) {
+
+        jdbcTemplates.get(home(email)).update("DELETE FROM user_email WHERE email = ?", email);
+    }
+
+    /**
+     * Remove every email that has been recorded on the supplied shard.
+     */
+    public void clearEmails(int shard) {
+
+        jdbcTemplates.get(shard).update("DELETE FROM user_email");
+    }
+
+    @Override
+    public void destroy() {
+
+        executor.shutdown();
+
+        for (DataSource dataSource : dataSources) {
+            dataSource.close();
+        }
+    }
+
+    private static Exception unwrap(ExecutionException e) {
+
+        final Throwable cause = e.getCause();
+
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+
+        return cause instanceof Exception ? (Exception) cause : e;
+    }
+
+    /**
+     * Some work that can be run on any shard.
+     */
+    public interface ShardWork<T> {
+
+        /**
+         * @param shard the shard the work will be run on.
+         * @return the work for the shard, it is called on the thread that runs the work.
+         */
+        Callable<T> on(int shard);
+    }
+}
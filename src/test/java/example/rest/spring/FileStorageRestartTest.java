@@ -0,0 +1,132 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring;
+
+import example.rest.spring.data.Address;
+import example.rest.spring.data.Id;
+import example.rest.spring.data.User;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.File;
+
+import static example.rest.spring.data.Users.user;
+import static example.rest.spring.data.Users.userOne;
+import static java.lang.String.format;
+import static javax.ws.rs.client.Entity.entity;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the users persisted with the "file" profile are still there after the application has been restarted.
+ * <p/>
+ * The application is started and stopped within the test so it can't use the Spring test runner. The second-level
+ * cache is disabled because it is shared by every application within the JVM, including the ones started by the other
+ * tests, so it would otherwise serve the users from before the restart without ever reading the files.
+ */
+public class FileStorageRestartTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private ConfigurableApplicationContext context;
+
+    @After
+    public void tearDown() {
+
+        if (null != context) {
+            context.close();
+        }
+    }
+
+    @Test
+    public void I_can_retrieve_a_user_after_a_restart() {
+
+        final User user = user();
+
+        context = start();
+        user.setId(create(users(context), user).getId());
+        context.close();
+
+        assertTrue("the database files should have been written.", new File(folder.getRoot(), "users.mv.db").exists());
+
+        context = start();
+
+        final Response response = users(context).path(user.getId().toString()).request(MediaType.APPLICATION_JSON_TYPE)
+                .get();
+        assertEquals(200, response.getStatus());
+
+        final User restored = response.readEntity(User.class);
+        // The address ID is generated on create and isn't returned, so it can only be checked that one was assigned.
+        assertNotNull(restored.getAddress().getId());
+        final Address address = user.getAddress();
+        address.setId(restored.getAddress().getId());
+        user.setAddress(address);
+        assertEquals(user, restored);
+    }
+
+    @Test
+    public void I_can_create_a_user_after_a_restart() {
+
+        context = start();
+        final Id first = create(users(context), user());
+        context.close();
+
+        context = start();
+        final Id second = create(users(context), userOne());
+
+        assertNotEquals("the ID sequence should continue from before the restart.", first.getId(), second.getId());
+    }
+
+    private ConfigurableApplicationContext start() {
+
+        return new SpringApplicationBuilder(SpringBootRestServlet.class).profiles("file").run(
+                "--server.port=0",
+                "--management.port=0",
+                "--storage.directory=" + folder.getRoot().getAbsolutePath(),
+                "--spring.jpa.properties.hibernate.cache.use_second_level_cache=false"
+        );
+    }
+
+    private static WebTarget users(ConfigurableApplicationContext context) {
+
+        final int port = ((EmbeddedWebApplicationContext) context).getEmbeddedServletContainer().getPort();
+
+        return ClientBuilder.newClient().target(format("http://localhost:%d/rest/", port)).path("users");
+    }
+
+    private static Id create(WebTarget target, User user) {
+
+        final Response response = target.request(MediaType.APPLICATION_JSON_TYPE)
+                .post(entity(user, MediaType.APPLICATION_JSON_TYPE));
+
+        assertEquals(201, response.getStatus());
+
+        return response.readEntity(Id.class);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.config;
+
+import example.rest.spring.SpringBootRestServlet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.IntegrationTest;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.Response;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.lang.String.format;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+import static javax.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasKey;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = SpringBootRestServlet.class)
+@WebAppConfiguration("classpath:")
+@IntegrationTest({"server.port=0", "management.port=0", "async.core-pool-size=1", "async.max-pool-size=1",
+        "async.queue-capacity=0", "async.retry-after-seconds=5"})
+public class AsyncConfigurationTest {
+
+    @Value("${local.server.port}")
+    private int port;
+
+    @Autowired
+    private ThreadPoolTaskExecutor asyncTaskExecutor;
+
+    private CountDownLatch release;
+
+    private WebTarget target;
+
+    @Before
+    public void setUp() throws InterruptedException {
+
+        target = ClientBuilder.newClient().target(format("http://localhost:%d/rest/", port));
+
+        release = new CountDownLatch(1);
+
+        final CountDownLatch started = new CountDownLatch(1);
+
+        // Occupy the only thread in the executor so that it is saturated.
+        asyncTaskExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        started.await();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+
+        release.countDown();
+
+        // Wait for the thread to be free again, otherwise the next test's blocking task would be rejected.
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (0 < asyncTaskExecutor.getActiveCount()) {
+
+            if (deadline < System.currentTimeMillis()) {
+                fail("The executor's thread was not freed.");
+            }
+
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void A_request_is_rejected_when_the_executor_is_saturated() throws Exception {
+
+        final Response response = target.path("users/1").request(APPLICATION_JSON).get();
+
+        assertEquals(SERVICE_UNAVAILABLE.getStatusCode(), response.getStatus());
+        assertEquals("5", response.getHeaderString("Retry-After"));
+
+        final Map<String, ?> error = response.readEntity(new GenericType<Map<String, ?>>() {
+        });
+
+        assertThat(error, hasKey("error"));
+        assertThat(error, hasKey("message"));
+    }
+
+    @Test
+    public void A_task_that_is_not_a_request_is_not_run_on_the_submitting_thread_when_the_executor_is_saturated() {
+
+        final AtomicBoolean ran = new AtomicBoolean();
+
+        try {
+            asyncTaskExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    ran.set(true);
+                }
+            });
+            fail("The task should have been rejected.");
+        } catch (TaskRejectedException e) {
+            assertFalse(ran.get());
+        }
+    }
+
+    @Test
+    public void The_executor_statistics_contain_the_rejected_requests() throws Exception {
+
+        target.path("users/1").request(APPLICATION_JSON).get().close();
+
+        final Map<?, ?> stats = target.path("stats/executor").request(APPLICATION_JSON).get(Map.class);
+
+        assertEquals(1, stats.get("activeCount"));
+        assertEquals(0, stats.get("queueDepth"));
+        assertThat(((Number) stats.get("rejectedCount")).longValue(), greaterThanOrEqualTo(1L));
+    }
+}
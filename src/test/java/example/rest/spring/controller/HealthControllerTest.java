@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.controller;
+
+import example.rest.spring.SpringBootRestServlet;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.IntegrationTest;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+import java.util.Map;
+
+import static java.lang.String.format;
+import static java.util.Collections.singletonMap;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
+import static javax.ws.rs.core.Response.Status.OK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = SpringBootRestServlet.class)
+@WebAppConfiguration("classpath:")
+@IntegrationTest({"server.port=0", "management.port=0"})
+public class HealthControllerTest {
+
+    @Value("${local.server.port}")
+    private int port;
+
+    private WebTarget target;
+
+    @Before
+    public void setUp() {
+
+        target = ClientBuilder.newClient().target(format("http://localhost:%d/rest/", port)).path("health");
+    }
+
+    @Test
+    public void I_can_check_that_the_application_is_live() throws Exception {
+
+        final Response response = target.path("live").request(APPLICATION_JSON).get();
+
+        assertEquals(OK.getStatusCode(), response.getStatus());
+        assertEquals(singletonMap("running", true), response.readEntity(Map.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void I_can_check_that_the_application_is_ready() throws Exception {
+
+        final Response response = target.path("ready").request(APPLICATION_JSON).get();
+
+        assertEquals(OK.getStatusCode(), response.getStatus());
+        assertTrue(APPLICATION_JSON_TYPE.isCompatible(response.getMediaType()));
+
+        final Map<String, Object> body = response.readEntity(Map.class);
+
+        assertEquals(true, body.get("ready"));
+        assertEquals(true, ((Map<String, Object>) body.get("database")).get("connected"));
+        assertEquals(0, ((Map<String, Object>) body.get("executor")).get("queueDepth"));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.controller;
+
+import example.rest.spring.SpringBootRestServlet;
+import example.rest.spring.data.User;
+import example.rest.spring.data.UserSteps;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.IntegrationTest;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.lang.String.format;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+import static javax.ws.rs.core.Response.Status.OK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = SpringBootRestServlet.class)
+@WebAppConfiguration("classpath:")
+@IntegrationTest({"server.port=0", "management.port=0", "users.cache.maximum-size=0"})
+public class MetricsControllerTest {
+
+    @Value("${local.server.port}")
+    private int port;
+
+    @Autowired
+    private UserSteps steps;
+
+    private User persistedUser;
+
+    private WebTarget target;
+
+    @Before
+    public void setup() {
+
+        steps.all_users_are_cleaned_up();
+
+        persistedUser = steps.given_a_user_has_been_persisted();
+
+        target = ClientBuilder.newClient().target(format("http://localhost:%d/rest/", port));
+    }
+
+    @Test
+    public void I_can_retrieve_the_timings_of_a_request() throws Exception {
+
+        final Response response = target.path("users").path(persistedUser.getId().toString()).request(APPLICATION_JSON)
+                .get();
+        assertEquals(OK.getStatusCode(), response.getStatus());
+        response.readEntity(String.class);
+
+        final String endpoint = "endpoint=\"GET /users/{id}\"";
+
+        assertCountAtLeastOne("http_request_duration_seconds_count{" + endpoint + ",status=\"200\"}");
+        assertCountAtLeastOne("async_queue_duration_seconds_count{" + endpoint + "}");
+        assertCountAtLeastOne("async_execution_duration_seconds_count{" + endpoint + "}");
+        assertCountAtLeastOne("serialisation_duration_seconds_count{" + endpoint + "}");
+        assertCountAtLeastOne("repository_call_duration_seconds_count{method=\"findOne\"}");
+        assertCountAtLeastOne("repository_statements_total{method=\"findOne\"}");
+    }
+
+    @Test
+    public void The_metrics_are_in_the_prometheus_text_format() throws Exception {
+
+        final Response response = target.path("metrics").request(MediaType.TEXT_PLAIN).get();
+
+        assertEquals(OK.getStatusCode(), response.getStatus());
+        assertEquals("0.0.4", response.getMediaType().getParameters().get("version"));
+        assertTrue(response.readEntity(String.class).contains("# TYPE http_request_duration_seconds histogram"));
+    }
+
+    /**
+     * The request is timed once it has completed, which can be just after the client has received the response, so
+     * allow a little time for the timing to be recorded.
+     */
+    private void assertCountAtLeastOne(String metric) throws InterruptedException {
+
+        final Pattern pattern = Pattern.compile("^" + Pattern.quote(metric) + " (\\d+)$", Pattern.MULTILINE);
+
+        for (int i = 0; i < 50; i++) {
+
+            final Matcher matcher = pattern.matcher(target.path("metrics").request(MediaType.TEXT_PLAIN)
+                    .get(String.class));
+
+            if (matcher.find() && Long.parseLong(matcher.group(1)) > 0) {
+                return;
+            }
+
+            Thread.sleep(20);
+        }
+
+        fail(format("Expected the metric %s to have been recorded.", metric));
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.controller;
+
+import example.rest.spring.SpringBootRestServlet;
+import example.rest.spring.data.Address;
+import example.rest.spring.data.Id;
+import example.rest.spring.data.User;
+import example.rest.spring.data.UserSteps;
+import example.rest.spring.data.UserViews;
+import org.glassfish.jersey.client.HttpUrlConnectorProvider;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.IntegrationTest;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static example.rest.spring.data.Addresses.CITY;
+import static example.rest.spring.data.Addresses.CITY_ONE;
+import static example.rest.spring.data.Addresses.CITY_TWO;
+import static example.rest.spring.data.Addresses.NUMBER;
+import static example.rest.spring.data.Addresses.POST_CODE;
+import static example.rest.spring.data.Addresses.POST_CODE_ONE;
+import static example.rest.spring.data.Addresses.POST_CODE_TWO;
+import static example.rest.spring.data.Addresses.SUBURB;
+import static example.rest.spring.data.Addresses.addressTwo;
+import static example.rest.spring.data.Users.user;
+import static example.rest.spring.data.Users.userOne;
+import static example.rest.spring.data.Users.userThree;
+import static example.rest.spring.data.Users.userTwo;
+import static java.lang.String.format;
+import static java.util.Collections.singletonList;
+import static javax.ws.rs.client.Entity.entity;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the user counts for each city and postcode are seeded from the database and then kept up to date by
+ * every change made through the endpoints.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = SpringBootRestServlet.class)
+@WebAppConfiguration("classpath:")
+@IntegrationTest({"server.port=0", "management.port=0",
+        "spring.jpa.properties.hibernate.cache.use_second_level_cache=false"})
+public class UserAggregatesTest {
+
+    private static final String MERGE_PATCH = "application/merge-patch+json";
+
+    @Value("${local.server.port}")
+    private int port;
+
+    @Autowired
+    private UserSteps steps;
+
+    @Autowired
+    private UserViews views;
+
+    private WebTarget target;
+
+    private User user;
+
+    private User userOne;
+
+    @Before
+    public void setup() {
+
+        steps.all_users_are_cleaned_up();
+
+        // The same city and postcode as the first user but a different street, so it is a different address.
+        final User userThree = userThree();
+        userThree.setAddress(new Address(NUMBER, "Other Road", SUBURB, CITY, POST_CODE));
+
+        user = steps.given_a_user_has_been_persisted(user());
+        userOne = steps.given_a_user_has_been_persisted(userOne());
+        steps.given_a_user_has_been_persisted(userThree);
+
+        // The users were inserted straight into the database so the counts have to be seeded again, just like at
+        // startup.
+        views.rebuild();
+
+        target = ClientBuilder.newClient().target(format("http://localhost:%d/rest/users", port));
+    }
+
+    @Test
+    public void I_can_retrieve_the_number_of_users_in_each_city_and_postcode() {
+
+        final Map<String, ?> aggregates = aggregates();
+
+        assertEquals(3, aggregates.get("users"));
+        assertEquals(counts(CITY, 2, CITY_ONE, 1), aggregates.get("cities"));
+        assertEquals(counts(POST_CODE, 2, POST_CODE_ONE, 1), aggregates.get("postcodes"));
+    }
+
+    @Test
+    public void The_counts_include_the_users_that_are_created() {
+
+        create(userTwo());
+
+        final User homeless = user();
+        homeless.setEmail("homeless@aggregates.test");
+        homeless.setAddress(null);
+        create(homeless);
+
+        final Response response = target.path("batch").request(MediaType.APPLICATION_JSON_TYPE)
+                .post(entity(singletonList(userTwoAgain()), MediaType.APPLICATION_JSON_TYPE));
+        assertEquals(200, response.getStatus());
+        response.close();
+
+        final Map<String, ?> aggregates = aggregates();
+
+        assertEquals(6, aggregates.get("users"));
+        assertEquals(counts(CITY, 2, CITY_ONE, 1, CITY_TWO, 2), aggregates.get("cities"));
+        assertEquals(counts(POST_CODE, 2, POST_CODE_ONE, 1, POST_CODE_TWO, 2), aggregates.get("postcodes"));
+    }
+
+    @Test
+    public void The_counts_follow_an_address_that_is_replaced() {
+
+        final User moved = userOne();
+        moved.setAddress(addressTwo());
+        assertEquals(204, put(userOne.getId(), moved));
+
+        assertEquals(counts(CITY, 2, CITY_TWO, 1), aggregates().get("cities"));
+        assertEquals(counts(POST_CODE, 2, POST_CODE_TWO, 1), aggregates().get("postcodes"));
+
+        final User homeless = user();
+        homeless.setAddress(null);
+        assertEquals(204, put(user.getId(), homeless));
+
+        final Map<String, ?> aggregates = aggregates();
+
+        assertEquals(3, aggregates.get("users"));
+        assertEquals(counts(CITY, 1, CITY_TWO, 1), aggregates.get("cities"));
+        assertEquals(counts(POST_CODE, 1, POST_CODE_TWO, 1), aggregates.get("postcodes"));
+    }
+
+    @Test
+    public void The_counts_follow_an_address_that_is_patched() {
+
+        assertEquals(204, patch(userOne.getId(), format("{\"address\": {\"city\": \"%s\"}}", CITY)));
+
+        assertEquals(counts(CITY, 3), aggregates().get("cities"));
+        assertEquals(counts(POST_CODE, 2, POST_CODE_ONE, 1), aggregates().get("postcodes"));
+
+        assertEquals(204, patch(userOne.getId(), "{\"address\": null}"));
+
+        assertEquals(counts(CITY, 2), aggregates().get("cities"));
+        assertEquals(counts(POST_CODE, 2), aggregates().get("postcodes"));
+
+        assertEquals(204, patch(userOne.getId(), format("{\"address\": {\"postcode\": \"%s\"}}", POST_CODE_TWO)));
+
+        assertEquals(counts(CITY, 2), aggregates().get("cities"));
+        assertEquals(counts(POST_CODE, 2, POST_CODE_TWO, 1), aggregates().get("postcodes"));
+
+        assertEquals(204, patch(userOne.getId(), "{\"firstName\": \"Renamed\"}"));
+
+        assertEquals(counts(POST_CODE, 2, POST_CODE_TWO, 1), aggregates().get("postcodes"));
+    }
+
+    @Test
+    public void The_counts_exclude_the_users_that_are_deleted() {
+
+        assertEquals(204, target.path(userOne.getId().toString()).request().delete().getStatus());
+
+        Map<String, ?> aggregates = aggregates();
+
+        assertEquals(2, aggregates.get("users"));
+        assertEquals(counts(CITY, 2), aggregates.get("cities"));
+        assertEquals(counts(POST_CODE, 2), aggregates.get("postcodes"));
+
+        assertEquals(204, target.request().delete().getStatus());
+
+        aggregates = aggregates();
+
+        assertEquals(0, aggregates.get("users"));
+        assertEquals(counts(), aggregates.get("cities"));
+        assertEquals(counts(), aggregates.get("postcodes"));
+    }
+
+    @Test
+    public void An_update_that_arrives_after_a_newer_update_or_a_delete_is_not_counted() {
+
+        final User newer = new User(userOne);
+        newer.setAddress(addressTwo());
+        newer.setVersion(2L);
+
+        final User older = new User(userOne);
+        older.setVersion(1L);
+
+        // The counts are updated after each change has been committed, so a slow update can arrive after a later one.
+        views.put(newer);
+        views.put(older);
+
+        assertEquals(counts(CITY, 2, CITY_TWO, 1), aggregates().get("cities"));
+
+        views.remove(userOne.getId());
+
+        newer.setVersion(3L);
+        views.put(newer);
+
+        final Map<String, ?> aggregates = aggregates();
+
+        assertEquals(2, aggregates.get("users"));
+        assertEquals(counts(CITY, 2), aggregates.get("cities"));
+    }
+
+    @Test
+    public void Deleting_every_user_leaves_nothing_behind_in_the_counts() {
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(204, target.request().delete().getStatus());
+            create(userTwo());
+        }
+        assertEquals(204, target.request().delete().getStatus());
+
+        // A late update to a user that was deleted with every other user must not count it again.
+        views.put(userOne);
+
+        final Map<String, ?> aggregates = aggregates();
+
+        assertEquals(0, aggregates.get("users"));
+        assertEquals(counts(), aggregates.get("cities"));
+        assertEquals(counts(), aggregates.get("postcodes"));
+        assertEquals(0, views.getRemovedCount());
+    }
+
+    private static User userTwoAgain() {
+
+        final User user = userTwo();
+        user.setEmail("two.again@aggregates.test");
+
+        return user;
+    }
+
+    private void create(User user) {
+
+        final Response response = target.request(MediaType.APPLICATION_JSON_TYPE)
+                .post(entity(user, MediaType.APPLICATION_JSON_TYPE));
+
+        assertEquals(201, response.getStatus());
+        response.readEntity(Id.class);
+    }
+
+    private int put(Long id, User user) {
+
+        return target.path(id.toString()).request().put(entity(user, MediaType.APPLICATION_JSON_TYPE)).getStatus();
+    }
+
+    private int patch(Long id, String patch) {
+
+        return target.path(id.toString()).property(HttpUrlConnectorProvider.SET_METHOD_WORKAROUND, true).request()
+                .method("PATCH", entity(patch, MERGE_PATCH)).getStatus();
+    }
+
+    private Map<String, ?> aggregates() {
+
+        final Response response = target.path("aggregates").request(MediaType.APPLICATION_JSON_TYPE).get();
+
+        assertEquals(200, response.getStatus());
+
+        return response.readEntity(new GenericType<Map<String, ?>>() {
+        });
+    }
+
+    private static Map<String, Integer> counts(Object... groups) {
+
+        final Map<String, Integer> counts = new LinkedHashMap<>();
+        for (int i = 0; i < groups.length; i += 2) {
+            counts.put((String) groups[i], (Integer) groups[i + 1]);
+        }
+
+        return counts;
+    }
+}
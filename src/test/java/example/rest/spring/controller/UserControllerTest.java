@@ -16,10 +16,14 @@
 
 package example.rest.spring.controller;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import example.rest.spring.SpringBootRestServlet;
+import example.rest.spring.data.Address;
 import example.rest.spring.data.Id;
 import example.rest.spring.data.User;
 import example.rest.spring.data.UserSteps;
+import org.glassfish.jersey.client.HttpUrlConnectorProvider;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -33,12 +37,15 @@ import org.springframework.test.context.web.WebAppConfiguration;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.Link;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import static example.rest.spring.data.Addresses.addressOne;
 import static example.rest.spring.data.Users.EMAIL_ONE;
 import static example.rest.spring.data.Users.FIRST_NAME_ONE;
 import static example.rest.spring.data.Users.LAST_NAME_ONE;
@@ -46,23 +53,31 @@ import static example.rest.spring.data.Users.userOne;
 import static example.rest.spring.data.Users.userThree;
 import static example.rest.spring.data.Users.userTwo;
 import static java.lang.String.format;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static javax.ws.rs.client.Entity.entity;
 import static javax.ws.rs.core.Response.Status;
 import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 import static javax.ws.rs.core.Response.Status.FORBIDDEN;
 import static javax.ws.rs.core.Response.Status.NOT_FOUND;
+import static javax.ws.rs.core.Response.Status.NOT_MODIFIED;
 import static javax.ws.rs.core.Response.Status.NO_CONTENT;
 import static javax.ws.rs.core.Response.Status.OK;
+import static javax.ws.rs.core.Response.Status.PRECONDITION_FAILED;
 import static org.hamcrest.Matchers.hasKey;
 import static org.hamcrest.Matchers.isEmptyString;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @SpringApplicationConfiguration(classes = SpringBootRestServlet.class)
 @WebAppConfiguration("classpath:")
-@IntegrationTest({"server.port=0", "management.port=0"})
+@IntegrationTest({"server.port=0", "management.port=0", "users.stream.batch-size=2", "users.page.max-limit=10",
+        "users.batch.max-size=5", "users.batch.chunk-size=2", "users.ids.max-size=3",
+        "users.export.fetch-size=2", "users.import.chunk-size=2"})
 public class UserControllerTest {
 
     @Value("${local.server.port}")
@@ -246,6 +261,85 @@ public class UserControllerTest {
         steps.then_the_user_should_be_created(response, user);
     }
 
+    @Test
+    public void I_can_create_a_batch_of_users() throws Exception {
+
+        final User userOne = userOne();
+        final User userThree = userThree();
+
+        final User invalid = userTwo();
+        invalid.setEmail(null);
+
+        final User duplicate = userTwo();
+        duplicate.setEmail(persistedUser.getEmail());
+
+        final Response response = createBatch(asList(userOne, invalid, duplicate, userThree));
+
+        assertStatus(OK, response);
+
+        final List<Map<String, ?>> results = response.readEntity(new GenericType<List<Map<String, ?>>>() {
+        });
+
+        assertEquals(4, results.size());
+        steps.then_the_user_should_be_persisted(batchId(results.get(0)), userOne);
+        assertThat(results.get(1), hasKey("error"));
+        assertThat(results.get(2), hasKey("error"));
+        steps.then_the_user_should_be_persisted(batchId(results.get(3)), userThree);
+    }
+
+    @Test
+    public void I_cannot_create_a_batch_of_users_larger_than_the_maximum_batch_size() throws Exception {
+
+        final Response response = createBatch(asList(userOne(), userOne(), userOne(), userOne(), userOne(), userOne()));
+
+        assertErrorResponse(BAD_REQUEST, response);
+    }
+
+    @Test
+    public void I_can_import_users_and_the_invalid_users_are_reported() throws Exception {
+
+        final ObjectMapper objectMapper = new ObjectMapper();
+
+        final User noEmail = userTwo();
+        noEmail.setEmail(null);
+
+        final String body = objectMapper.writeValueAsString(userOne()) + "\n" +
+                "{ not json\n" +
+                objectMapper.writeValueAsString(noEmail) + "\n" +
+                objectMapper.writeValueAsString(persistedUser) + "\n" +
+                "\n" +
+                objectMapper.writeValueAsString(userThree()) + "\n";
+
+        final Response response = target.path("import").request("application/x-ndjson")
+                .post(entity(body, "application/x-ndjson"));
+
+        assertStatus(OK, response);
+
+        final List<Map<String, Object>> lines = new ArrayList<>();
+        for (String line : response.readEntity(String.class).split("\n")) {
+            lines.add(objectMapper.<Map<String, Object>>readValue(line, new TypeReference<Map<String, Object>>() {
+            }));
+        }
+
+        final List<Object> errorLines = new ArrayList<>();
+        for (Map<String, Object> line : lines) {
+            if (line.containsKey("error")) {
+                errorLines.add(line.get("line"));
+            }
+        }
+
+        assertEquals(asList((Object) 2, 3, 4), errorLines);
+
+        final Map<String, Object> complete = lines.get(lines.size() - 1);
+        assertEquals(6, complete.get("lines"));
+        assertEquals(2, complete.get("created"));
+        assertEquals(3, complete.get("failed"));
+        assertEquals(true, complete.get("complete"));
+
+        assertEquals(3, retrieve().readEntity(new GenericType<List<User>>() {
+        }).size());
+    }
+
     @Test
     public void I_can_retrieve_a_user() throws Exception {
 
@@ -258,6 +352,28 @@ public class UserControllerTest {
         assertEquals(persistedUser, user);
     }
 
+    @Test
+    public void I_can_conditionally_retrieve_a_user() throws Exception {
+
+        final Response first = retrieve(persistedUser.getId());
+
+        assertStatus(OK, first);
+        first.readEntity(String.class);
+
+        final String eTag = first.getHeaderString("ETag");
+
+        assertStatus(NOT_MODIFIED, retrieve(persistedUser.getId(), "If-None-Match", eTag));
+
+        persistedUser.setFirstName(FIRST_NAME_ONE);
+        assertEmptyResponse(update(persistedUser));
+
+        final Response modified = retrieve(persistedUser.getId(), "If-None-Match", eTag);
+
+        assertStatus(OK, modified);
+        assertNotEquals(eTag, modified.getHeaderString("ETag"));
+        assertEquals(FIRST_NAME_ONE, modified.readEntity(User.class).getFirstName());
+    }
+
     @Test
     public void I_cannot_retrieve_a_user_with_an_invalid_id() throws Exception {
 
@@ -289,6 +405,228 @@ public class UserControllerTest {
         assertEquals(expected, actual);
     }
 
+    @Test
+    public void I_can_conditionally_retrieve_all_the_persisted_users() throws Exception {
+
+        final Response first = retrieve();
+
+        assertStatus(OK, first);
+        first.readEntity(String.class);
+
+        final String eTag = first.getHeaderString("ETag");
+        final String lastModified = first.getHeaderString("Last-Modified");
+
+        assertStatus(NOT_MODIFIED, retrieve("", "If-None-Match", eTag));
+        assertStatus(NOT_MODIFIED, retrieve("", "If-Modified-Since", lastModified));
+
+        // Last-Modified only has a resolution of one second, so the change must be in a later second to be seen by
+        // If-Modified-Since.
+        Thread.sleep(1000 - System.currentTimeMillis() % 1000);
+
+        create(userOne()).readEntity(Id.class);
+
+        final Response modified = retrieve("", "If-None-Match", eTag);
+
+        assertStatus(OK, modified);
+        assertNotEquals(eTag, modified.getHeaderString("ETag"));
+        assertEquals(2, modified.readEntity(new GenericType<List<User>>() {
+        }).size());
+
+        final Response modifiedSince = retrieve("", "If-Modified-Since", lastModified);
+
+        assertStatus(OK, modifiedSince);
+        modifiedSince.readEntity(String.class);
+    }
+
+    @Test
+    public void I_can_export_all_the_persisted_users() throws Exception {
+
+        final List<User> expected = new ArrayList<>();
+        expected.add(persistedUser);
+        expected.add(steps.given_a_user_has_been_persisted(userOne()));
+        expected.add(steps.given_a_user_has_been_persisted(userTwo()));
+        expected.add(steps.given_a_user_has_been_persisted(userThree()));
+
+        final Response response = target.path("export").request("application/x-ndjson").get();
+
+        assertStatus(OK, response);
+        assertEquals("x-ndjson", response.getMediaType().getSubtype());
+
+        final ObjectMapper objectMapper = new ObjectMapper();
+
+        final List<User> actual = new ArrayList<>();
+        for (String line : response.readEntity(String.class).split("\n")) {
+            actual.add(objectMapper.readValue(line, User.class));
+        }
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void I_can_conditionally_retrieve_a_page_of_users() throws Exception {
+
+        final Response first = retrievePage(10);
+
+        assertStatus(OK, first);
+        first.readEntity(String.class);
+
+        final String eTag = first.getHeaderString("ETag");
+
+        assertStatus(NOT_MODIFIED, target.queryParam("limit", 10).request(MediaType.APPLICATION_JSON_TYPE)
+                .header("If-None-Match", eTag).get());
+
+        assertEmptyResponse(delete(persistedUser));
+
+        final Response modified = target.queryParam("limit", 10).request(MediaType.APPLICATION_JSON_TYPE)
+                .header("If-None-Match", eTag).get();
+
+        assertStatus(OK, modified);
+        modified.readEntity(String.class);
+    }
+
+    @Test
+    public void I_can_page_through_all_the_persisted_users() throws Exception {
+
+        final List<User> expected = new ArrayList<>();
+        expected.add(persistedUser);
+        expected.add(steps.given_a_user_has_been_persisted(userOne()));
+        expected.add(steps.given_a_user_has_been_persisted(userTwo()));
+        expected.add(steps.given_a_user_has_been_persisted(userThree()));
+
+        final Response first = retrievePage(3);
+
+        assertStatus(OK, first);
+        assertEquals(expected.subList(0, 3), first.readEntity(new GenericType<List<User>>() {
+        }));
+
+        final Link next = first.getLink("next");
+
+        final Response second = ClientBuilder.newClient().target(next.getUri())
+                .request(MediaType.APPLICATION_JSON_TYPE).get();
+
+        assertStatus(OK, second);
+        assertEquals(expected.subList(3, 4), second.readEntity(new GenericType<List<User>>() {
+        }));
+        assertNull("there should be no more pages.", second.getLink("next"));
+    }
+
+    @Test
+    public void I_cannot_retrieve_a_page_with_an_invalid_limit() throws Exception {
+
+        assertErrorResponse(BAD_REQUEST, retrievePage(0));
+        assertErrorResponse(BAD_REQUEST, retrievePage(11));
+    }
+
+    @Test
+    public void I_can_retrieve_many_users_at_once() throws Exception {
+
+        final User userOne = steps.given_a_user_has_been_persisted(userOne());
+        final User userTwo = steps.given_a_user_has_been_persisted(userTwo());
+
+        // Put one of the users in the cache so that the users come from both the cache and the database.
+        assertEquals(userTwo, retrieve(userTwo.getId()).readEntity(User.class));
+
+        final Response response = retrieveIds(userTwo.getId(), -1L, userOne.getId());
+
+        assertStatus(OK, response);
+
+        final IdsResponse actual = response.readEntity(IdsResponse.class);
+
+        assertEquals(asList(userTwo, userOne), actual.users);
+        assertEquals(singletonList(-1L), actual.missing);
+    }
+
+    @Test
+    public void I_cannot_retrieve_more_users_at_once_than_the_maximum() throws Exception {
+
+        assertErrorResponse(BAD_REQUEST, retrieveIds(1L, 2L, 3L, 4L));
+    }
+
+    @Test
+    public void I_can_retrieve_only_some_fields_of_a_user() throws Exception {
+
+        final Response response = target.path(persistedUser.getId().toString()).queryParam("fields", "firstName,email")
+                .request(MediaType.APPLICATION_JSON_TYPE).get();
+
+        assertStatus(OK, response);
+
+        final Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("email", persistedUser.getEmail());
+        expected.put("firstName", persistedUser.getFirstName());
+
+        assertEquals(expected, response.readEntity(new GenericType<Map<String, Object>>() {
+        }));
+    }
+
+    @Test
+    public void I_can_retrieve_only_some_fields_of_all_the_persisted_users() throws Exception {
+
+        final User userOne = userOne();
+        userOne.setAddress(null);
+
+        final List<Map<String, Object>> expected = new ArrayList<>();
+        expected.add(lastNameAndCity(persistedUser));
+        expected.add(lastNameAndCity(steps.given_a_user_has_been_persisted(userOne)));
+        expected.add(lastNameAndCity(steps.given_a_user_has_been_persisted(userTwo())));
+
+        final Response response = target.queryParam("fields", "lastName,address.city")
+                .request(MediaType.APPLICATION_JSON_TYPE).get();
+
+        assertStatus(OK, response);
+        assertEquals(expected, response.readEntity(new GenericType<List<Map<String, Object>>>() {
+        }));
+    }
+
+    @Test
+    public void I_can_page_through_only_some_fields_of_all_the_persisted_users() throws Exception {
+
+        final User userOne = steps.given_a_user_has_been_persisted(userOne());
+        final User userTwo = steps.given_a_user_has_been_persisted(userTwo());
+
+        final Response first = target.queryParam("limit", 2).queryParam("fields", "lastName,address.city")
+                .request(MediaType.APPLICATION_JSON_TYPE).get();
+
+        assertStatus(OK, first);
+        assertEquals(asList(lastNameAndCity(persistedUser), lastNameAndCity(userOne)),
+                first.readEntity(new GenericType<List<Map<String, Object>>>() {
+                }));
+
+        final Response second = ClientBuilder.newClient().target(first.getLink("next").getUri())
+                .request(MediaType.APPLICATION_JSON_TYPE).get();
+
+        assertStatus(OK, second);
+        assertEquals(singletonList(lastNameAndCity(userTwo)),
+                second.readEntity(new GenericType<List<Map<String, Object>>>() {
+                }));
+    }
+
+    @Test
+    public void I_can_retrieve_only_some_fields_of_many_users_at_once() throws Exception {
+
+        final User userOne = steps.given_a_user_has_been_persisted(userOne());
+
+        final Response response = target.queryParam("ids", userOne.getId() + ",-1," + persistedUser.getId())
+                .queryParam("fields", "id").request(MediaType.APPLICATION_JSON_TYPE).get();
+
+        assertStatus(OK, response);
+
+        final Map<String, List<?>> actual = response.readEntity(new GenericType<Map<String, List<?>>>() {
+        });
+
+        assertEquals(asList(singletonMap("id", userOne.getId().intValue()),
+                singletonMap("id", persistedUser.getId().intValue())), actual.get("users"));
+        assertEquals(singletonList(-1), actual.get("missing"));
+    }
+
+    @Test
+    public void I_cannot_retrieve_an_unknown_field_of_a_user() throws Exception {
+
+        assertErrorResponse(BAD_REQUEST, target.path(persistedUser.getId().toString()).queryParam("fields", "password")
+                .request(MediaType.APPLICATION_JSON_TYPE).get());
+        assertErrorResponse(BAD_REQUEST, target.queryParam("fields", "email,address.country")
+                .request(MediaType.APPLICATION_JSON_TYPE).get());
+    }
+
     @Test
     public void I_can_update_a_user() throws Exception {
 
@@ -303,6 +641,85 @@ public class UserControllerTest {
         steps.then_the_user_should_be_updated(persistedUser);
     }
 
+    @Test
+    public void I_can_remove_the_address_from_a_user() throws Exception {
+
+        persistedUser.setAddress(null);
+
+        final Response response = update(persistedUser);
+
+        assertEmptyResponse(response);
+
+        steps.then_the_user_should_be_updated(persistedUser);
+    }
+
+    @Test
+    public void I_can_add_an_address_to_a_user() throws Exception {
+
+        final User user = userOne();
+        user.setAddress(null);
+
+        final User persistedUserOne = steps.given_a_user_has_been_persisted(user);
+        persistedUserOne.setAddress(addressOne());
+
+        final Response response = update(persistedUserOne);
+
+        assertEmptyResponse(response);
+
+        steps.then_the_user_should_be_updated(persistedUserOne);
+    }
+
+    @Test
+    public void I_can_retrieve_a_user_after_it_has_been_updated() throws Exception {
+
+        assertEquals(persistedUser, retrieve(persistedUser.getId()).readEntity(User.class));
+
+        persistedUser.setFirstName(FIRST_NAME_ONE);
+        persistedUser.setLastName(LAST_NAME_ONE);
+
+        assertEmptyResponse(update(persistedUser));
+
+        final User user = retrieve(persistedUser.getId()).readEntity(User.class);
+
+        assertEquals(FIRST_NAME_ONE, user.getFirstName());
+        assertEquals(LAST_NAME_ONE, user.getLastName());
+    }
+
+    @Test
+    public void I_can_update_a_user_that_has_not_changed_since_it_was_retrieved() throws Exception {
+
+        final Response retrieved = retrieve(persistedUser.getId());
+        retrieved.readEntity(User.class);
+
+        persistedUser.setFirstName(FIRST_NAME_ONE);
+
+        assertEmptyResponse(update(persistedUser, retrieved.getHeaderString("ETag")));
+
+        steps.then_the_user_should_be_updated(persistedUser);
+
+        assertNotEquals(retrieved.getHeaderString("ETag"), retrieve(persistedUser.getId()).getHeaderString("ETag"));
+    }
+
+    @Test
+    public void I_cannot_update_a_user_that_has_changed_since_it_was_retrieved() throws Exception {
+
+        final Response retrieved = retrieve(persistedUser.getId());
+        retrieved.readEntity(User.class);
+
+        final String eTag = retrieved.getHeaderString("ETag");
+
+        persistedUser.setFirstName(FIRST_NAME_ONE);
+        assertEmptyResponse(update(persistedUser, eTag));
+
+        final User staleUser = new User(persistedUser);
+        staleUser.setLastName(LAST_NAME_ONE);
+
+        assertErrorResponse(PRECONDITION_FAILED, update(staleUser, eTag));
+        assertErrorResponse(PRECONDITION_FAILED, update(staleUser, "\"invalid\""));
+
+        steps.then_the_user_should_be_updated(persistedUser);
+    }
+
     @Test
     public void I_cannot_update_a_user_with_no_data() throws Exception {
 
@@ -434,6 +851,99 @@ public class UserControllerTest {
         assertErrorResponse(BAD_REQUEST, notFound);
     }
 
+    @Test
+    public void I_can_patch_a_user() throws Exception {
+
+        final Long addressId = persistedUser.getAddress().getId();
+
+        assertEmptyResponse(patch(persistedUser.getId(), "{\"phoneNumber\": \"5559999\"}"));
+
+        persistedUser.setPhoneNumber("5559999");
+
+        steps.then_the_user_should_be_updated(persistedUser);
+
+        // The address should have been left alone.
+        assertEquals(addressId, retrieve(persistedUser.getId()).readEntity(User.class).getAddress().getId());
+    }
+
+    @Test
+    public void I_can_patch_the_address_of_a_user() throws Exception {
+
+        assertEmptyResponse(patch(persistedUser.getId(), "{\"address\": {\"city\": \"Patchville\"}}"));
+
+        final Address address = persistedUser.getAddress();
+        address.setCity("Patchville");
+        persistedUser.setAddress(address);
+
+        steps.then_the_user_should_be_updated(persistedUser);
+    }
+
+    @Test
+    public void I_can_clear_a_field_of_a_user_with_a_patch() throws Exception {
+
+        assertEmptyResponse(patch(persistedUser.getId(), "{\"phoneNumber\": null}"));
+
+        persistedUser.setPhoneNumber(null);
+
+        steps.then_the_user_should_be_updated(persistedUser);
+    }
+
+    @Test
+    public void I_can_remove_the_address_from_a_user_with_a_patch() throws Exception {
+
+        assertEmptyResponse(patch(persistedUser.getId(), "{\"address\": null}"));
+
+        persistedUser.setAddress(null);
+
+        steps.then_the_user_should_be_updated(persistedUser);
+    }
+
+    @Test
+    public void I_can_add_an_address_to_a_user_with_a_patch() throws Exception {
+
+        final User user = userOne();
+        user.setAddress(null);
+
+        final User persistedUserOne = steps.given_a_user_has_been_persisted(user);
+
+        assertEmptyResponse(
+                patch(persistedUserOne.getId(), "{\"address\": {\"number\": 5, \"city\": \"Patchville\"}}"));
+
+        persistedUserOne.setAddress(new Address(5, null, null, "Patchville", null));
+
+        steps.then_the_user_should_be_updated(persistedUserOne);
+    }
+
+    @Test
+    public void I_cannot_patch_a_user_to_have_no_email() throws Exception {
+
+        assertErrorResponse(BAD_REQUEST, patch(persistedUser.getId(), "{\"email\": null}"));
+    }
+
+    @Test
+    public void I_cannot_patch_an_unknown_field_of_a_user() throws Exception {
+
+        assertErrorResponse(BAD_REQUEST, patch(persistedUser.getId(), "{\"password\": \"secret\"}"));
+        assertErrorResponse(BAD_REQUEST, patch(persistedUser.getId(), "{\"address\": {\"number\": \"five\"}}"));
+    }
+
+    @Test
+    public void I_cannot_patch_a_user_with_an_invalid_id() throws Exception {
+
+        assertErrorResponse(NOT_FOUND, patch(-1L, "{\"firstName\": \"Patched\"}"));
+    }
+
+    @Test
+    public void I_cannot_patch_a_user_that_has_changed_since_it_was_retrieved() throws Exception {
+
+        final Response retrieved = retrieve(persistedUser.getId());
+        final String eTag = retrieved.getHeaderString("ETag");
+        retrieved.readEntity(String.class);
+
+        assertEmptyResponse(patch(persistedUser.getId(), "{\"firstName\": \"Patched\"}", eTag));
+        assertErrorResponse(PRECONDITION_FAILED, patch(persistedUser.getId(), "{\"lastName\": \"Patched\"}", eTag));
+    }
+
     @Test
     public void I_can_delete_a_user() throws Exception {
 
@@ -444,6 +954,26 @@ public class UserControllerTest {
         steps.then_the_user_should_no_longer_be_persisted(persistedUser);
     }
 
+    @Test
+    public void I_cannot_retrieve_a_user_after_it_has_been_deleted() throws Exception {
+
+        assertStatus(OK, retrieve(persistedUser.getId()));
+
+        assertEmptyResponse(delete(persistedUser));
+
+        assertErrorResponse(NOT_FOUND, retrieve(persistedUser.getId()));
+    }
+
+    @Test
+    public void I_cannot_retrieve_any_users_after_they_have_all_been_deleted() throws Exception {
+
+        assertStatus(OK, retrieve(persistedUser.getId()));
+
+        assertEmptyResponse(delete());
+
+        assertErrorResponse(NOT_FOUND, retrieve(persistedUser.getId()));
+    }
+
     @Test
     public void I_cannot_delete_a_user_with_an_invalid_id() throws Exception {
 
@@ -478,6 +1008,15 @@ public class UserControllerTest {
                 .post(entity(user, MediaType.APPLICATION_JSON_TYPE));
     }
 
+    private Response createBatch(List<User> users) {
+        return target.path("batch").request(MediaType.APPLICATION_JSON_TYPE)
+                .post(entity(users, MediaType.APPLICATION_JSON_TYPE));
+    }
+
+    private static Id batchId(Map<String, ?> result) {
+        return new Id(((Number) result.get("id")).longValue());
+    }
+
     private Response retrieve(Long id) {
         return retrieve(id.toString());
     }
@@ -486,14 +1025,42 @@ public class UserControllerTest {
         return retrieve("");
     }
 
+    private Response retrievePage(int limit) {
+        return target.queryParam("limit", limit).request(MediaType.APPLICATION_JSON_TYPE).get();
+    }
+
+    private Response retrieveIds(Long... ids) {
+
+        final StringBuilder joined = new StringBuilder();
+
+        for (Long id : ids) {
+            joined.append(0 == joined.length() ? "" : ",").append(id);
+        }
+
+        return target.queryParam("ids", joined).request(MediaType.APPLICATION_JSON_TYPE).get();
+    }
+
     private Response retrieve(String id) {
         return target.path(id).request(MediaType.APPLICATION_JSON_TYPE).get();
     }
 
+    private Response retrieve(Long id, String header, String value) {
+        return retrieve(id.toString(), header, value);
+    }
+
+    private Response retrieve(String id, String header, String value) {
+        return target.path(id).request(MediaType.APPLICATION_JSON_TYPE).header(header, value).get();
+    }
+
     private Response update(User user) {
         return update(user.getId(), user);
     }
 
+    private Response update(User user, String ifMatch) {
+        return target.path(user.getId().toString()).request().header("If-Match", ifMatch)
+                .put(entity(user, MediaType.APPLICATION_JSON_TYPE));
+    }
+
     private Response update(Long id, Object user) {
         return update(id.toString(), user);
     }
@@ -502,6 +1069,17 @@ public class UserControllerTest {
         return target.path(id).request().put(entity(user, MediaType.APPLICATION_JSON_TYPE));
     }
 
+    private Response patch(Long id, String patch) {
+        return patch(id, patch, null);
+    }
+
+    private Response patch(Long id, String patch, String ifMatch) {
+
+        // HttpURLConnection doesn't support PATCH without this workaround.
+        return target.path(id.toString()).property(HttpUrlConnectorProvider.SET_METHOD_WORKAROUND, true).request()
+                .header("If-Match", ifMatch).method("PATCH", entity(patch, "application/merge-patch+json"));
+    }
+
     private Response delete(User user) {
         return delete(user.getId());
     }
@@ -539,4 +1117,18 @@ public class UserControllerTest {
     private static void assertStatus(Status status, Response response) {
         assertEquals(status.getReasonPhrase(), response.getStatusInfo().getReasonPhrase());
     }
+
+    private static Map<String, Object> lastNameAndCity(User user) {
+
+        final Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("lastName", user.getLastName());
+        fields.put("address", null == user.getAddress() ? null : singletonMap("city", user.getAddress().getCity()));
+
+        return fields;
+    }
+
+    public static class IdsResponse {
+        public List<User> users;
+        public List<Long> missing;
+    }
 }
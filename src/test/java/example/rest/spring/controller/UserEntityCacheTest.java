@@ -0,0 +1,185 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.controller;
+
+import example.rest.spring.SpringBootRestServlet;
+import example.rest.spring.data.Address;
+import example.rest.spring.data.User;
+import example.rest.spring.data.UserSteps;
+import org.glassfish.jersey.client.HttpUrlConnectorProvider;
+import org.hibernate.jpa.HibernateEntityManagerFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.IntegrationTest;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import javax.persistence.EntityManagerFactory;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.Map;
+
+import static example.rest.spring.data.Users.user;
+import static java.lang.String.format;
+import static java.util.Collections.singletonMap;
+import static javax.ws.rs.client.Entity.entity;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the users are read from the Hibernate second-level cache and that the cache never serves a user that has
+ * since been changed. The user cache is disabled so that every retrieve reaches the entity manager.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = SpringBootRestServlet.class)
+@WebAppConfiguration("classpath:")
+@IntegrationTest({"server.port=0", "management.port=0", "users.cache.maximum-size=0",
+        "spring.jpa.properties.hibernate.generate_statistics=true"})
+public class UserEntityCacheTest {
+
+    @Value("${local.server.port}")
+    private int port;
+
+    @Autowired
+    private UserSteps steps;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    private WebTarget target;
+
+    @Before
+    public void setup() {
+
+        steps.all_users_are_cleaned_up();
+
+        // The cache regions are shared by every application context in the JVM, and the other tests change the users
+        // directly in the database behind the cache's back.
+        entityManagerFactory.getCache().evictAll();
+
+        statistics = ((HibernateEntityManagerFactory) entityManagerFactory).getSessionFactory().getStatistics();
+
+        target = ClientBuilder.newClient().target(format("http://localhost:%d/rest/", port));
+    }
+
+    @Test
+    public void Retrieving_a_user_a_second_time_issues_no_statements() {
+
+        final User user = steps.given_a_user_has_been_persisted();
+
+        assertEquals(user, retrieve(user));
+
+        statistics.clear();
+
+        assertEquals(user, retrieve(user));
+        assertEquals(0, statistics.getPrepareStatementCount());
+        assertEquals(2, statistics.getSecondLevelCacheHitCount());
+    }
+
+    @Test
+    public void I_can_retrieve_a_cached_user_after_it_has_been_updated() {
+
+        final User user = steps.given_a_user_has_been_persisted();
+
+        retrieve(user);
+
+        user.setLastName("Updated");
+        final Address address = user.getAddress();
+        address.setCity("Updated City");
+        user.setAddress(address);
+
+        final Response response = users().path(user.getId().toString()).request()
+                .put(entity(user, MediaType.APPLICATION_JSON_TYPE));
+        assertEquals(204, response.getStatus());
+
+        assertEquals(user, retrieve(user));
+    }
+
+    @Test
+    public void I_can_retrieve_a_cached_user_after_it_has_been_patched() {
+
+        final User user = steps.given_a_user_has_been_persisted();
+
+        retrieve(user);
+
+        // HttpURLConnection doesn't support PATCH without this workaround.
+        final Response response = users().path(user.getId().toString())
+                .property(HttpUrlConnectorProvider.SET_METHOD_WORKAROUND, true).request()
+                .method("PATCH", entity(singletonMap("firstName", "Patched"), "application/merge-patch+json"));
+        assertEquals(204, response.getStatus());
+
+        user.setFirstName("Patched");
+
+        assertEquals(user, retrieve(user));
+    }
+
+    @Test
+    public void I_cannot_retrieve_a_cached_user_after_it_has_been_deleted() {
+
+        final User user = steps.given_a_user_has_been_persisted();
+
+        retrieve(user);
+
+        assertEquals(204, users().path(user.getId().toString()).request().delete().getStatus());
+
+        assertEquals(404, users().path(user.getId().toString()).request(MediaType.APPLICATION_JSON_TYPE).get()
+                .getStatus());
+    }
+
+    @Test
+    public void I_can_retrieve_the_entity_cache_statistics() {
+
+        final User user = steps.given_a_user_has_been_persisted(user());
+
+        retrieve(user);
+        retrieve(user);
+
+        final Map<?, ?> stats = target.path("stats/entity-cache").request(MediaType.APPLICATION_JSON_TYPE)
+                .get(Map.class);
+
+        for (String region : new String[]{"User", "Address"}) {
+            final Map<?, ?> regionStats = (Map<?, ?>) stats.get(region);
+
+            assertTrue(((Number) regionStats.get("size")).longValue() > 0);
+            assertTrue(((Number) regionStats.get("hitCount")).longValue() > 0);
+            assertEquals(10000, ((Number) regionStats.get("maximumSize")).intValue());
+        }
+    }
+
+    private WebTarget users() {
+
+        return target.path("users");
+    }
+
+    private User retrieve(User user) {
+
+        final Response response = users().path(user.getId().toString()).request(MediaType.APPLICATION_JSON_TYPE).get();
+
+        assertEquals(200, response.getStatus());
+
+        return response.readEntity(User.class);
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.controller;
+
+import example.rest.spring.SpringBootRestServlet;
+import example.rest.spring.data.Address;
+import example.rest.spring.data.User;
+import example.rest.spring.data.UserSteps;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.IntegrationTest;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import javax.sql.DataSource;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.String.format;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the list of users can be filtered and sorted, both when it is streamed and when it is paged. The stream
+ * batch size is small so that every stream is read in more than one batch.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = SpringBootRestServlet.class)
+@WebAppConfiguration("classpath:")
+@IntegrationTest({"server.port=0", "management.port=0", "users.stream.batch-size=2",
+        "spring.jpa.properties.hibernate.cache.use_second_level_cache=false"})
+public class UserFilterTest {
+
+    @Value("${local.server.port}")
+    private int port;
+
+    @Autowired
+    private UserSteps steps;
+
+    @Autowired
+    private DataSource dataSource;
+
+    private Client client;
+
+    private WebTarget target;
+
+    private User smithAuckland;
+
+    private User jonesWellington;
+
+    private User smithWellington;
+
+    private User brownAuckland;
+
+    private User smithHomeless;
+
+    @Before
+    public void setup() {
+
+        steps.all_users_are_cleaned_up();
+
+        smithAuckland = persist("smith.auckland", "Smith",
+                new Address(1, "Queen Street", "Ponsonby", "Auckland", "1011"));
+        jonesWellington = persist("jones.wellington", "Jones",
+                new Address(2, "Cuba Street", "Te Aro", "Wellington", "6011"));
+        smithWellington = persist("smith.wellington", "Smith",
+                new Address(3, "Glasgow Street", "Kelburn", "Wellington", "6012"));
+        brownAuckland = persist("brown.auckland", "Brown",
+                new Address(4, "Ponsonby Road", "Ponsonby", "Auckland", "1011"));
+        smithHomeless = persist("smith.homeless", "Smith", null);
+
+        client = ClientBuilder.newClient();
+        target = client.target(format("http://localhost:%d/rest/users", port));
+    }
+
+    @Test
+    public void I_can_filter_the_users_by_their_last_name() {
+
+        assertEquals(asList(smithAuckland, smithWellington, smithHomeless),
+                retrieve(target.queryParam("lastName", "Smith")));
+    }
+
+    @Test
+    public void I_can_filter_the_users_by_their_address() {
+
+        assertEquals(asList(smithAuckland, brownAuckland), retrieve(target.queryParam("city", "Auckland")));
+        assertEquals(asList(smithWellington), retrieve(target.queryParam("postcode", "6012")));
+        assertEquals(asList(brownAuckland),
+                retrieve(target.queryParam("suburb", "Ponsonby").queryParam("lastName", "Brown")));
+        assertEquals(asList(), retrieve(target.queryParam("city", "Christchurch")));
+    }
+
+    @Test
+    public void I_can_sort_the_users() {
+
+        assertEquals(asList(brownAuckland, jonesWellington, smithHomeless, smithWellington, smithAuckland),
+                retrieve(target.queryParam("sort", "lastName,-id")));
+    }
+
+    @Test
+    public void I_can_sort_the_users_by_their_address() {
+
+        assertEquals(asList(smithHomeless, smithAuckland, brownAuckland, jonesWellington, smithWellington),
+                retrieve(target.queryParam("sort", "city")));
+        assertEquals(asList(jonesWellington, smithWellington, smithAuckland, brownAuckland, smithHomeless),
+                retrieve(target.queryParam("sort", "-city")));
+    }
+
+    @Test
+    public void I_can_page_through_the_filtered_and_sorted_users() {
+
+        assertEquals(asList(brownAuckland, jonesWellington, smithHomeless, smithWellington, smithAuckland),
+                retrievePages(target.queryParam("sort", "lastName,-id").queryParam("limit", 2)));
+        assertEquals(asList(smithHomeless, smithAuckland, brownAuckland, jonesWellington, smithWellington),
+                retrievePages(target.queryParam("sort", "city").queryParam("limit", 2)));
+        assertEquals(asList(jonesWellington, smithWellington, smithAuckland, brownAuckland, smithHomeless),
+                retrievePages(target.queryParam("sort", "-city").queryParam("limit", 2)));
+        assertEquals(asList(smithAuckland, smithWellington, smithHomeless),
+                retrievePages(target.queryParam("lastName", "Smith").queryParam("limit", 1)));
+    }
+
+    @Test
+    public void I_can_filter_just_some_fields_of_the_users() {
+
+        final Response response = target.queryParam("city", "Wellington").queryParam("fields", "email")
+                .request(MediaType.APPLICATION_JSON_TYPE).get();
+
+        assertEquals(200, response.getStatus());
+
+        final List<Map<String, ?>> users = response.readEntity(new GenericType<List<Map<String, ?>>>() {
+        });
+
+        assertEquals(2, users.size());
+        assertEquals(jonesWellington.getEmail(), users.get(0).get("email"));
+        assertEquals(smithWellington.getEmail(), users.get(1).get("email"));
+    }
+
+    @Test
+    public void I_cannot_sort_the_users_by_an_unknown_field() {
+
+        assertEquals(400, target.queryParam("sort", "phoneNumber").request(MediaType.APPLICATION_JSON_TYPE).get()
+                .getStatus());
+        assertEquals(400, target.queryParam("sort", "lastName,-lastName").request(MediaType.APPLICATION_JSON_TYPE)
+                .get().getStatus());
+    }
+
+    @Test
+    public void The_filtered_and_sorted_columns_are_indexed() {
+
+        final List<String> indexes = new JdbcTemplate(dataSource).queryForList(
+                "SELECT DISTINCT INDEX_NAME FROM INFORMATION_SCHEMA.INDEXES", String.class);
+
+        for (String index : asList("USER_LAST_NAME_ID", "USER_FIRST_NAME_ID", "USER_EMAIL_ID", "ADDRESS_CITY",
+                "ADDRESS_POSTCODE", "ADDRESS_SUBURB")) {
+            assertTrue(format("%s should be in %s.", index, indexes), indexes.contains(index));
+        }
+    }
+
+    private User persist(String name, String lastName, Address address) {
+
+        return steps.given_a_user_has_been_persisted(
+                new User(name + "@filter.test", "Filter", lastName, "5551234", address));
+    }
+
+    private static List<User> retrieve(WebTarget target) {
+
+        final Response response = target.request(MediaType.APPLICATION_JSON_TYPE).get();
+
+        assertEquals(200, response.getStatus());
+
+        return response.readEntity(new GenericType<List<User>>() {
+        });
+    }
+
+    private List<User> retrievePages(WebTarget target) {
+
+        final List<User> users = new ArrayList<>();
+
+        for (WebTarget page = target; null != page; ) {
+
+            final Response response = page.request(MediaType.APPLICATION_JSON_TYPE).get();
+
+            assertEquals(200, response.getStatus());
+
+            users.addAll(response.readEntity(new GenericType<List<User>>() {
+            }));
+
+            final String link = response.getHeaderString("Link");
+
+            page = null == link ? null : client.target(link.substring(link.indexOf('<') + 1, link.indexOf('>')));
+        }
+
+        return users;
+    }
+}
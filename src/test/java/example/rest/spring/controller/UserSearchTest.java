@@ -0,0 +1,296 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.controller;
+
+import example.rest.spring.SpringBootRestServlet;
+import example.rest.spring.data.Id;
+import example.rest.spring.data.User;
+import example.rest.spring.data.UserSteps;
+import example.rest.spring.data.UserViews;
+import org.glassfish.jersey.client.HttpUrlConnectorProvider;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.IntegrationTest;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static example.rest.spring.data.Users.user;
+import static example.rest.spring.data.Users.userOne;
+import static example.rest.spring.data.Users.userThree;
+import static example.rest.spring.data.Users.userTwo;
+import static java.lang.String.format;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static javax.ws.rs.client.Entity.entity;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the users can be searched for by their emails and names, and that the search index is kept up to date by
+ * every change made through the endpoints.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = SpringBootRestServlet.class)
+@WebAppConfiguration("classpath:")
+@IntegrationTest({"server.port=0", "management.port=0", "users.search.default-limit=5",
+        "users.search.max-limit=10", "users.views.reorder-window-millis=1000",
+        "spring.jpa.properties.hibernate.cache.use_second_level_cache=false"})
+public class UserSearchTest {
+
+    @Value("${local.server.port}")
+    private int port;
+
+    @Autowired
+    private UserSteps steps;
+
+    @Autowired
+    private UserViews views;
+
+    private WebTarget target;
+
+    private User user;
+
+    private User userOne;
+
+    private User userTwo;
+
+    private User userThree;
+
+    @Before
+    public void setup() {
+
+        steps.all_users_are_cleaned_up();
+
+        user = steps.given_a_user_has_been_persisted(user());
+        userOne = steps.given_a_user_has_been_persisted(userOne());
+        userTwo = steps.given_a_user_has_been_persisted(userTwo());
+        userThree = steps.given_a_user_has_been_persisted(userThree());
+
+        // The users were inserted straight into the database so the index has to be built again, just like at startup.
+        views.rebuild();
+
+        target = ClientBuilder.newClient().target(format("http://localhost:%d/rest/users", port));
+    }
+
+    @Test
+    public void I_can_search_for_users_by_the_start_of_their_email() {
+
+        assertEquals(asList(userTwo, userThree), search("TEST@email.t"));
+        assertEquals(singletonList(userOne), search("test@email.o"));
+    }
+
+    @Test
+    public void I_can_search_for_users_by_part_of_their_name() {
+
+        assertEquals(singletonList(userTwo), search("ser2"));
+        assertEquals(emptyList(), search("ser9"));
+    }
+
+    @Test
+    public void Search_terms_of_less_than_three_characters_only_match_the_start_of_a_field() {
+
+        assertEquals(asList(user, userOne, userTwo, userThree), search("te"));
+        assertEquals(emptyList(), search("er"));
+    }
+
+    @Test
+    public void Exact_matches_are_ranked_above_prefix_and_substring_matches() {
+
+        final User two = user();
+        two.setEmail("some.one@search.test");
+        two.setFirstName("Two");
+        two.setLastName("Other");
+        two.setId(create(two));
+
+        assertEquals(asList(two.getId(), userTwo.getId()), ids(search("two")));
+        assertEquals(asList(user, userOne, userTwo, userThree), search("user"));
+    }
+
+    @Test
+    public void I_can_search_for_users_that_match_every_term() {
+
+        assertEquals(singletonList(userThree), search("test3 user3"));
+        assertEquals(emptyList(), search("test3 user2"));
+    }
+
+    @Test
+    public void I_can_limit_the_number_of_users_that_are_found() {
+
+        final WebTarget search = target.path("search").queryParam("q", "user").queryParam("limit", 2);
+
+        assertEquals(asList(user, userOne), found(search));
+    }
+
+    @Test
+    public void I_can_search_for_just_some_fields_of_the_users() {
+
+        final WebTarget search = target.path("search").queryParam("q", "ser1").queryParam("fields", "email");
+
+        final List<Map<String, ?>> users = get(search).readEntity(new GenericType<List<Map<String, ?>>>() {
+        });
+
+        assertEquals(1, users.size());
+        assertEquals(userOne.getEmail(), users.get(0).get("email"));
+        assertEquals(null, users.get(0).get("firstName"));
+    }
+
+    @Test
+    public void I_can_search_for_a_user_after_it_has_been_created_changed_and_deleted() {
+
+        final User created = user();
+        created.setEmail("new.person@search.test");
+        created.setFirstName("Searchable");
+
+        created.setId(create(created));
+
+        assertEquals(singletonList(created.getId()), ids(search("searchab")));
+
+        assertEquals(204, target.path(created.getId().toString())
+                .property(HttpUrlConnectorProvider.SET_METHOD_WORKAROUND, true).request()
+                .method("PATCH", entity("{\"firstName\": \"Renamed\"}", "application/merge-patch+json")).getStatus());
+
+        assertEquals(emptyList(), search("searchab"));
+        assertEquals(singletonList(created.getId()), ids(search("renam")));
+
+        created.setFirstName("Replaced");
+        assertEquals(204, target.path(created.getId().toString()).request()
+                .put(entity(created, MediaType.APPLICATION_JSON_TYPE)).getStatus());
+
+        assertEquals(emptyList(), search("renam"));
+        assertEquals(singletonList(created.getId()), ids(search("new.person replaced")));
+
+        assertEquals(204, target.path(created.getId().toString()).request().delete().getStatus());
+
+        assertEquals(emptyList(), search("new.person"));
+    }
+
+    @Test
+    public void An_update_that_arrives_after_a_newer_update_or_a_delete_is_ignored() {
+
+        final User newer = new User(userOne);
+        newer.setFirstName("Newer");
+        newer.setVersion(2L);
+
+        final User older = new User(userOne);
+        older.setFirstName("Older");
+        older.setVersion(1L);
+
+        // The index is updated after each change has been committed, so a slow update can arrive after a later one.
+        views.put(newer);
+        views.put(older);
+
+        assertEquals(singletonList(userOne.getId()), ids(search("newer")));
+        assertEquals(emptyList(), search("older"));
+
+        views.remove(userOne.getId());
+
+        newer.setVersion(3L);
+        views.put(newer);
+
+        assertEquals(emptyList(), search("newer"));
+    }
+
+    @Test
+    public void Deleted_users_are_only_remembered_until_a_late_update_can_no_longer_arrive()
+            throws InterruptedException {
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(204, target.request().delete().getStatus());
+            create(user());
+        }
+        assertEquals(204, target.request().delete().getStatus());
+
+        // Deleting every user only raises a watermark, so it doesn't remember any of the deleted users.
+        assertEquals(0, views.getRemovedCount());
+
+        views.put(userOne);
+        assertEquals(emptyList(), search("ser1"));
+
+        final Long id = create(user());
+        assertEquals(singletonList(id), ids(search("test@email.com")));
+
+        assertEquals(204, target.path(id.toString()).request().delete().getStatus());
+        assertEquals(1, views.getRemovedCount());
+
+        Thread.sleep(1100);
+
+        assertEquals(0, views.getRemovedCount());
+    }
+
+    @Test
+    public void I_cannot_search_with_a_blank_query_or_an_invalid_limit() {
+
+        assertEquals(400, target.path("search").queryParam("q", " ").request().get().getStatus());
+        assertEquals(400, target.path("search").queryParam("q", "user").queryParam("limit", 0).request().get()
+                .getStatus());
+        assertEquals(400, target.path("search").queryParam("q", "user").queryParam("limit", 11).request().get()
+                .getStatus());
+    }
+
+    private Long create(User user) {
+
+        final Response response = target.request(MediaType.APPLICATION_JSON_TYPE)
+                .post(entity(user, MediaType.APPLICATION_JSON_TYPE));
+
+        assertEquals(201, response.getStatus());
+
+        return response.readEntity(Id.class).getId();
+    }
+
+    private List<User> search(String query) {
+
+        return found(target.path("search").queryParam("q", query));
+    }
+
+    private static List<User> found(WebTarget search) {
+
+        return get(search).readEntity(new GenericType<List<User>>() {
+        });
+    }
+
+    private static Response get(WebTarget search) {
+
+        final Response response = search.request(MediaType.APPLICATION_JSON_TYPE).get();
+
+        assertEquals(200, response.getStatus());
+
+        return response;
+    }
+
+    private static List<Long> ids(List<User> users) {
+
+        final List<Long> ids = new ArrayList<>();
+        for (User user : users) {
+            ids.add(user.getId());
+        }
+
+        return ids;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.controller;
+
+import example.rest.spring.SpringBootRestServlet;
+import example.rest.spring.data.User;
+import example.rest.spring.data.UserSteps;
+import org.hibernate.jpa.HibernateEntityManagerFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.IntegrationTest;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import javax.persistence.EntityManagerFactory;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+
+import static example.rest.spring.data.Users.user;
+import static java.lang.String.format;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Guards against the list endpoints issuing a statement per user, for instance to load each users address.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = SpringBootRestServlet.class)
+@WebAppConfiguration("classpath:")
+@IntegrationTest({"server.port=0", "management.port=0", "users.stream.batch-size=5", "users.cache.maximum-size=0",
+        "spring.jpa.properties.hibernate.generate_statistics=true"})
+public class UserStatementCountTest {
+
+    private static final int USERS = 20;
+
+    @Value("${local.server.port}")
+    private int port;
+
+    @Autowired
+    private UserSteps steps;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    private WebTarget target;
+
+    private final List<Long> ids = new ArrayList<>();
+
+    @Before
+    public void setup() {
+
+        steps.all_users_are_cleaned_up();
+
+        for (int i = 0; i < USERS; i++) {
+            final User user = user();
+            user.setEmail(format("user%d@email.com", i));
+            ids.add(steps.given_a_user_has_been_persisted(user).getId());
+        }
+
+        statistics = ((HibernateEntityManagerFactory) entityManagerFactory).getSessionFactory().getStatistics();
+
+        target = ClientBuilder.newClient().target(format("http://localhost:%d/rest/", port)).path("users");
+    }
+
+    @Test
+    public void Retrieving_all_the_users_issues_one_statement_per_batch() throws Exception {
+
+        statistics.clear();
+
+        assertEquals(USERS, readUsers(target.request(MediaType.APPLICATION_JSON_TYPE).get()));
+
+        // Four full batches of five users and then an empty batch.
+        assertStatements(5);
+    }
+
+    @Test
+    public void Retrieving_a_page_of_users_issues_one_statement() throws Exception {
+
+        statistics.clear();
+
+        assertEquals(10, readUsers(target.queryParam("limit", 10).request(MediaType.APPLICATION_JSON_TYPE).get()));
+
+        assertStatements(1);
+    }
+
+    @Test
+    public void Retrieving_some_fields_of_a_page_of_users_issues_one_statement_and_loads_no_users() throws Exception {
+
+        statistics.clear();
+
+        final Response response = target.queryParam("limit", 10).queryParam("fields", "email,firstName")
+                .request(MediaType.APPLICATION_JSON_TYPE).get();
+
+        assertEquals(10, readUsers(response));
+
+        assertStatements(1);
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    @Test
+    public void Retrieving_many_users_at_once_issues_one_statement() throws Exception {
+
+        final StringBuilder joined = new StringBuilder();
+        for (Long id : ids.subList(0, 10)) {
+            joined.append(0 == joined.length() ? "" : ",").append(id);
+        }
+
+        statistics.clear();
+
+        final Response response = target.queryParam("ids", joined).request(MediaType.APPLICATION_JSON_TYPE).get();
+
+        assertEquals(200, response.getStatus());
+        response.readEntity(String.class);
+
+        assertStatements(1);
+    }
+
+    @Test
+    public void Conditionally_retrieving_an_unchanged_user_issues_one_statement_and_loads_no_users() throws Exception {
+
+        statistics.clear();
+
+        final Response response = target.path(ids.get(0).toString()).request(MediaType.APPLICATION_JSON_TYPE)
+                .header("If-None-Match", "\"0\"").get();
+
+        assertEquals(304, response.getStatus());
+        response.close();
+
+        assertStatements(1);
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    private static int readUsers(Response response) {
+
+        assertEquals(200, response.getStatus());
+
+        return response.readEntity(new GenericType<List<User>>() {
+        }).size();
+    }
+
+    private void assertStatements(int max) {
+
+        final long statements = statistics.getPrepareStatementCount();
+
+        assertTrue(format("expected at most %d statements but %d were issued.", max, statements), statements <= max);
+    }
+}
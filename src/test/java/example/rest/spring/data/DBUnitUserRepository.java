@@ -26,6 +26,7 @@ import org.dbunit.dataset.ITable;
 import org.dbunit.operation.DatabaseOperation;
 
 import javax.sql.DataSource;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.concurrent.Callable;
 
@@ -112,12 +113,34 @@ public class DBUnitUserRepository {
 
     private void createUser(String email, String firstName, String lastName, String phoneNumber, Long addressId) {
 
-        operation(userTable(), DatabaseOperation.INSERT, null, email, firstName, lastName, phoneNumber, addressId);
+        operation(userTable(), DatabaseOperation.INSERT, nextId(), email, firstName, lastName, phoneNumber, addressId,
+                0L);
     }
 
     private void createAddress(Integer number, String street, String suburb, String city, String postcode) {
 
-        operation(addressTable(), DatabaseOperation.INSERT, null, number, street, suburb, city, postcode);
+        operation(addressTable(), DatabaseOperation.INSERT, nextId(), number, street, suburb, city, postcode, 0L);
+    }
+
+    /**
+     * The ID's are generated from a pooled sequence, each value from the sequence is the top of a block of ID's that
+     * will never be handed out to anyone else so it is safe to use it directly.
+     */
+    private Long nextId() {
+
+        return wrapCheckedException(new WithConnection<Long>() {
+            @Override
+            public Long call(IDatabaseConnection connection) throws SQLException {
+
+                try (ResultSet resultSet = connection.getConnection().createStatement()
+                        .executeQuery("SELECT NEXT VALUE FOR id_sequence")) {
+
+                    resultSet.next();
+
+                    return resultSet.getLong(1);
+                }
+            }
+        });
     }
 
     private void operation(final DefaultTable table, final DatabaseOperation operation, final Object... values) {
@@ -35,6 +35,7 @@ public class DBUnits {
     public static final String LAST_NAME = "last_name";
     public static final String PHONE_NUMBER = "phone_number";
     public static final String ADDRESS_ID = "address_id";
+    public static final String VERSION = "version";
 
     public static final String NUMBER = "number";
     public static final String STREET = "street";
@@ -111,8 +112,9 @@ public class DBUnits {
         final Column lastName = new Column(LAST_NAME, DataType.VARCHAR);
         final Column phoneNumber = new Column(PHONE_NUMBER, DataType.VARCHAR);
         final Column addressId = new Column(ADDRESS_ID, DataType.BIGINT);
+        final Column version = new Column(VERSION, DataType.BIGINT);
 
-        final Column[] columns = {id, email, firstName, lastName, phoneNumber, addressId};
+        final Column[] columns = {id, email, firstName, lastName, phoneNumber, addressId, version};
 
         return new DefaultTable(USER, columns);
     }
@@ -125,8 +127,9 @@ public class DBUnits {
         final Column suburb = new Column(SUBURB, DataType.VARCHAR);
         final Column city = new Column(CITY, DataType.VARCHAR);
         final Column postcode = new Column(POSTCODE, DataType.VARCHAR);
+        final Column version = new Column(VERSION, DataType.BIGINT);
 
-        final Column[] columns = {id, number, street, suburb, city, postcode};
+        final Column[] columns = {id, number, street, suburb, city, postcode, version};
 
         return new DefaultTable(ADDRESS, columns);
     }
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static example.rest.spring.data.Users.user;
+import static example.rest.spring.data.Users.userOne;
+import static example.rest.spring.data.Users.userTwo;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class UserCacheTest {
+
+    @Test
+    public void A_cached_user_is_not_loaded_again() throws Exception {
+
+        final UserCache cache = new UserCache(10, 0);
+        final CountingLoader loader = new CountingLoader(user());
+
+        final User first = cache.get(1L, loader);
+        final User second = cache.get(1L, loader);
+
+        assertSame(first, second);
+        assertEquals(1, loader.count.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void Only_the_users_that_are_not_cached_are_loaded_together() throws Exception {
+
+        final UserCache cache = new UserCache(10, 0);
+        final User cached = cache.get(2L, new CountingLoader(withId(2L, userOne())));
+
+        final List<List<Long>> loads = new ArrayList<>();
+
+        final Map<Long, User> users = cache.getAll(asList(3L, 2L, 1L), new UserCache.BulkLoader() {
+            @Override
+            public List<User> load(List<Long> ids) {
+                loads.add(ids);
+                // User 1 doesn't exist.
+                return singletonList(withId(3L, userTwo()));
+            }
+        });
+
+        assertEquals(singletonList(asList(3L, 1L)), loads);
+        assertEquals(asList(3L, 2L), new ArrayList<>(users.keySet()));
+        assertSame(cached, users.get(2L));
+        assertEquals(2, cache.getSize());
+    }
+
+    @Test
+    public void A_missing_user_is_not_cached() throws Exception {
+
+        final UserCache cache = new UserCache(10, 0);
+        final CountingLoader loader = new CountingLoader(null);
+
+        assertNull(cache.get(1L, loader));
+        assertNull(cache.get(1L, loader));
+
+        assertEquals(2, loader.count.get());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void An_evicted_user_is_loaded_again() throws Exception {
+
+        final UserCache cache = new UserCache(10, 0);
+        final CountingLoader loader = new CountingLoader(user());
+
+        cache.get(1L, loader);
+        cache.evict(1L);
+        cache.get(1L, loader);
+
+        assertEquals(2, loader.count.get());
+    }
+
+    @Test
+    public void All_users_are_loaded_again_after_the_cache_is_cleared() throws Exception {
+
+        final UserCache cache = new UserCache(10, 0);
+        final CountingLoader loader = new CountingLoader(user());
+
+        cache.get(1L, loader);
+        cache.get(2L, loader);
+        cache.clear();
+        cache.get(1L, loader);
+        cache.get(2L, loader);
+
+        assertEquals(4, loader.count.get());
+    }
+
+    @Test
+    public void A_user_that_is_evicted_while_it_is_being_loaded_is_not_cached() throws Exception {
+
+        final UserCache cache = new UserCache(10, 0);
+        final CountingLoader loader = new CountingLoader(user());
+
+        cache.get(1L, new Callable<User>() {
+            @Override
+            public User call() throws Exception {
+                // Simulate an update that is committed after the stale user has been read.
+                final User user = loader.call();
+                cache.evict(1L);
+                return user;
+            }
+        });
+        cache.get(1L, loader);
+
+        assertEquals(2, loader.count.get());
+    }
+
+    @Test
+    public void A_rarely_requested_user_does_not_evict_a_popular_user() throws Exception {
+
+        final UserCache cache = new UserCache(2, 0);
+        final CountingLoader popular = new CountingLoader(user());
+        final CountingLoader rare = new CountingLoader(userTwo());
+
+        for (int i = 0; i < 5; i++) {
+            cache.get(1L, popular);
+            cache.get(2L, popular);
+        }
+
+        cache.get(3L, rare);
+        cache.get(1L, popular);
+        cache.get(2L, popular);
+
+        assertEquals(2, popular.count.get());
+        assertEquals(2, cache.getSize());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void A_frequently_requested_user_evicts_the_least_recently_used_user() throws Exception {
+
+        final UserCache cache = new UserCache(2, 0);
+        final CountingLoader loader = new CountingLoader(userOne());
+
+        cache.get(1L, loader);
+        cache.get(2L, loader);
+        cache.get(1L, loader);
+
+        for (int i = 0; i < 3; i++) {
+            cache.get(3L, loader);
+        }
+
+        final int loads = loader.count.get();
+
+        cache.get(1L, loader);
+        cache.get(3L, loader);
+
+        assertEquals(loads, loader.count.get());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void An_expired_user_is_loaded_again() throws Exception {
+
+        final UserCache cache = new UserCache(10, 1);
+        final CountingLoader loader = new CountingLoader(user());
+
+        cache.get(1L, loader);
+        Thread.sleep(1100);
+        cache.get(1L, loader);
+
+        assertEquals(2, loader.count.get());
+    }
+
+    @Test
+    public void The_cache_can_be_disabled() throws Exception {
+
+        final UserCache cache = new UserCache(0, 0);
+        final CountingLoader loader = new CountingLoader(user());
+
+        cache.get(1L, loader);
+        cache.get(1L, loader);
+
+        assertEquals(2, loader.count.get());
+    }
+
+    private static User withId(Long id, User user) {
+
+        user.setId(id);
+
+        return user;
+    }
+
+    private static class CountingLoader implements Callable<User> {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        private final User user;
+
+        private CountingLoader(User user) {
+            this.user = user;
+        }
+
+        @Override
+        public User call() throws Exception {
+
+            count.incrementAndGet();
+
+            return user;
+        }
+    }
+}
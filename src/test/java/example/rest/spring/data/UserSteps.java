@@ -44,13 +44,18 @@ public class UserSteps {
 
         final Id id = response.readEntity(Id.class);
 
+        then_the_user_should_be_persisted(id, expected);
+
+        return id;
+    }
+
+    public void then_the_user_should_be_persisted(Id id, User expected) {
+
         final User actual = dbUnitRepository.findOne(id);
 
         expected.setId(id.getId());
 
-        assertEquals("the user should be created.", nullAddressId(expected), nullAddressId(actual));
-
-        return id;
+        assertEquals("the user should be persisted.", nullAddressId(expected), nullAddressId(actual));
     }
 
     public void then_the_user_should_be_updated(User user) {
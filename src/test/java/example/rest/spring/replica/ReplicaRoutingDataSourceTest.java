@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.replica;
+
+import example.rest.spring.data.User;
+import example.rest.spring.data.UserCache;
+import example.rest.spring.data.UserChanges;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.Callable;
+
+import static example.rest.spring.data.Users.user;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+
+public class ReplicaRoutingDataSourceTest {
+
+    private final UserChanges changes = new UserChanges();
+
+    private final Replica replica = new Replica("replica-1", new DataSource());
+
+    // The replica is allowed to be a long way behind, as long as it has been synced at some point.
+    private final ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(new DataSource(),
+            singletonList(replica), changes, Long.MAX_VALUE - 1);
+
+    @Before
+    public void setup() {
+
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        replica.synced(0, System.currentTimeMillis());
+        changes.changed();
+    }
+
+    @After
+    public void tearDown() {
+
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+        routing.destroy();
+    }
+
+    @Test
+    public void A_read_can_be_sent_to_a_replica_that_is_within_the_maximum_lag() {
+
+        assertEquals(replica.getName(), routing.determineCurrentLookupKey());
+    }
+
+    @Test
+    public void A_read_that_fills_the_user_cache_is_only_sent_to_a_replica_that_has_every_change() throws Exception {
+
+        final UserCache cache = new UserCache(10, 0);
+
+        assertEquals("primary", lookupKeyWhileLoading(cache, 1L));
+
+        replica.synced(changes.getLatest().getCount(), System.currentTimeMillis());
+
+        assertEquals(replica.getName(), lookupKeyWhileLoading(cache, 2L));
+    }
+
+    private Object lookupKeyWhileLoading(UserCache cache, Long id) throws Exception {
+
+        final Object[] key = new Object[1];
+
+        cache.get(id, new Callable<User>() {
+            @Override
+            public User call() {
+                key[0] = routing.determineCurrentLookupKey();
+                return user();
+            }
+        });
+
+        return key[0];
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.replica;
+
+import example.rest.spring.SpringBootRestServlet;
+import example.rest.spring.data.Id;
+import example.rest.spring.data.User;
+import example.rest.spring.data.UserSteps;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.IntegrationTest;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+import javax.persistence.EntityManagerFactory;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import static example.rest.spring.data.Users.userOne;
+import static java.lang.String.format;
+import static javax.ws.rs.client.Entity.entity;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the application with the "replica" profile and checks where the reads and writes are sent. The replicas are only
+ * synced when the tests ask so that they can be made to fall behind. The user and entity caches are disabled so that
+ * every read reaches a database.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = SpringBootRestServlet.class)
+@WebAppConfiguration("classpath:")
+@ActiveProfiles("replica")
+@IntegrationTest({"server.port=0", "management.port=0", "users.cache.maximum-size=0",
+        "spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+        "datasource.replica.stand-in.sync-interval-millis=3600000"})
+public class ReplicaRoutingTest {
+
+    @Value("${local.server.port}")
+    private int port;
+
+    @Autowired
+    private UserSteps steps;
+
+    @Autowired
+    private ReplicaStandIn standIn;
+
+    @Resource
+    private List<Replica> replicas;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private WebTarget target;
+
+    private User persistedUser;
+
+    @Before
+    public void setup() throws SQLException {
+
+        steps.all_users_are_cleaned_up();
+        persistedUser = steps.given_a_user_has_been_persisted();
+
+        // The user was inserted directly into the primary so the replicas have to be told to copy it.
+        standIn.sync();
+
+        target = ClientBuilder.newClient().target(format("http://localhost:%d/rest/", port));
+    }
+
+    @Test
+    public void Reads_are_sent_to_the_replicas_once_they_have_every_change() throws SQLException {
+
+        // Change the user on the replicas only, so a read that returns this change can only have come from a replica.
+        for (Replica replica : replicas) {
+            execute(replica, "UPDATE user SET first_name = 'Replica' WHERE id = ?", persistedUser.getId());
+        }
+
+        final long[] connectionCounts = connectionCounts();
+
+        for (int i = 0; i < replicas.size(); i++) {
+            assertEquals("Replica", retrieveAll().get(0).getFirstName());
+        }
+
+        // The replicas take turns so every one of them should have been read.
+        for (int i = 0; i < replicas.size(); i++) {
+            assertTrue(replicas.get(i).getConnectionCount() > connectionCounts[i]);
+        }
+    }
+
+    @Test
+    public void The_users_that_are_cached_are_read_from_the_replicas_once_they_have_every_change()
+            throws SQLException {
+
+        for (Replica replica : replicas) {
+            execute(replica, "UPDATE user SET first_name = 'Replica' WHERE id = ?", persistedUser.getId());
+        }
+
+        final long[] connectionCounts = connectionCounts();
+
+        assertEquals("Replica", retrieve(persistedUser.getId()).getFirstName());
+        final Map<?, ?> result = users().queryParam("ids", persistedUser.getId())
+                .request(MediaType.APPLICATION_JSON_TYPE).get(Map.class);
+        final Map<?, ?> user = (Map<?, ?>) ((List<?>) result.get("users")).get(0);
+        assertEquals("Replica", user.get("firstName"));
+        assertTrue(replicas.get(0).getConnectionCount() + replicas.get(1).getConnectionCount()
+                >= connectionCounts[0] + connectionCounts[1] + 2);
+    }
+
+    @Test
+    public void Read_only_transactions_do_not_put_entities_into_the_second_level_cache() {
+
+        assertEquals(CacheMode.GET, cacheMode(true));
+        assertEquals(CacheMode.NORMAL, cacheMode(false));
+    }
+
+    @Test
+    public void Reads_fall_back_to_the_primary_when_the_replicas_are_behind() {
+
+        final long fallbackCount = fallbackConnectionCount();
+
+        persistedUser.setLastName("Updated");
+        final Response response = users().path(persistedUser.getId().toString()).request()
+                .put(entity(persistedUser, MediaType.APPLICATION_JSON_TYPE));
+        assertEquals(204, response.getStatus());
+
+        assertEquals("Updated", retrieveAll().get(0).getLastName());
+        assertEquals("Updated", retrieve(persistedUser.getId()).getLastName());
+        assertTrue(fallbackConnectionCount() >= fallbackCount + 2);
+    }
+
+    @Test
+    public void Writes_are_sent_to_the_primary_and_copied_to_the_replicas() throws SQLException {
+
+        final Response response = users().request(MediaType.APPLICATION_JSON_TYPE)
+                .post(entity(userOne(), MediaType.APPLICATION_JSON_TYPE));
+        assertEquals(201, response.getStatus());
+
+        final Long id = response.readEntity(Id.class).getId();
+
+        for (Replica replica : replicas) {
+            assertEquals(0, count(replica, id));
+        }
+
+        standIn.refresh();
+
+        for (Replica replica : replicas) {
+            assertEquals(1, count(replica, id));
+        }
+
+        final long[] connectionCounts = connectionCounts();
+
+        assertEquals(userOne().getEmail(), users().path(id.toString()).queryParam("fields", "email")
+                .request(MediaType.APPLICATION_JSON_TYPE).get(Map.class).get("email"));
+        assertTrue(replicas.get(0).getConnectionCount() + replicas.get(1).getConnectionCount()
+                > connectionCounts[0] + connectionCounts[1]);
+    }
+
+    @Test
+    public void I_can_retrieve_the_replica_statistics() {
+
+        final Map<?, ?> stats = statistics();
+
+        assertEquals(0, ((Number) stats.get("maxLagMillis")).intValue());
+
+        final List<?> replicaStats = (List<?>) stats.get("replicas");
+        assertEquals(replicas.size(), replicaStats.size());
+
+        for (Object replica : replicaStats) {
+            assertEquals(0, ((Number) ((Map<?, ?>) replica).get("lagMillis")).intValue());
+        }
+    }
+
+    private WebTarget users() {
+
+        return target.path("users");
+    }
+
+    private User retrieve(Long id) {
+
+        final Response response = users().path(id.toString()).request(MediaType.APPLICATION_JSON_TYPE).get();
+
+        assertEquals(200, response.getStatus());
+
+        return response.readEntity(User.class);
+    }
+
+    private List<User> retrieveAll() {
+
+        final Response response = users().queryParam("limit", 1).request(MediaType.APPLICATION_JSON_TYPE).get();
+
+        assertEquals(200, response.getStatus());
+
+        return response.readEntity(new GenericType<List<User>>() {
+        });
+    }
+
+    private Map<?, ?> statistics() {
+
+        return target.path("stats/replicas").request(MediaType.APPLICATION_JSON_TYPE).get(Map.class);
+    }
+
+    private long fallbackConnectionCount() {
+
+        return ((Number) statistics().get("fallbackConnectionCount")).longValue();
+    }
+
+    private CacheMode cacheMode(boolean readOnly) {
+
+        final TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setReadOnly(readOnly);
+
+        return template.execute(new TransactionCallback<CacheMode>() {
+            @Override
+            public CacheMode doInTransaction(TransactionStatus status) {
+                return EntityManagerFactoryUtils.getTransactionalEntityManager(entityManagerFactory)
+                        .unwrap(Session.class).getCacheMode();
+            }
+        });
+    }
+
+    private long[] connectionCounts() {
+
+        final long[] counts = new long[replicas.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = replicas.get(i).getConnectionCount();
+        }
+
+        return counts;
+    }
+
+    private static void execute(Replica replica, String sql, Long id) throws SQLException {
+
+        try (
+                Connection connection = replica.getDataSource().getConnection();
+                PreparedStatement statement = connection.prepareStatement(sql)
+        ) {
+            statement.setLong(1, id);
+            statement.executeUpdate();
+        }
+    }
+
+    private static int count(Replica replica, Long id) throws SQLException {
+
+        try (
+                Connection connection = replica.getDataSource().getConnection();
+                PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM user WHERE id = ?")
+        ) {
+            statement.setLong(1, id);
+
+            try (ResultSet result = statement.executeQuery()) {
+                result.next();
+                return result.getInt(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright 2015 Karl Bennett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package example.rest.spring.shard;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import example.rest.spring.SpringBootRestServlet;
+import example.rest.spring.data.Id;
+import example.rest.spring.data.User;
+import org.glassfish.jersey.client.HttpUrlConnectorProvider;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.IntegrationTest;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static example.rest.spring.data.Users.userOne;
+import static java.lang.String.format;
+import static java.util.Arrays.asList;
+import static javax.ws.rs.client.Entity.entity;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the application with the "shard" profile and checks that the users are spread across the shards while the
+ * endpoints still behave as if there were a single database. The users are created through the endpoints so that their
+ * emails are recorded on their home shards. The user and entity caches are disabled so that every read reaches a shard.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = SpringBootRestServlet.class)
+@WebAppConfiguration("classpath:")
+@ActiveProfiles("shard")
+@IntegrationTest({"server.port=0", "management.port=0", "users.cache.maximum-size=0",
+        "spring.jpa.properties.hibernate.cache.use_second_level_cache=false", "users.stream.batch-size=4"})
+public class ShardedUserTest {
+
+    private static final int USER_NUMBER = 24;
+
+    @Value("${local.server.port}")
+    private int port;
+
+    @Autowired
+    private Shards shards;
+
+    private WebTarget target;
+
+    @Before
+    public void setup() {
+
+        target = ClientBuilder.newClient().target(format("http://localhost:%d/rest/users", port));
+
+        assertEquals(204, target.request().delete().getStatus());
+    }
+
+    @Test
+    public void Users_are_spread_across_the_shards() {
+
+        final List<Long> ids = createUsers(USER_NUMBER);
+
+        int total = 0;
+        for (int shard = 0; shard < shards.size(); shard++) {
+
+            final List<Long> shardIds = new JdbcTemplate(shards.getDataSource(shard))
+                    .queryForList("SELECT id FROM user", Long.class);
+
+            assertTrue(format("Shard %d has no users.", shard), !shardIds.isEmpty());
+
+            for (Long id : shardIds) {
+                assertEquals(shard, shards.shardOf(id));
+            }
+
+            total += shardIds.size();
+        }
+
+        assertEquals(USER_NUMBER, total);
+
+        final List<String> emails = new ArrayList<>();
+        for (Long id : ids) {
+            emails.add(retrieve(id).getEmail());
+        }
+
+        for (int i = 0; i < USER_NUMBER; i++) {
+            assertTrue(emails.contains(email(i)));
+        }
+    }
+
+    @Test
+    public void I_can_retrieve_the_users_from_every_shard_in_id_order() {
+
+        final List<Long> ids = createUsers(USER_NUMBER);
+
+        assertEquals(ids, ids(target.request(MediaType.APPLICATION_JSON_TYPE).get(new GenericType<List<User>>() {
+        })));
+
+        final List<Long> paged = new ArrayList<>();
+        for (Response page = page(target.queryParam("limit", 10)); ; page = page(target.queryParam("limit", 10)
+                .queryParam("after", paged.get(paged.size() - 1)))) {
+
+            final List<User> users = page.readEntity(new GenericType<List<User>>() {
+            });
+            paged.addAll(ids(users));
+
+            if (null == page.getHeaderString("Link")) {
+                break;
+            }
+        }
+
+        assertEquals(ids, paged);
+    }
+
+    @Test
+    public void I_can_retrieve_users_from_many_shards_by_their_ids() {
+
+        final List<Long> ids = createUsers(USER_NUMBER).subList(0, 10);
+        final long unknownId = Shards.firstId(shards.size() - 1) + 1000000;
+
+        final Map<?, ?> result = target.queryParam("ids", join(ids) + "," + unknownId)
+                .request(MediaType.APPLICATION_JSON_TYPE).get(Map.class);
+
+        final List<Long> found = new ArrayList<>();
+        for (Object user : (List<?>) result.get("users")) {
+            found.add(((Number) ((Map<?, ?>) user).get("id")).longValue());
+        }
+
+        assertEquals(ids, found);
+        assertEquals(1, ((List<?>) result.get("missing")).size());
+        assertEquals(unknownId, ((Number) ((List<?>) result.get("missing")).get(0)).longValue());
+    }
+
+    @Test
+    public void I_can_sort_the_users_from_every_shard() {
+
+        final List<User> expected = new ArrayList<>();
+        for (int i = 0; i < USER_NUMBER; i++) {
+
+            final User user = user(email(i));
+            user.setLastName("Last" + (i % 3));
+            user.setId(create(user).readEntity(Id.class).getId());
+
+            expected.add(user);
+        }
+
+        // Last name ascending then ID descending.
+        Collections.sort(expected, new Comparator<User>() {
+            @Override
+            public int compare(User left, User right) {
+                final int lastNames = left.getLastName().compareTo(right.getLastName());
+                return 0 == lastNames ? right.getId().compareTo(left.getId()) : lastNames;
+            }
+        });
+
+        final List<User> sorted = target.queryParam("sort", "lastName,-id").request(MediaType.APPLICATION_JSON_TYPE)
+                .get(new GenericType<List<User>>() {
+                });
+
+        assertEquals(ids(expected), ids(sorted));
+
+        final List<User> filtered = target.queryParam("lastName", "Last1").queryParam("limit", 100)
+                .request(MediaType.APPLICATION_JSON_TYPE).get(new GenericType<List<User>>() {
+                });
+
+        assertEquals(USER_NUMBER / 3, filtered.size());
+        assertEquals(sorted(ids(filtered)), ids(filtered));
+    }
+
+    @Test
+    public void I_can_export_the_users_from_every_shard_in_id_order() throws IOException {
+
+        final List<Long> ids = createUsers(USER_NUMBER);
+
+        final Response response = target.path("export").request("application/x-ndjson").get();
+        assertEquals(200, response.getStatus());
+
+        final ObjectMapper objectMapper = new ObjectMapper();
+
+        final List<User> users = new ArrayList<>();
+        for (String line : response.readEntity(String.class).split("\n")) {
+            users.add(objectMapper.readValue(line, User.class));
+        }
+
+        assertEquals(ids, ids(users));
+    }
+
+    @Test
+    public void I_cannot_create_two_users_with_the_same_email_on_different_shards() {
+
+        createUsers(USER_NUMBER);
+
+        // Every user is created by a separate request so the duplicate emails must be caught across the shards.
+        for (int i = 0; i < USER_NUMBER; i++) {
+            assertEquals(400, create(user(email(i))).getStatus());
+        }
+    }
+
+    @Test
+    public void I_can_create_a_batch_of_users_across_the_shards() {
+
+        final Long existing = createUsers(1).get(0);
+
+        final List<User> batch = new ArrayList<>();
+        for (int i = 1; i < USER_NUMBER; i++) {
+            batch.add(user(email(i)));
+        }
+        batch.add(user(email(0)));
+        batch.add(user(email(1)));
+
+        final Response response = target.path("batch").request(MediaType.APPLICATION_JSON_TYPE)
+                .post(entity(batch, MediaType.APPLICATION_JSON_TYPE));
+        assertEquals(200, response.getStatus());
+
+        final List<Map<String, ?>> results = response.readEntity(new GenericType<List<Map<String, ?>>>() {
+        });
+
+        assertEquals(batch.size(), results.size());
+        for (int i = 0; i < USER_NUMBER - 1; i++) {
+            final Long id = ((Number) results.get(i).get("id")).longValue();
+            assertEquals(batch.get(i).getEmail(), retrieve(id).getEmail());
+        }
+        assertNotNull(results.get(USER_NUMBER - 1).get("error"));
+        assertNotNull(results.get(USER_NUMBER).get("error"));
+
+        assertEquals(email(0), retrieve(existing).getEmail());
+    }
+
+    @Test
+    public void I_can_reuse_an_email_once_it_has_been_changed_or_deleted() {
+
+        final Long id = createUsers(1).get(0);
+
+        assertEquals(204, patch(id, format("{\"email\": \"%s\"}", email(1))).getStatus());
+        assertEquals(email(1), retrieve(id).getEmail());
+
+        assertEquals(400, create(user(email(1))).getStatus());
+        assertEquals(201, create(user(email(0))).getStatus());
+
+        assertEquals(204, target.path(id.toString()).request().delete().getStatus());
+
+        assertEquals(201, create(user(email(1))).getStatus());
+    }
+
+    @Test
+    public void Only_the_email_a_user_ends_up_with_is_kept_after_concurrent_changes() throws Exception {
+
+        final Long id = createUsers(1).get(0);
+
+        final int changes = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(changes);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        try {
+            final List<Future<Integer>> statuses = new ArrayList<>();
+            for (int i = 1; i <= changes; i++) {
+                final String email = email(i);
+                statuses.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        return patch(id, format("{\"email\": \"%s\"}", email)).getStatus();
+                    }
+                }));
+            }
+
+            start.countDown();
+
+            for (Future<Integer> status : statuses) {
+                assertEquals(204, (int) status.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        final String email = retrieve(id).getEmail();
+
+        // Every email the user was changed from or to on the way must have been released.
+        for (int i = 0; i <= changes; i++) {
+            assertEquals(email(i).equals(email) ? 400 : 201, create(user(email(i))).getStatus());
+        }
+    }
+
+    private List<Long> createUsers(int number) {
+
+        final List<Long> ids = new ArrayList<>(number);
+
+        for (int i = 0; i < number; i++) {
+
+            final Response response = create(user(email(i)));
+            assertEquals(201, response.getStatus());
+
+            ids.add(response.readEntity(Id.class).getId());
+        }
+
+        // The users are listed in ID order, which isn't the order they were created in once they are on many shards.
+        return sorted(ids);
+    }
+
+    private Response create(User user) {
+
+        return target.request(MediaType.APPLICATION_JSON_TYPE).post(entity(user, MediaType.APPLICATION_JSON_TYPE));
+    }
+
+    private User retrieve(Long id) {
+
+        final Response response = target.path(id.toString()).request(MediaType.APPLICATION_JSON_TYPE).get();
+
+        assertEquals(200, response.getStatus());
+
+        return response.readEntity(User.class);
+    }
+
+    private static Response page(WebTarget target) {
+
+        final Response response = target.request(MediaType.APPLICATION_JSON_TYPE).get();
+
+        assertEquals(200, response.getStatus());
+
+        return response;
+    }
+
+    private Response patch(Long id, String patch) {
+
+        // HttpURLConnection doesn't support PATCH without this workaround.
+        return target.path(id.toString()).property(HttpUrlConnectorProvider.SET_METHOD_WORKAROUND, true).request()
+                .method("PATCH", entity(patch, "application/merge-patch+json"));
+    }
+
+    private static User user(String email) {
+
+        final User user = userOne();
+        user.setEmail(email);
+
+        return user;
+    }
+
+    private static String email(int number) {
+
+        return format("user.%d@shard.test", number);
+    }
+
+    private static List<Long> ids(List<? extends Id> users) {
+
+        final List<Long> ids = new ArrayList<>(users.size());
+        for (Id user : users) {
+            ids.add(user.getId());
+        }
+
+        return ids;
+    }
+
+    private static List<Long> sorted(List<Long> ids) {
+
+        final List<Long> sorted = new ArrayList<>(ids);
+        Collections.sort(sorted);
+
+        return sorted;
+    }
+
+    private static String join(List<Long> ids) {
+
+        final StringBuilder joined = new StringBuilder();
+        for (Long id : ids) {
+            joined.append(0 == joined.length() ? "" : ",").append(id);
+        }
+
+        return joined.toString();
+    }
+}